@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra.benchmark;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientURI;
+import de.flapdoodle.embed.mongo.MongodExecutable;
+import de.flapdoodle.embed.mongo.MongodStarter;
+import de.flapdoodle.embed.mongo.config.MongodConfigBuilder;
+import de.flapdoodle.embed.mongo.config.Net;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.process.runtime.Network;
+import okra.OkraSpring;
+import okra.builder.OkraSpringBuilder;
+import okra.model.DefaultOkraItem;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connects the benchmarks to MongoDB.
+ * <p>
+ * By default a local MongoDB is used, its address can be changed with the
+ * {@code okra.benchmark.mongo} system property (a MongoDB URI). With
+ * {@code -Dokra.benchmark.embedded=true} an embedded MongoDB is started instead.
+ */
+final class BenchmarkMongo {
+
+    static final String MONGO_PROPERTY = "okra.benchmark.mongo";
+    static final String EMBEDDED_PROPERTY = "okra.benchmark.embedded";
+
+    private static final String DATABASE = "okraBenchmark";
+
+    private final MongodExecutable embedded;
+    private final MongoClient client;
+    private final MongoTemplate mongoTemplate;
+
+    private BenchmarkMongo(final MongodExecutable embedded, final MongoClient client) {
+        this.embedded = embedded;
+        this.client = client;
+        this.mongoTemplate = new MongoTemplate(client, DATABASE);
+    }
+
+    static BenchmarkMongo start() throws IOException {
+        if (Boolean.getBoolean(EMBEDDED_PROPERTY)) {
+            final int port = Network.getFreeServerPort();
+            final MongodExecutable embedded = MongodStarter.getDefaultInstance().prepare(new MongodConfigBuilder()
+                    .version(Version.Main.V3_4)
+                    .net(new Net("localhost", port, Network.localhostIsIPv6()))
+                    .build());
+            embedded.start();
+            return new BenchmarkMongo(embedded, new MongoClient("localhost", port));
+        }
+
+        final String uri = System.getProperty(MONGO_PROPERTY, "mongodb://localhost:27017");
+        return new BenchmarkMongo(null, new MongoClient(new MongoClientURI(uri)));
+    }
+
+    MongoTemplate getMongoTemplate() {
+        return mongoTemplate;
+    }
+
+    OkraSpring<DefaultOkraItem> okra(final String collection) {
+        final OkraSpringBuilder<DefaultOkraItem> builder = new OkraSpringBuilder<DefaultOkraItem>()
+                .withMongoTemplate(mongoTemplate)
+                .withScheduleChunkSize(10_000)
+                .withIndexProvisioning();
+
+        builder.withDatabase(DATABASE)
+                .withCollection(collection)
+                .withExpiration(5, TimeUnit.MINUTES)
+                .withItemClass(DefaultOkraItem.class);
+
+        return builder.build();
+    }
+
+    void stop() {
+        client.close();
+
+        if (embedded != null) {
+            embedded.stop();
+        }
+    }
+}
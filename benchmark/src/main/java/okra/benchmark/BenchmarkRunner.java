@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.stream.Stream;
+
+/**
+ * Runs the benchmarks matching the given regular expression (all of them by default)
+ * and writes the results as JSON, so runs of different releases can be compared.
+ * <p>
+ * The results file is {@code okra-benchmark-results.json}, or the one given by the
+ * {@code okra.benchmark.results} system property.
+ */
+public final class BenchmarkRunner {
+
+    private static final String RESULTS_PROPERTY = "okra.benchmark.results";
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(args.length > 0 ? args[0] : ".*Benchmark.*")
+                .warmupIterations(3)
+                .measurementIterations(5)
+                .forks(1)
+                .jvmArgsAppend(propagatedProperties())
+                .resultFormat(ResultFormatType.JSON)
+                .result(System.getProperty(RESULTS_PROPERTY, "okra-benchmark-results.json"))
+                .build();
+
+        new Runner(options).run();
+    }
+
+    /**
+     * The benchmarks run in forked JVMs, so the MongoDB settings are passed along
+     */
+    private static String[] propagatedProperties() {
+        return Stream.of(BenchmarkMongo.MONGO_PROPERTY, BenchmarkMongo.EMBEDDED_PROPERTY)
+                .filter(property -> System.getProperty(property) != null)
+                .map(property -> "-D" + property + "=" + System.getProperty(property))
+                .toArray(String[]::new);
+    }
+}
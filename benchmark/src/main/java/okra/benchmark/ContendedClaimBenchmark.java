@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra.benchmark;
+
+import okra.model.DefaultOkraItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Claim throughput with many threads competing for the same due items.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ContendedClaimBenchmark {
+
+    @Benchmark
+    @Threads(1)
+    public Optional<DefaultOkraItem> peek001Threads(final SeededQueueState queue) {
+        return peek(queue);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Optional<DefaultOkraItem> peek004Threads(final SeededQueueState queue) {
+        return peek(queue);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Optional<DefaultOkraItem> peek016Threads(final SeededQueueState queue) {
+        return peek(queue);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Optional<DefaultOkraItem> peek064Threads(final SeededQueueState queue) {
+        return peek(queue);
+    }
+
+    @Benchmark
+    @Threads(256)
+    public Optional<DefaultOkraItem> peek256Threads(final SeededQueueState queue) {
+        return peek(queue);
+    }
+
+    private static Optional<DefaultOkraItem> peek(final SeededQueueState queue) {
+        final Optional<DefaultOkraItem> item = queue.getOkra().peek();
+        queue.claimed(1);
+        return item;
+    }
+}
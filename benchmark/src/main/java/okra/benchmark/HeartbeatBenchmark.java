@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra.benchmark;
+
+import okra.model.DefaultOkraItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heartbeat throughput, one item per write or all claimed items in bulk.
+ * Results are in heartbeats per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HeartbeatBenchmark {
+
+    private static final int CLAIMED_ITEMS = 100;
+
+    @State(Scope.Thread)
+    public static class ClaimedItems {
+
+        private List<DefaultOkraItem> items;
+        private int next;
+
+        @Setup(Level.Iteration)
+        public void claim(final SeededQueueState queue) {
+            items = queue.getOkra().peekBatch(CLAIMED_ITEMS);
+            next = 0;
+
+            if (items.isEmpty()) {
+                throw new IllegalStateException("No item of the seeded queue could be claimed");
+            }
+        }
+    }
+
+    @Benchmark
+    public Optional<DefaultOkraItem> heartbeat(final SeededQueueState queue, final ClaimedItems claimed) {
+        final int index = claimed.next++ % claimed.items.size();
+        final Optional<DefaultOkraItem> updated = queue.getOkra().heartbeat(claimed.items.get(index));
+        updated.ifPresent(item -> claimed.items.set(index, item));
+        return updated;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CLAIMED_ITEMS)
+    public List<DefaultOkraItem> heartbeatAll(final SeededQueueState queue, final ClaimedItems claimed) {
+        return queue.getOkra().heartbeatAll(claimed.items);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra.benchmark;
+
+import okra.OkraSpring;
+import okra.ScheduleResult;
+import okra.model.DefaultOkraItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Schedule throughput, one item per write or in bulk. Results are in items per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ScheduleBenchmark {
+
+    private static final String COLLECTION = "scheduleBenchmark";
+    private static final int BULK_SIZE = 1000;
+
+    private BenchmarkMongo mongo;
+    private OkraSpring<DefaultOkraItem> okra;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mongo = BenchmarkMongo.start();
+        okra = mongo.okra(COLLECTION);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mongo.getMongoTemplate().dropCollection(COLLECTION);
+        mongo.stop();
+    }
+
+    @Benchmark
+    public DefaultOkraItem schedule() {
+        final DefaultOkraItem item = SeededQueueState.dueItem();
+        okra.schedule(item);
+        return item;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BULK_SIZE)
+    public ScheduleResult<DefaultOkraItem> scheduleAll() {
+        return okra.scheduleAll(Stream.generate(SeededQueueState::dueItem).limit(BULK_SIZE));
+    }
+}
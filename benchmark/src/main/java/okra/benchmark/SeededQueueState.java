@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra.benchmark;
+
+import okra.OkraSpring;
+import okra.base.model.OkraStatus;
+import okra.model.DefaultOkraItem;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * A queue pre-seeded with {@link #queueSize} due items.
+ * <p>
+ * Each size has its own collection, which is only seeded again when its size
+ * doesn't match, so large queues are seeded once and reused across runs.
+ * Claimed items are returned to PENDING before every iteration, and before any
+ * invocation once half of the queue was claimed, so claims never measure an
+ * empty queue. Benchmarks report their claims with {@link #claimed(int)}.
+ */
+@State(Scope.Benchmark)
+public class SeededQueueState {
+
+    @Param({"10000", "1000000", "10000000"})
+    public int queueSize;
+
+    private BenchmarkMongo mongo;
+    private OkraSpring<DefaultOkraItem> okra;
+    private String collection;
+    private final AtomicLong claimed = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mongo = BenchmarkMongo.start();
+        collection = "seededQueue" + queueSize;
+        okra = mongo.okra(collection);
+
+        if (mongo.getMongoTemplate().getCollection(collection).count() != queueSize) {
+            mongo.getMongoTemplate().dropCollection(collection);
+            okra = mongo.okra(collection);
+            okra.scheduleAll(Stream.generate(SeededQueueState::dueItem).limit(queueSize));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public synchronized void releaseClaimedItems() {
+        mongo.getMongoTemplate().updateMulti(
+                Query.query(Criteria.where("status").is(OkraStatus.PROCESSING)),
+                Update.update("status", OkraStatus.PENDING).set("heartbeat", null),
+                collection);
+        claimed.set(0);
+    }
+
+    @Setup(Level.Invocation)
+    public void releaseClaimedItemsIfDrained() {
+        if (claimed.get() >= queueSize / 2) {
+            synchronized (this) {
+                if (claimed.get() >= queueSize / 2) {
+                    releaseClaimedItems();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param count how many items an invocation claimed
+     */
+    public void claimed(final int count) {
+        claimed.addAndGet(count);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mongo.stop();
+    }
+
+    public OkraSpring<DefaultOkraItem> getOkra() {
+        return okra;
+    }
+
+    static DefaultOkraItem dueItem() {
+        final DefaultOkraItem item = new DefaultOkraItem();
+        item.setRunDate(LocalDateTime.now().minusMinutes(1));
+        return item;
+    }
+}
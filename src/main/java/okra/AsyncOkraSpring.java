@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import okra.base.model.OkraItem;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous facade over {@link OkraSpring}.
+ * <p>
+ * Every operation is dispatched to the given executor and completes a {@link CompletableFuture},
+ * so the calling thread doesn't wait for the database. The driver is still blocking: each
+ * pending operation holds one thread of the executor until the database answers, so the
+ * executor bounds how many operations run at once. Items are claimed on demand through
+ * {@link #peekBatch(int)}: the caller requests only as many items as it can handle,
+ * which keeps the amount of claimed but unprocessed items bounded.
+ *
+ * @param <T> the item type
+ */
+public class AsyncOkraSpring<T extends OkraItem> {
+
+    private final OkraSpring<T> okra;
+    private final Executor executor;
+
+    public AsyncOkraSpring(final OkraSpring<T> okra, final Executor executor) {
+        this.okra = okra;
+        this.executor = executor;
+    }
+
+    public CompletableFuture<Optional<T>> peek() {
+        return supply(okra::peek);
+    }
+
+    public CompletableFuture<List<T>> peekBatch(final int max) {
+        return supply(() -> okra.peekBatch(max));
+    }
+
+    public CompletableFuture<Optional<T>> poll() {
+        return supply(okra::poll);
+    }
+
+    public CompletableFuture<List<T>> pollBatch(final int max) {
+        return supply(() -> okra.pollBatch(max));
+    }
+
+    public CompletableFuture<Void> schedule(final T item) {
+        return CompletableFuture.runAsync(() -> okra.schedule(item), executor);
+    }
+
+    public CompletableFuture<Optional<T>> heartbeat(final T item) {
+        return supply(() -> okra.heartbeat(item));
+    }
+
+    public CompletableFuture<Optional<T>> heartbeatAndUpdateCustomAttrs(final T item,
+                                                                        final Map<String, Object> attrs) {
+        return supply(() -> okra.heartbeatAndUpdateCustomAttrs(item, attrs));
+    }
+
+    public CompletableFuture<Optional<T>> reschedule(final T item) {
+        return supply(() -> okra.reschedule(item));
+    }
+
+    public CompletableFuture<Void> delete(final T item) {
+        return CompletableFuture.runAsync(() -> okra.delete(item), executor);
+    }
+
+    /**
+     * @return the blocking instance behind this facade
+     */
+    public OkraSpring<T> getOkra() {
+        return okra;
+    }
+
+    private <R> CompletableFuture<R> supply(final Supplier<R> supplier) {
+        return CompletableFuture.supplyAsync(supplier, executor);
+    }
+}
@@ -0,0 +1,621 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import okra.base.model.OkraItem;
+import okra.base.model.OkraStatus;
+import okra.base.spring.AbstractOkraSpring;
+import okra.codec.OkraItemCodec;
+import okra.exception.OkraItemNotFoundException;
+import okra.exception.OkraRuntimeException;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Okra backed by memory and a local journal instead of MongoDB, for edge deployments and tests.
+ * <p>
+ * Items are kept as documents encoded by an {@link OkraItemCodec}, with the same layout as in a
+ * MongoDB collection. Pending items are indexed by run date and items being processed by heartbeat,
+ * in concurrent skip lists. Claiming an item removes its key from the index, which only one thread
+ * can do, so claims don't take a queue-wide lock; changes of a given item are serialized by one of
+ * a fixed set of striped locks.
+ * <p>
+ * Every change is appended to an {@link OkraJournal} before the call returns, so the queue survives
+ * a restart. Journal writes are only forced to the disk when sync writes are enabled. The journal
+ * is compacted by a background thread, so the change that crosses the compaction threshold
+ * doesn't pay for the compaction.
+ * <p>
+ * Claims, heartbeats and the acknowledgements by {@link #complete(OkraItem)} and
+ * {@link #release(OkraItem)} are guarded by the claim like in {@link OkraSpring}, while
+ * {@link #reschedule(OkraItem)} matches the item by its id alone. Failures with retries and
+ * dead letters, completed retention and final statuses, deduplication, priorities, types and
+ * limits, partitions and batched acknowledgements are only offered by {@link OkraSpring}.
+ *
+ * @param <T> the item type
+ * @see okra.builder.EmbeddedOkraBuilder
+ */
+public class EmbeddedOkra<T extends OkraItem> extends AbstractOkraSpring<T> implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EmbeddedOkra.class);
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final long defaultHeartbeatExpirationMillis;
+    private final OkraItemCodec<T> codec;
+    private final OkraJournal journal;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Key> pending = new ConcurrentSkipListSet<>();
+    private final ConcurrentSkipListSet<Key> processing = new ConcurrentSkipListSet<>();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final ExecutorService compactionExecutor;
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+
+    public EmbeddedOkra(final Path journalFile,
+                        final String database,
+                        final String collection,
+                        final long defaultHeartbeatExpiration,
+                        final TimeUnit defaultHeartbeatExpirationUnit,
+                        final OkraItemCodec<T> codec,
+                        final boolean syncWrites,
+                        final int compactionThreshold) {
+        super(database, collection);
+        this.defaultHeartbeatExpirationMillis = defaultHeartbeatExpirationUnit.toMillis(defaultHeartbeatExpiration);
+        this.codec = codec;
+        this.journal = new OkraJournal(journalFile, syncWrites, compactionThreshold);
+        this.compactionExecutor = Executors.newSingleThreadExecutor(r -> {
+            final Thread thread = new Thread(r, "okra-compaction-" + collection);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+
+        journal.open().values().forEach(document -> index(new Entry(document)));
+        LOGGER.info("Loaded {} items of collection {} from journal {}", entries.size(), collection, journalFile);
+    }
+
+    @Override
+    public Optional<T> poll() {
+        return claim(true);
+    }
+
+    @Override
+    public Optional<T> peek() {
+        return claim(false);
+    }
+
+    @Override
+    public T retrieve() throws OkraItemNotFoundException {
+        return peek().orElseThrow(OkraItemNotFoundException::new);
+    }
+
+    /**
+     * Claims up to {@code max} items and removes them from the queue.
+     *
+     * @param max the maximum number of items to be claimed
+     * @return the claimed items, never null
+     */
+    public List<T> pollBatch(final int max) {
+        return claimBatch(max, true);
+    }
+
+    /**
+     * Claims up to {@code max} items.
+     *
+     * @param max the maximum number of items to be claimed
+     * @return the claimed items, never null
+     */
+    public List<T> peekBatch(final int max) {
+        return claimBatch(max, false);
+    }
+
+    private List<T> claimBatch(final int max, final boolean remove) {
+        final List<T> claimed = new ArrayList<>(Math.max(0, max));
+
+        while (claimed.size() < max) {
+            final Optional<T> item = claim(remove);
+
+            if (!item.isPresent()) {
+                break;
+            }
+
+            claimed.add(item.get());
+        }
+
+        return claimed;
+    }
+
+    /**
+     * Takes the first pending item that is due, or else the item whose heartbeat expired first.
+     * A key removed by this thread may still be stale if the item changed meanwhile, in which
+     * case the next key is tried.
+     */
+    private Optional<T> claim(final boolean remove) {
+        while (true) {
+            final long now = System.currentTimeMillis();
+            Key key = firstBefore(pending, new Date(now));
+            ConcurrentSkipListSet<Key> index = pending;
+
+            if (key == null) {
+                key = firstBefore(processing, new Date(now - defaultHeartbeatExpirationMillis));
+                index = processing;
+            }
+
+            if (key == null) {
+                return Optional.empty();
+            }
+
+            if (!index.remove(key)) {
+                continue;
+            }
+
+            synchronized (lock(key.id)) {
+                final Entry entry = entries.get(key.id);
+
+                if (entry == null || !key.equals(entry.key())) {
+                    continue;
+                }
+
+                if (remove) {
+                    entries.remove(key.id);
+                    journal.remove(key.id);
+                    return Optional.of(codec.decode(entry.document));
+                }
+
+                final Entry claimed = entry.with(OkraStatus.PROCESSING, entry.runDate, nextHeartbeat(entry), null);
+                replace(entry, claimed);
+                return Optional.of(codec.decode(claimed.document));
+            }
+        }
+    }
+
+    private static Key firstBefore(final ConcurrentSkipListSet<Key> index, final Date date) {
+        final Key first = index.ceiling(Key.MIN);
+        return first == null || !first.date.before(date) ? null : first;
+    }
+
+    @Override
+    public Optional<T> reschedule(final T item) {
+        if (item.getId() != null) {
+            synchronized (lock(item.getId())) {
+                final Entry entry = entries.get(item.getId());
+
+                if (entry != null) {
+                    replace(entry, entry.with(OkraStatus.PENDING, toDate(item.getRunDate()), null, null));
+                    item.setStatus(OkraStatus.PENDING);
+                    return Optional.of(item);
+                }
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * Acknowledges a processed item by removing it, unless its claim was lost meanwhile,
+     * e.g. re-claimed after its heartbeat expired, in which case it's left to its new owner.
+     *
+     * @param item the processed item
+     */
+    public void complete(final T item) {
+        if (item.getId() == null || item.getHeartbeat() == null) {
+            return;
+        }
+
+        synchronized (lock(item.getId())) {
+            final Entry entry = entries.get(item.getId());
+
+            if (!holdsClaim(entry, item)) {
+                LOGGER.warn("Item {} was not completed because its claim was lost", item.getId());
+                return;
+            }
+
+            entries.remove(item.getId());
+            unindex(entry);
+            journal.remove(item.getId());
+        }
+    }
+
+    /**
+     * Returns a claimed item to PENDING at its run date, unless its claim was lost meanwhile.
+     *
+     * @param item the claimed item
+     * @return false if the claim of the item was lost, so it wasn't released
+     */
+    public boolean release(final T item) {
+        if (item.getId() == null || item.getHeartbeat() == null) {
+            return false;
+        }
+
+        synchronized (lock(item.getId())) {
+            final Entry entry = entries.get(item.getId());
+
+            if (!holdsClaim(entry, item)) {
+                LOGGER.warn("Item {} was not released because its claim was lost", item.getId());
+                return false;
+            }
+
+            replace(entry, entry.with(OkraStatus.PENDING, toDate(item.getRunDate()), null, null));
+        }
+
+        item.setStatus(OkraStatus.PENDING);
+        item.setHeartbeat(null);
+        return true;
+    }
+
+    @Override
+    public Optional<T> heartbeat(final T item) {
+        return heartbeatAndUpdateCustomAttrs(item, null);
+    }
+
+    @Override
+    public Optional<T> heartbeatAndUpdateCustomAttrs(final T item, final Map<String, Object> attrs) {
+        if (item.getId() == null || item.getHeartbeat() == null || item.getStatus() == null) {
+            return Optional.empty();
+        }
+
+        synchronized (lock(item.getId())) {
+            final Entry entry = entries.get(item.getId());
+
+            if (!holdsClaim(entry, item)) {
+                return Optional.empty();
+            }
+
+            final Entry heartbeated = entry.with(OkraStatus.PROCESSING, entry.runDate, nextHeartbeat(entry), attrs);
+            replace(entry, heartbeated);
+            return Optional.of(codec.decode(heartbeated.document));
+        }
+    }
+
+    /**
+     * Heartbeats all given items, refreshing the heartbeat of the given items in place.
+     *
+     * @param items the items being processed
+     * @return the items whose claim was lost, never null
+     */
+    public List<T> heartbeatAll(final Collection<T> items) {
+        final List<T> lost = new ArrayList<>();
+
+        for (final T item : items) {
+            final Optional<T> heartbeated = heartbeat(item);
+
+            if (heartbeated.isPresent()) {
+                item.setHeartbeat(heartbeated.get().getHeartbeat());
+            } else {
+                lost.add(item);
+            }
+        }
+
+        return lost;
+    }
+
+    @Override
+    public void delete(final T item) {
+        if (item.getId() == null) {
+            return;
+        }
+
+        synchronized (lock(item.getId())) {
+            final Entry entry = entries.remove(item.getId());
+
+            if (entry != null) {
+                unindex(entry);
+                journal.remove(item.getId());
+            }
+        }
+    }
+
+    @Override
+    public void schedule(final T item) {
+        validateSchedule(item);
+
+        item.setId(new ObjectId().toHexString());
+        item.setStatus(OkraStatus.PENDING);
+
+        final Entry entry = new Entry(codec.encode(item));
+
+        synchronized (lock(item.getId())) {
+            index(entry);
+            journal.put(entry.document);
+        }
+
+        compactIfNeeded();
+    }
+
+    /**
+     * Schedules all items, appending them to the journal in a single write.
+     * Items are validated like in {@link #schedule(OkraItem)}.
+     *
+     * @param items the items to be scheduled
+     * @return how many items were accepted and which ones were rejected
+     */
+    public ScheduleResult<T> scheduleAll(final Collection<T> items) {
+        final ScheduleResult<T> result = new ScheduleResult<>();
+        final List<Entry> accepted = new ArrayList<>(items.size());
+
+        for (final T item : items) {
+            final String validationError = scheduleValidationError(item);
+
+            if (validationError != null) {
+                result.addFailure(item, validationError);
+                continue;
+            }
+
+            item.setId(new ObjectId().toHexString());
+            item.setStatus(OkraStatus.PENDING);
+            accepted.add(new Entry(codec.encode(item)));
+        }
+
+        // Holding the journal, so the items are indexed after being appended and before any claim
+        // of them is appended, and no compaction can happen in between
+        synchronized (journal) {
+            journal.putAll(accepted.stream().map(entry -> entry.document).collect(Collectors.toList()));
+            accepted.forEach(this::index);
+        }
+
+        result.addAccepted(accepted.size());
+
+        compactIfNeeded();
+        return result;
+    }
+
+    @Override
+    public long countByStatus(final OkraStatus status) {
+        return entries.values().stream().filter(entry -> entry.status == status).count();
+    }
+
+    @Override
+    public long countDelayed() {
+        return pending.headSet(new Key(new Date(), "")).size();
+    }
+
+    /**
+     * Waits for a running compaction and closes the journal.
+     * The items are kept in it for the next start.
+     */
+    @Override
+    public void close() {
+        compactionExecutor.shutdown();
+
+        try {
+            if (!compactionExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOGGER.warn("Compaction of collection {} still running, closing its journal anyway",
+                        getCollection());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        journal.close();
+    }
+
+    private void replace(final Entry previous, final Entry next) {
+        unindex(previous);
+        index(next);
+        journal.put(next.document);
+        compactIfNeeded();
+    }
+
+    private void index(final Entry entry) {
+        entries.put(entry.id, entry);
+        final Key key = entry.key();
+
+        if (key != null) {
+            (entry.status == OkraStatus.PENDING ? pending : processing).add(key);
+        }
+    }
+
+    private void unindex(final Entry entry) {
+        final Key key = entry.key();
+
+        if (key != null) {
+            (entry.status == OkraStatus.PENDING ? pending : processing).remove(key);
+        }
+    }
+
+    /**
+     * Hands the compaction of the journal to the compaction thread when it's needed and not
+     * already on its way
+     */
+    private void compactIfNeeded() {
+        if (!journal.needsCompaction(entries.size()) || !compactionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            compactionExecutor.execute(() -> {
+                try {
+                    journal.compactIfNeeded(entries.size(), () -> entries.values().stream()
+                            .map(entry -> entry.document)
+                            .collect(Collectors.toList()));
+                } catch (final RuntimeException e) {
+                    LOGGER.error("Error compacting the journal of collection {}", getCollection(), e);
+                } finally {
+                    compactionScheduled.set(false);
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            // closed meanwhile, the journal is left as is
+            compactionScheduled.set(false);
+        }
+    }
+
+    /**
+     * @return whether the stored item is still PROCESSING with the heartbeat known by the caller
+     */
+    private boolean holdsClaim(final Entry entry, final T item) {
+        return entry != null
+                && entry.status == OkraStatus.PROCESSING
+                && Objects.equals(entry.heartbeat, toDate(item.getHeartbeat()));
+    }
+
+    private Object lock(final String id) {
+        return locks[Math.floorMod(id.hashCode(), LOCK_STRIPES)];
+    }
+
+    /**
+     * A heartbeat later than the current one, even within the same millisecond,
+     * so a heartbeat always invalidates the previous claim
+     */
+    private static Date nextHeartbeat(final Entry entry) {
+        final long now = System.currentTimeMillis();
+        return new Date(entry.heartbeat == null ? now : Math.max(now, entry.heartbeat.getTime() + 1));
+    }
+
+    private void validateSchedule(final T item) {
+        final String validationError = scheduleValidationError(item);
+
+        if (validationError != null) {
+            LOGGER.error("Impossible to schedule item because {}. Item: {}", validationError, item);
+            throw new OkraRuntimeException();
+        }
+    }
+
+    private String scheduleValidationError(final T item) {
+        if (item.getId() != null) {
+            return "it already has an ID";
+        }
+
+        if (item.getRunDate() == null) {
+            return "it doesn't have a schedule date";
+        }
+
+        return null;
+    }
+
+    private static Date toDate(final LocalDateTime dateTime) {
+        return dateTime == null ? null : Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    /**
+     * Current state of an item: its document and the fields it is indexed by.
+     * Entries are immutable once indexed, a change indexes a new entry.
+     */
+    private static final class Entry {
+
+        private final String id;
+        private final DBObject document;
+        private final OkraStatus status;
+        private final Date runDate;
+        private final Date heartbeat;
+
+        private Entry(final DBObject document) {
+            final Object status = document.get("status");
+
+            this.id = document.get("_id").toString();
+            this.document = document;
+            this.status = status == null ? null : OkraStatus.valueOf(status.toString());
+            this.runDate = (Date) document.get("runDate");
+            this.heartbeat = (Date) document.get("heartbeat");
+        }
+
+        private Entry with(final OkraStatus status,
+                           final Date runDate,
+                           final Date heartbeat,
+                           final Map<String, Object> attrs) {
+            final DBObject document = new BasicDBObject(this.document.toMap());
+
+            if (attrs != null) {
+                attrs.forEach((field, value) -> document.put(field,
+                        value instanceof LocalDateTime ? toDate((LocalDateTime) value) : value));
+            }
+
+            document.put("status", status.name());
+            document.put("runDate", runDate);
+
+            if (heartbeat == null) {
+                document.removeField("heartbeat");
+            } else {
+                document.put("heartbeat", heartbeat);
+            }
+
+            return new Entry(document);
+        }
+
+        /**
+         * @return the key of the item in its index, or null if it isn't claimable
+         */
+        private Key key() {
+            final Date date = status == OkraStatus.PENDING ? runDate
+                    : status == OkraStatus.PROCESSING ? heartbeat
+                    : null;
+            return date == null ? null : new Key(date, id);
+        }
+    }
+
+    /**
+     * Index key: the run date of pending items or the heartbeat of items being processed
+     */
+    private static final class Key implements Comparable<Key> {
+
+        private static final Key MIN = new Key(new Date(Long.MIN_VALUE), "");
+
+        private final Date date;
+        private final String id;
+
+        private Key(final Date date, final String id) {
+            this.date = date;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(final Key other) {
+            final int byDate = date.compareTo(other.date);
+            return byDate != 0 ? byDate : id.compareTo(other.id);
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof Key && compareTo((Key) other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * date.hashCode() + id.hashCode();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The indexes of a queue's collection and the plans MongoDB picks for the claim, expired items
+ * recovery and count queries of the queue, as reported by {@code explain}.
+ *
+ * @see OkraSpring#indexReport()
+ */
+public class IndexReport {
+
+    private final String collection;
+    private final List<String> indexes;
+    private final List<QueryPlan> plans;
+
+    IndexReport(final String collection, final List<String> indexes, final List<QueryPlan> plans) {
+        this.collection = collection;
+        this.indexes = Collections.unmodifiableList(indexes);
+        this.plans = Collections.unmodifiableList(plans);
+    }
+
+    public String getCollection() {
+        return collection;
+    }
+
+    /**
+     * @return the names of the indexes of the collection
+     */
+    public List<String> getIndexes() {
+        return indexes;
+    }
+
+    public List<QueryPlan> getPlans() {
+        return plans;
+    }
+
+    /**
+     * @return the plans that don't use an index
+     */
+    public List<QueryPlan> getUnindexedPlans() {
+        return plans.stream().filter(plan -> !plan.isIndexed()).collect(Collectors.toList());
+    }
+
+    /**
+     * @return whether every query uses an index
+     */
+    public boolean isIndexed() {
+        return plans.stream().allMatch(QueryPlan::isIndexed);
+    }
+
+    @Override
+    public String toString() {
+        return "IndexReport(collection=" + collection
+                + ", indexes=" + indexes
+                + ", plans=" + plans + ")";
+    }
+
+    /**
+     * The winning plan of one query of the queue
+     */
+    public static class QueryPlan {
+
+        private final String name;
+        private final String query;
+        private final List<String> stages;
+        private final Set<String> indexNames;
+
+        QueryPlan(final String name, final String query, final List<String> stages, final Set<String> indexNames) {
+            this.name = name;
+            this.query = query;
+            this.stages = Collections.unmodifiableList(stages);
+            this.indexNames = Collections.unmodifiableSet(indexNames);
+        }
+
+        /**
+         * @return what the query is used for, e.g. {@code claim} or {@code expired}
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the explained query, as sent to MongoDB
+         */
+        public String getQuery() {
+            return query;
+        }
+
+        /**
+         * @return the stages of the winning plan, from the root to the leaves
+         */
+        public List<String> getStages() {
+            return stages;
+        }
+
+        /**
+         * @return the names of the indexes scanned by the winning plan
+         */
+        public Set<String> getIndexNames() {
+            return indexNames;
+        }
+
+        /**
+         * @return false if the winning plan scans the whole collection, or if the collection
+         * doesn't exist yet so no plan could be picked
+         */
+        public boolean isIndexed() {
+            return !stages.isEmpty() && !stages.contains("COLLSCAN") && !stages.contains("EOF");
+        }
+
+        @Override
+        public String toString() {
+            return "QueryPlan(name=" + name
+                    + ", indexed=" + isIndexed()
+                    + ", stages=" + stages
+                    + ", indexNames=" + indexNames
+                    + ", query=" + query + ")";
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import okra.base.model.OkraItem;
+import okra.exception.OkraRuntimeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Groups acknowledgements of processed items into a single write.
+ * <p>
+ * Acknowledged items are buffered and completed with {@link OkraSpring#completeAll(java.util.Collection)}
+ * once the buffer is full or the flush interval elapses, whichever comes first. Items stay
+ * PROCESSING while buffered, so the flush interval must be well below the heartbeat expiration.
+ * With a batch size of one, items are completed right away. Once closed, the buffer rejects
+ * further acknowledgements.
+ *
+ * @param <T> the item type
+ */
+public class OkraAckBuffer<T extends OkraItem> implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OkraAckBuffer.class);
+
+    private final OkraSpring<T> okra;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final Object lock = new Object();
+    private final ScheduledExecutorService executor;
+    private List<T> buffer;
+    private boolean closed;
+
+    OkraAckBuffer(final OkraSpring<T> okra, final int batchSize, final long flushIntervalMillis) {
+        this.okra = okra;
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.buffer = new ArrayList<>(batchSize);
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "okra-ack-" + okra.getCollection());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void start() {
+        if (batchSize > 1) {
+            executor.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Acknowledges the given processed item.
+     *
+     * @param item the processed item
+     * @throws OkraRuntimeException if the buffer was closed
+     */
+    public void ack(final T item) {
+        final List<T> full;
+
+        synchronized (lock) {
+            if (closed) {
+                LOGGER.error("Impossible to acknowledge item {}. The ack buffer of collection {} is closed",
+                        item.getId(), okra.getCollection());
+                throw new OkraRuntimeException();
+            }
+
+            if (batchSize <= 1) {
+                full = null;
+            } else {
+                buffer.add(item);
+
+                if (buffer.size() < batchSize) {
+                    return;
+                }
+
+                full = drain();
+            }
+        }
+
+        if (full == null) {
+            okra.complete(item);
+            return;
+        }
+
+        try {
+            executor.execute(() -> completeAll(full));
+        } catch (final RejectedExecutionException e) {
+            // the buffer was closed while the batch was being drained
+            completeAll(full);
+        }
+    }
+
+    /**
+     * @return how many acknowledgements are waiting to be written
+     */
+    public int getPending() {
+        synchronized (lock) {
+            return buffer.size();
+        }
+    }
+
+    /**
+     * Writes the pending acknowledgements right away.
+     */
+    public void flush() {
+        final List<T> pending;
+
+        synchronized (lock) {
+            pending = drain();
+        }
+
+        completeAll(pending);
+    }
+
+    /**
+     * Stops the periodic flush and writes the pending acknowledgements.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+        }
+
+        executor.shutdown();
+
+        try {
+            executor.awaitTermination(okra.getHeartbeatExpirationMillis(), TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            flush();
+        }
+    }
+
+    private List<T> drain() {
+        final List<T> drained = buffer;
+        buffer = new ArrayList<>(batchSize);
+        return drained;
+    }
+
+    private void completeAll(final List<T> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+
+        try {
+            okra.completeAll(items);
+        } catch (final RuntimeException e) {
+            LOGGER.error("Error acknowledging {} items of collection {}", items.size(), okra.getCollection(), e);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import com.mongodb.DBObject;
+import okra.base.model.OkraItem;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+/**
+ * Lightweight handle of a claimed item, holding only the projected fields of the
+ * claimed document. The full item is only fetched if {@link #load()} is called, so
+ * handlers that route or acknowledge items by a few fields don't transfer nor decode
+ * their payloads.
+ *
+ * @param <T> the item type
+ * @see OkraSpring#peekProjected()
+ */
+public class OkraClaim<T extends OkraItem> {
+
+    private final OkraSpring<T> okra;
+    private final DBObject document;
+    private final String id;
+    private final LocalDateTime runDate;
+    private volatile LocalDateTime heartbeat;
+    private volatile T item;
+
+    OkraClaim(final OkraSpring<T> okra,
+              final DBObject document,
+              final String id,
+              final LocalDateTime runDate,
+              final LocalDateTime heartbeat) {
+        this.okra = okra;
+        this.document = document;
+        this.id = id;
+        this.runDate = runDate;
+        this.heartbeat = heartbeat;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public LocalDateTime getRunDate() {
+        return runDate;
+    }
+
+    public LocalDateTime getHeartbeat() {
+        return heartbeat;
+    }
+
+    /**
+     * @param field the name of a projected field, as stored in the document
+     * @return the raw value of the field, or null if it wasn't projected or is missing
+     */
+    public Object get(final String field) {
+        return document.get(field);
+    }
+
+    /**
+     * Fetches the full item the first time it's called and returns the same item afterwards.
+     * The returned item carries the heartbeat of this claim, so it can be used with
+     * the other operations of {@link OkraSpring}.
+     *
+     * @return the full item, unless it was deleted in the meantime
+     */
+    public Optional<T> load() {
+        if (item == null) {
+            synchronized (this) {
+                if (item == null) {
+                    item = okra.findClaimed(id).orElse(null);
+                }
+            }
+        }
+
+        return Optional.ofNullable(item);
+    }
+
+    /**
+     * @return whether the full item was already fetched
+     */
+    public boolean isLoaded() {
+        return item != null;
+    }
+
+    /**
+     * Heartbeats the claim without fetching the item, with the same guard as
+     * {@link OkraSpring#heartbeat(OkraItem)}.
+     *
+     * @return false if the claim was taken over by another node
+     */
+    public boolean heartbeat() {
+        final Optional<LocalDateTime> refreshed = okra.heartbeatClaim(id, heartbeat);
+        refreshed.ifPresent(newHeartbeat -> {
+            heartbeat = newHeartbeat;
+
+            if (item != null) {
+                item.setHeartbeat(newHeartbeat);
+            }
+        });
+        return refreshed.isPresent();
+    }
+
+    /**
+     * Removes the item from the queue without fetching it.
+     */
+    public void delete() {
+        okra.deleteClaimed(id);
+    }
+
+    @Override
+    public String toString() {
+        return "OkraClaim(id=" + id + ", runDate=" + runDate + ", heartbeat=" + heartbeat + ")";
+    }
+}
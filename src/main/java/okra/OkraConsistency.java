@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Durability and consistency profile of {@link OkraSpring}: the write concern of each
+ * {@link OkraWrite kind of write}, and the read preference of counts and statistics.
+ * Anything not set keeps the defaults of the {@code MongoTemplate}.
+ * <p>
+ * An item is never delivered twice as long as claims and heartbeats can't be rolled back, and
+ * each handler heartbeats before its claim expires. On a replica set, a write acknowledged by the
+ * primary alone can be rolled back when the primary fails. The presets trade that as follows:
+ * <ul>
+ * <li>{@link #defaults()}: every write uses the template's write concern, usually acknowledged
+ * by the primary alone. A failover can roll back a claim, and the item is then delivered again.</li>
+ * <li>{@link #majority()}: every write is acknowledged by a majority, so claims and heartbeats
+ * survive a failover and no item is delivered twice.</li>
+ * <li>{@link #fastHeartbeats()}: claims, schedules, reschedules and deletes are acknowledged by a
+ * majority, heartbeats by the primary alone. A claim is never rolled back, but a rolled back
+ * heartbeat can make a claim expire early. Another node can then claim the item while it is still
+ * being handled. The first node's next heartbeat is refused, so it learns it lost the claim.
+ * Items aren't lost, but they may be handled twice after a failover.</li>
+ * </ul>
+ * Claims must be acknowledged, since a claim returns the claimed item.
+ */
+public final class OkraConsistency {
+
+    private final Map<OkraWrite, WriteConcern> writeConcerns;
+    private final ReadPreference readPreference;
+
+    private OkraConsistency(final Map<OkraWrite, WriteConcern> writeConcerns, final ReadPreference readPreference) {
+        this.writeConcerns = writeConcerns;
+        this.readPreference = readPreference;
+    }
+
+    /**
+     * @return a profile keeping the template's defaults for every operation
+     */
+    public static OkraConsistency defaults() {
+        return new OkraConsistency(Collections.emptyMap(), null);
+    }
+
+    /**
+     * @return a profile where every write is acknowledged by a majority of the replica set
+     */
+    public static OkraConsistency majority() {
+        OkraConsistency consistency = defaults();
+
+        for (final OkraWrite write : OkraWrite.values()) {
+            consistency = consistency.withWriteConcern(write, WriteConcern.MAJORITY);
+        }
+
+        return consistency;
+    }
+
+    /**
+     * @return a profile where heartbeats are acknowledged by the primary and every other write
+     * by a majority of the replica set
+     */
+    public static OkraConsistency fastHeartbeats() {
+        return majority().withWriteConcern(OkraWrite.HEARTBEAT, WriteConcern.ACKNOWLEDGED);
+    }
+
+    /**
+     * @param write        the kind of write
+     * @param writeConcern its write concern
+     * @return a copy of this profile using the given write concern for the given kind of write
+     */
+    public OkraConsistency withWriteConcern(final OkraWrite write, final WriteConcern writeConcern) {
+        if (write == null || writeConcern == null) {
+            throw new IllegalArgumentException("write and writeConcern can't be null");
+        }
+        if (write == OkraWrite.CLAIM && !writeConcern.isAcknowledged()) {
+            throw new IllegalArgumentException("claims must be acknowledged");
+        }
+
+        final Map<OkraWrite, WriteConcern> copy = new EnumMap<>(OkraWrite.class);
+        copy.putAll(writeConcerns);
+        copy.put(write, writeConcern);
+        return new OkraConsistency(Collections.unmodifiableMap(copy), readPreference);
+    }
+
+    /**
+     * @param readPreference the read preference of counts and statistics
+     * @return a copy of this profile using the given read preference
+     */
+    public OkraConsistency withReadPreference(final ReadPreference readPreference) {
+        if (readPreference == null) {
+            throw new IllegalArgumentException("readPreference can't be null");
+        }
+        return new OkraConsistency(writeConcerns, readPreference);
+    }
+
+    /**
+     * @param write the kind of write
+     * @return its write concern, or null to use the template's
+     */
+    public WriteConcern getWriteConcern(final OkraWrite write) {
+        return writeConcerns.get(write);
+    }
+
+    /**
+     * @return the read preference of counts and statistics, or null to use the configured stats read preference
+     */
+    public ReadPreference getReadPreference() {
+        return readPreference;
+    }
+
+    @Override
+    public String toString() {
+        return "OkraConsistency{writeConcerns=" + writeConcerns + ", readPreference=" + readPreference + '}';
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import okra.base.model.OkraItem;
+import okra.model.RetryableOkraItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Managed consumer that drives the whole lifecycle of the items: claim, heartbeat and acknowledgement.
+ * <p>
+ * A dispatcher thread claims as many items as there are free workers and hands them to a
+ * bounded worker pool. While the handler runs, the item is heartbeated by an
+ * {@link OkraHeartbeatManager}. The {@link OkraResult} returned by the handler decides whether
+ * the item is completed, rescheduled, released or failed, each by a write guarded by the claim, so
+ * an item whose claim was lost is left to its new owner. A handler throwing an exception fails
+ * a {@link RetryableOkraItem}, so it's retried after a backoff, and releases any other item.
+ * When nothing is due the dispatcher backs off exponentially, with jitter, so idle consumers
+ * don't hammer the database.
+ * <p>
+ * A consumer serving several {@link OkraQueueType job types} keeps one lane per type. Each round
+ * picks a lane by smooth weighted round robin among the lanes below their in-flight limit, and
+ * claims a batch of that type only. Lanes back off independently, so an empty type doesn't delay
+ * the others.
+ *
+ * @param <T> the item type
+ */
+public class OkraConsumer<T extends OkraItem> implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OkraConsumer.class);
+
+    private final OkraSpring<T> okra;
+    private final List<Lane<T>> lanes = new ArrayList<>();
+    private final long minBackoffMillis;
+    private final long maxBackoffMillis;
+    private final Semaphore freeWorkers;
+    private final ExecutorService workers;
+    private final Thread dispatcher;
+    private final Object idleMonitor = new Object();
+    private final Set<String> lostIds = ConcurrentHashMap.newKeySet();
+
+    private OkraHeartbeatManager<T> heartbeatManager;
+    private OkraAckBuffer<T> ackBuffer;
+    private volatile boolean running;
+
+    OkraConsumer(final OkraSpring<T> okra,
+                 final List<OkraQueueType<T>> types,
+                 final int parallelism,
+                 final long minBackoffMillis,
+                 final long maxBackoffMillis) {
+        this.okra = okra;
+        types.forEach(type -> lanes.add(new Lane<>(type)));
+        this.minBackoffMillis = minBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.freeWorkers = new Semaphore(parallelism);
+
+        final AtomicInteger workerCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(parallelism, r -> {
+            final Thread thread = new Thread(r,
+                    "okra-worker-" + okra.getCollection() + "-" + workerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.dispatcher = new Thread(this::dispatch, "okra-dispatcher-" + okra.getCollection());
+        this.dispatcher.setDaemon(true);
+    }
+
+    void start() {
+        running = true;
+        heartbeatManager = okra.heartbeatManager(item -> lostIds.add(item.getId()));
+        ackBuffer = okra.ackBuffer();
+        dispatcher.start();
+    }
+
+    /**
+     * Stops claiming new items and waits for the items being handled to be acknowledged.
+     */
+    @Override
+    public void close() {
+        running = false;
+
+        synchronized (idleMonitor) {
+            idleMonitor.notifyAll();
+        }
+
+        try {
+            dispatcher.join();
+            workers.shutdown();
+
+            if (!workers.awaitTermination(okra.getHeartbeatExpirationMillis(), TimeUnit.MILLISECONDS)) {
+                LOGGER.warn("Consumer of collection {} did not drain in time", okra.getCollection());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            heartbeatManager.close();
+            ackBuffer.close();
+        }
+    }
+
+    private void dispatch() {
+        while (running) {
+            int permits = 0;
+
+            try {
+                if (!freeWorkers.tryAcquire(minBackoffMillis, TimeUnit.MILLISECONDS)) {
+                    continue;
+                }
+
+                permits = 1 + freeWorkers.drainPermits();
+
+                final Lane<T> lane = nextLaneOrAwait();
+
+                if (lane == null) {
+                    continue;
+                }
+
+                permits -= claim(lane, permits);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                freeWorkers.release(permits);
+            }
+        }
+    }
+
+    /**
+     * Claims up to {@code permits} items for the lane and hands them to the workers.
+     *
+     * @return the number of items handed to the workers
+     */
+    private int claim(final Lane<T> lane, final int permits) {
+        final int slots = lane.slots.tryAcquire() ? 1 + lane.slots.drainPermits() : 0;
+        final int max = Math.min(permits, slots);
+        int dispatched = 0;
+
+        try {
+            final List<T> items = running && max > 0 ? okra.peekBatch(max, lane.type) : null;
+
+            if (items == null || items.isEmpty()) {
+                lane.backOff(nextBackoff(lane.backoffMillis));
+                return 0;
+            }
+
+            lane.backoffMillis = 0;
+
+            for (final T item : items) {
+                heartbeatManager.register(item);
+                workers.execute(() -> process(item, lane));
+                dispatched++;
+            }
+        } catch (final RuntimeException e) {
+            LOGGER.error("Error claiming items of collection {}", okra.getCollection(), e);
+            lane.backOff(nextBackoff(lane.backoffMillis));
+        } finally {
+            lane.slots.release(slots - dispatched);
+        }
+
+        return dispatched;
+    }
+
+    /**
+     * Picks the next lane, or waits until a lane may be ready when none is. Readiness is checked
+     * and the wait starts under the idle monitor, which workers notify after freeing a slot,
+     * so a slot freed in between can't be missed.
+     *
+     * @return the next lane, or null after waiting
+     */
+    private Lane<T> nextLaneOrAwait() throws InterruptedException {
+        synchronized (idleMonitor) {
+            final long now = System.currentTimeMillis();
+            final Lane<T> lane = nextLane(now);
+
+            if (lane == null && running) {
+                idleMonitor.wait(Math.max(1, nextLaneMillis(now)));
+            }
+
+            return lane;
+        }
+    }
+
+    /**
+     * Smooth weighted round robin among the lanes that have a free slot and are not backing off.
+     */
+    private Lane<T> nextLane(final long now) {
+        Lane<T> selected = null;
+        int totalWeight = 0;
+
+        for (final Lane<T> lane : lanes) {
+            if (lane.slots.availablePermits() == 0 || lane.idleUntilMillis > now) {
+                continue;
+            }
+
+            lane.currentWeight += lane.weight;
+            totalWeight += lane.weight;
+
+            if (selected == null || lane.currentWeight > selected.currentWeight) {
+                selected = lane;
+            }
+        }
+
+        if (selected != null) {
+            selected.currentWeight -= totalWeight;
+        }
+
+        return selected;
+    }
+
+    /**
+     * How long until a lane with a free slot stops backing off. Lanes without free slots
+     * wake the dispatcher up when one of their items is acknowledged.
+     */
+    private long nextLaneMillis(final long now) {
+        long millis = maxBackoffMillis;
+
+        for (final Lane<T> lane : lanes) {
+            if (lane.slots.availablePermits() > 0) {
+                millis = Math.min(millis, lane.idleUntilMillis - now);
+            }
+        }
+
+        return millis;
+    }
+
+    private void process(final T item, final Lane<T> lane) {
+        try {
+            OkraResult result;
+
+            try {
+                result = lane.handler.apply(item);
+            } catch (final RuntimeException e) {
+                if (item instanceof RetryableOkraItem) {
+                    LOGGER.error("Error handling item {}, failing it", item, e);
+                    result = OkraResult.fail(e.toString());
+                } else {
+                    LOGGER.error("Error handling item {}, releasing it", item, e);
+                    result = OkraResult.release();
+                }
+            } finally {
+                // before acknowledging, waiting for the heartbeat in flight, so the
+                // acknowledgement is guarded by the latest heartbeat of the item
+                heartbeatManager.unregister(item);
+            }
+
+            if (lostIds.remove(item.getId())) {
+                LOGGER.warn("Not acknowledging item {} because its claim was lost", item.getId());
+                return;
+            }
+
+            acknowledge(item, result == null ? OkraResult.release() : result);
+        } catch (final RuntimeException e) {
+            LOGGER.error("Error acknowledging item {}", item, e);
+        } finally {
+            lane.slots.release();
+            freeWorkers.release();
+
+            synchronized (idleMonitor) {
+                idleMonitor.notifyAll();
+            }
+        }
+    }
+
+    private void acknowledge(final T item, final OkraResult result) {
+        switch (result.getAction()) {
+            case DONE:
+                ackBuffer.ack(item);
+                break;
+            case RESCHEDULE:
+                item.setRunDate(result.getRunDate());
+                okra.release(item);
+                break;
+            case FAIL:
+                if (item instanceof RetryableOkraItem) {
+                    okra.fail(item, result.getReason());
+                } else {
+                    LOGGER.warn("Releasing failed item {}. Its class doesn't implement RetryableOkraItem: {}",
+                            item.getId(), result.getReason());
+                    okra.release(item);
+                }
+                break;
+            case RELEASE:
+            default:
+                okra.release(item);
+                break;
+        }
+    }
+
+    private long nextBackoff(final long backoffMillis) {
+        return backoffMillis == 0 ? minBackoffMillis : Math.min(maxBackoffMillis, backoffMillis * 2);
+    }
+
+    private static long jitter(final long backoffMillis) {
+        return backoffMillis / 2 + ThreadLocalRandom.current().nextLong(backoffMillis / 2 + 1);
+    }
+
+    /**
+     * One job type served by the consumer, with its own in-flight limit and backoff.
+     * Weights and backoff are only touched by the dispatcher thread.
+     */
+    private static final class Lane<T extends OkraItem> {
+
+        private final String type;
+        private final int weight;
+        private final Function<T, OkraResult> handler;
+        private final Semaphore slots;
+        private int currentWeight;
+        private long backoffMillis;
+        private long idleUntilMillis;
+
+        private Lane(final OkraQueueType<T> queueType) {
+            this.type = queueType.getType();
+            this.weight = queueType.getWeight();
+            this.handler = queueType.getHandler();
+            this.slots = new Semaphore(queueType.getMaxInFlight());
+        }
+
+        private void backOff(final long backoffMillis) {
+            this.backoffMillis = backoffMillis;
+            this.idleUntilMillis = System.currentTimeMillis() + jitter(backoffMillis);
+        }
+    }
+}
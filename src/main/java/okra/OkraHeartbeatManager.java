@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import okra.base.model.OkraItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the claims of in-flight items alive.
+ * <p>
+ * The application registers the items it is working on and unregisters them when
+ * done. At every interval all registered items are heartbeated with a single bulk
+ * write, instead of one round trip per item. Items whose claim was taken over by
+ * another node are unregistered and handed to the lost listener.
+ * <p>
+ * A round updates the heartbeat of the items in place once the database answers, and the items
+ * are acknowledged with that heartbeat as their claim guard. So unregistering an item waits for
+ * the round in flight, if any: once it returns, the item holds its latest heartbeat and won't be
+ * heartbeated anymore.
+ *
+ * @param <T> the item type
+ */
+public class OkraHeartbeatManager<T extends OkraItem> implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OkraHeartbeatManager.class);
+
+    private final OkraSpring<T> okra;
+    private final long intervalMillis;
+    private final Consumer<T> lostListener;
+    private final Map<String, T> inFlight = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor;
+    private final Object roundLock = new Object();
+
+    OkraHeartbeatManager(final OkraSpring<T> okra, final long intervalMillis, final Consumer<T> lostListener) {
+        this.okra = okra;
+        this.intervalMillis = intervalMillis;
+        this.lostListener = lostListener;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "okra-heartbeat-" + okra.getCollection());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void start() {
+        executor.scheduleWithFixedDelay(this::heartbeatAll, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts heartbeating the given claimed item.
+     * The item's heartbeat is updated in place, so it shouldn't be heartbeated elsewhere.
+     *
+     * @param item the claimed item
+     */
+    public void register(final T item) {
+        inFlight.put(item.getId(), item);
+    }
+
+    /**
+     * Stops heartbeating the given item, waiting for the heartbeat in flight if any,
+     * so the item can then be acknowledged with its latest heartbeat.
+     *
+     * @param item the item
+     */
+    public void unregister(final T item) {
+        inFlight.remove(item.getId());
+
+        synchronized (roundLock) {
+            // the round in flight, which may include the item, is over
+        }
+    }
+
+    /**
+     * @return how many items are being heartbeated
+     */
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private void heartbeatAll() {
+        synchronized (roundLock) {
+            if (inFlight.isEmpty()) {
+                return;
+            }
+
+            final List<T> lost;
+
+            try {
+                lost = okra.heartbeatAll(new ArrayList<>(inFlight.values()));
+            } catch (final RuntimeException e) {
+                LOGGER.error("Error heartbeating {} items of collection {}",
+                        inFlight.size(), okra.getCollection(), e);
+                return;
+            }
+
+            for (final T item : lost) {
+                if (inFlight.remove(item.getId(), item)) {
+                    LOGGER.warn("Lost the claim of item {}", item.getId());
+                    lostListener.accept(item);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import okra.exception.OkraRuntimeException;
+import org.bson.BSONEncoder;
+import org.bson.BasicBSONEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the documents of an {@link EmbeddedOkra}.
+ * <p>
+ * Every change appends a record holding either the whole new document or the id of a removed one,
+ * so replaying the journal in order rebuilds the queue. A record is laid out as its length, the
+ * CRC32 of its content, the operation and the BSON document or the id. A torn record at the end
+ * of the journal, left by a crash while appending, is dropped on replay.
+ * <p>
+ * Once the journal holds many more records than live documents it is compacted: the live
+ * documents are written to a new file which atomically replaces the journal.
+ */
+final class OkraJournal implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OkraJournal.class);
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int HEADER_BYTES = 8;
+
+    private final Path file;
+    private final boolean syncWrites;
+    private final int compactionThreshold;
+    private final BSONEncoder encoder = new BasicBSONEncoder();
+    private final CRC32 crc = new CRC32();
+
+    private FileChannel channel;
+    private volatile long records;
+
+    OkraJournal(final Path file, final boolean syncWrites, final int compactionThreshold) {
+        this.file = file;
+        this.syncWrites = syncWrites;
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Opens the journal and reads the live documents, creating an empty journal if there is none.
+     *
+     * @return the live documents by id, in the order they were first written
+     */
+    synchronized Map<String, DBObject> open() {
+        final Map<String, DBObject> documents = new LinkedHashMap<>();
+
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            final long validBytes = replay(documents);
+
+            if (validBytes < channel.size()) {
+                LOGGER.warn("Dropping {} bytes of torn records at the end of journal {}",
+                        channel.size() - validBytes, file);
+                channel.truncate(validBytes);
+            }
+
+            channel.position(validBytes);
+        } catch (final IOException e) {
+            LOGGER.error("Impossible to open journal {}", file, e);
+            throw new OkraRuntimeException();
+        }
+
+        return documents;
+    }
+
+    private long replay(final Map<String, DBObject> documents) throws IOException {
+        if (channel.size() == 0) {
+            return 0;
+        }
+
+        final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        final DefaultDBDecoder decoder = new DefaultDBDecoder();
+
+        while (buffer.remaining() >= HEADER_BYTES) {
+            final int start = buffer.position();
+            final int length = buffer.getInt();
+            final int checksum = buffer.getInt();
+
+            if (length <= 0 || length > buffer.remaining()) {
+                return start;
+            }
+
+            final byte[] content = new byte[length];
+            buffer.get(content);
+
+            crc.reset();
+            crc.update(content, 0, length);
+
+            if ((int) crc.getValue() != checksum) {
+                return start;
+            }
+
+            if (content[0] == PUT) {
+                final byte[] bson = new byte[length - 1];
+                System.arraycopy(content, 1, bson, 0, bson.length);
+                final DBObject document = decoder.decode(bson, null);
+                documents.put(document.get("_id").toString(), document);
+            } else {
+                documents.remove(new String(content, 1, length - 1, StandardCharsets.UTF_8));
+            }
+
+            records++;
+        }
+
+        return buffer.position();
+    }
+
+    synchronized void put(final DBObject document) {
+        write(record(PUT, encoder.encode(document)));
+    }
+
+    synchronized void putAll(final Collection<DBObject> documents) {
+        if (documents.isEmpty()) {
+            return;
+        }
+
+        final ByteBuffer[] batch = new ByteBuffer[documents.size()];
+        int i = 0;
+
+        for (final DBObject document : documents) {
+            batch[i++] = record(PUT, encoder.encode(document));
+        }
+
+        write(batch);
+    }
+
+    synchronized void remove(final String id) {
+        write(record(REMOVE, id.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * @param liveCount how many documents are live
+     * @return whether the journal holds more than the compaction threshold of records and more
+     * than twice as many records as live documents
+     */
+    boolean needsCompaction(final int liveCount) {
+        return records > compactionThreshold && records > 2L * liveCount;
+    }
+
+    /**
+     * Compacts the journal if it {@link #needsCompaction(int) needs it}.
+     * <p>
+     * The live documents are read once appends are blocked. Callers change their documents
+     * before appending the change, so a change missing from the snapshot is appended to the
+     * compacted journal. If the compaction can't replace the journal, the journal is kept
+     * open as is and appends go on at its end.
+     *
+     * @param liveCount     how many documents are live
+     * @param liveDocuments reads the live documents
+     */
+    synchronized void compactIfNeeded(final int liveCount, final Supplier<Collection<DBObject>> liveDocuments) {
+        if (!needsCompaction(liveCount)) {
+            return;
+        }
+
+        final Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        final Collection<DBObject> documents = liveDocuments.get();
+
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (final DBObject document : documents) {
+                final ByteBuffer record = record(PUT, encoder.encode(document));
+
+                while (record.hasRemaining()) {
+                    out.write(record);
+                }
+            }
+
+            out.force(true);
+        } catch (final IOException e) {
+            LOGGER.error("Impossible to compact journal {}, keeping it as is", file, e);
+            return;
+        }
+
+        try {
+            Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            LOGGER.error("Impossible to replace journal {} by its compaction, keeping it as is", file, e);
+            deleteQuietly(compacted);
+            return;
+        }
+
+        final FileChannel replaced = channel;
+
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+            records = documents.size();
+        } catch (final IOException e) {
+            LOGGER.error("Impossible to reopen journal {}", file, e);
+            throw new OkraRuntimeException();
+        } finally {
+            closeQuietly(replaced);
+        }
+
+        LOGGER.debug("Compacted journal {} to {} documents", file, records);
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            if (channel != null && channel.isOpen()) {
+                channel.force(true);
+                channel.close();
+            }
+        } catch (final IOException e) {
+            LOGGER.error("Impossible to close journal {}", file, e);
+        }
+    }
+
+    private void deleteQuietly(final Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (final IOException e) {
+            LOGGER.warn("Impossible to delete {}", path, e);
+        }
+    }
+
+    private void closeQuietly(final FileChannel replaced) {
+        try {
+            replaced.close();
+        } catch (final IOException e) {
+            LOGGER.warn("Impossible to close the replaced journal {}", file, e);
+        }
+    }
+
+    private ByteBuffer record(final byte operation, final byte[] payload) {
+        crc.reset();
+        crc.update(operation);
+        crc.update(payload, 0, payload.length);
+
+        final ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + 1 + payload.length);
+        record.putInt(1 + payload.length);
+        record.putInt((int) crc.getValue());
+        record.put(operation);
+        record.put(payload);
+        record.flip();
+        return record;
+    }
+
+    private void write(final ByteBuffer... batch) {
+        try {
+            long remaining = 0;
+
+            for (final ByteBuffer record : batch) {
+                remaining += record.remaining();
+            }
+
+            while (remaining > 0) {
+                remaining -= channel.write(batch);
+            }
+
+            if (syncWrites) {
+                channel.force(false);
+            }
+
+            records += batch.length;
+        } catch (final IOException e) {
+            LOGGER.error("Impossible to append to journal {}", file, e);
+            throw new OkraRuntimeException();
+        }
+    }
+}
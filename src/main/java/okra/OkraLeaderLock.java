@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.Date;
+
+/**
+ * Lease based lock shared by all nodes through a single document, used to elect the
+ * node that runs a cluster wide task. The lease must be renewed before it expires,
+ * otherwise any other node can take the lock over.
+ */
+class OkraLeaderLock {
+
+    static final String LOCK_COLLECTION = "okraLocks";
+
+    private final MongoTemplate mongoTemplate;
+    private final String name;
+    private final String owner = new ObjectId().toHexString();
+    private final long leaseMillis;
+
+    OkraLeaderLock(final MongoTemplate mongoTemplate, final String name, final long leaseMillis) {
+        this.mongoTemplate = mongoTemplate;
+        this.name = name;
+        this.leaseMillis = leaseMillis;
+    }
+
+    /**
+     * Acquires the lock, or renews it if this node already holds it.
+     *
+     * @return true if this node holds the lock
+     */
+    boolean tryAcquire() {
+        final Date now = new Date();
+
+        final Query query = Query.query(new Criteria().andOperator(
+                Criteria.where("_id").is(name),
+                new Criteria().orOperator(
+                        Criteria.where("owner").is(owner),
+                        Criteria.where("expiresAt").lt(now))));
+
+        final Update update = Update
+                .update("owner", owner)
+                .set("expiresAt", new Date(now.getTime() + leaseMillis));
+
+        try {
+            mongoTemplate.findAndModify(query, update,
+                    new FindAndModifyOptions().upsert(true).returnNew(true),
+                    DBObject.class, LOCK_COLLECTION);
+            return true;
+        } catch (final DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    void release() {
+        mongoTemplate.remove(
+                Query.query(Criteria.where("_id").is(name).and("owner").is(owner)),
+                LOCK_COLLECTION);
+    }
+}
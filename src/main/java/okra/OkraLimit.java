@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+/**
+ * Cluster wide limit on the claims of a queue, or of one job type of a multi-queue: at most
+ * {@code maxConcurrent} claimed items at once and at most {@code maxStartsPerSecond} claims
+ * per second, across every node. Zero disables either bound.
+ * <p>
+ * The limit is checked atomically with each claim, so a claim beyond it is never made: peeks
+ * return nothing until a claimed item is acknowledged or a new second starts.
+ * A typed limit applies to the claims of its type, the global limit to every other claim. Once
+ * a type is limited, its items are only claimed by typed claims such as
+ * {@link OkraSpring#peekBatch(int, String)} or a multi-queue consumer.
+ *
+ * @see okra.builder.OkraSpringBuilder#withLimit(OkraLimit)
+ */
+public final class OkraLimit {
+
+    private final String type;
+    private final int maxConcurrent;
+    private final int maxStartsPerSecond;
+
+    private OkraLimit(final String type, final int maxConcurrent, final int maxStartsPerSecond) {
+        this.type = type;
+        this.maxConcurrent = maxConcurrent;
+        this.maxStartsPerSecond = maxStartsPerSecond;
+    }
+
+    /**
+     * @param maxConcurrent      the most items claimed at once, or zero for no bound
+     * @param maxStartsPerSecond the most claims per second, or zero for no bound
+     * @return a limit of every claim not covered by a typed limit
+     */
+    public static OkraLimit global(final int maxConcurrent, final int maxStartsPerSecond) {
+        return of(null, maxConcurrent, maxStartsPerSecond);
+    }
+
+    /**
+     * @param type               the value of the {@code type} field of the limited items
+     * @param maxConcurrent      the most items of this type claimed at once, or zero for no bound
+     * @param maxStartsPerSecond the most claims of this type per second, or zero for no bound
+     * @return a limit of the claims of the given type
+     */
+    public static OkraLimit forType(final String type, final int maxConcurrent, final int maxStartsPerSecond) {
+        if (type == null || type.isEmpty()) {
+            throw new IllegalArgumentException("type can't be empty");
+        }
+        return of(type, maxConcurrent, maxStartsPerSecond);
+    }
+
+    private static OkraLimit of(final String type, final int maxConcurrent, final int maxStartsPerSecond) {
+        if (maxConcurrent < 0 || maxStartsPerSecond < 0) {
+            throw new IllegalArgumentException("limits can't be negative");
+        }
+        if (maxConcurrent == 0 && maxStartsPerSecond == 0) {
+            throw new IllegalArgumentException("at least one limit must be set");
+        }
+        return new OkraLimit(type, maxConcurrent, maxStartsPerSecond);
+    }
+
+    /**
+     * @return the limited type, or null for the global limit
+     */
+    public String getType() {
+        return type;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public int getMaxStartsPerSecond() {
+        return maxStartsPerSecond;
+    }
+
+    @Override
+    public String toString() {
+        return "OkraLimit{type=" + type + ", maxConcurrent=" + maxConcurrent
+                + ", maxStartsPerSecond=" + maxStartsPerSecond + '}';
+    }
+}
@@ -0,0 +1,480 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import okra.base.model.OkraStatus;
+import org.bson.types.ObjectId;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Enforces the {@link OkraLimit cluster wide limits} of a queue through one document per limit,
+ * shared by all nodes in the {@value #LIMIT_COLLECTION} collection.
+ * <p>
+ * A claim first takes leases with a single update guarded by the limit: it only matches while
+ * the leases array has room for them and the starts of the current second leave room for them.
+ * The claimed items are then stamped with the token of their leases, and the unused leases are
+ * given back. Acknowledging an item on the node that claimed it releases its lease.
+ * <p>
+ * Leases of items acknowledged by another node, or left behind by a node that died, are reclaimed
+ * when the limit is found exhausted, once they're older than the heartbeat expiration and no
+ * PROCESSING item with a live heartbeat carries their token anymore.
+ * <p>
+ * Each node remembers until when a limit is exhausted, so claiming from an exhausted limit
+ * doesn't cost a round trip.
+ * <p>
+ * The starts windows follow the clock of the database rather than the one of each node: the
+ * limit document is stamped with {@code $currentDate} when it's created and whenever a claim
+ * doesn't fit the limit, and each node keeps the offset of its clock to the database clock.
+ */
+class OkraLimiter {
+
+    static final String LIMIT_COLLECTION = "okraLimits";
+
+    private static final String LEASES_FIELD = "leases";
+    private static final String WINDOW_FIELD = "window";
+    private static final String STARTS_FIELD = "starts";
+    private static final String CLOCK_FIELD = "clock";
+
+    private final MongoTemplate mongoTemplate;
+    private final OkraWriter writer;
+    private final String collection;
+    private final long expirationMillis;
+    private final long cacheMillis;
+    private final State globalState;
+    private final Map<String, State> typedStates = new HashMap<>();
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+    private volatile long clockOffsetMillis;
+
+    OkraLimiter(final MongoTemplate mongoTemplate,
+                final OkraConsistency consistency,
+                final String collection,
+                final List<OkraLimit> limits,
+                final long expirationMillis,
+                final long cacheMillis) {
+        this.mongoTemplate = mongoTemplate;
+        this.writer = new OkraWriter(mongoTemplate, LIMIT_COLLECTION, null, consistency);
+        this.collection = collection;
+        this.expirationMillis = expirationMillis;
+        this.cacheMillis = cacheMillis;
+
+        State global = null;
+
+        for (final OkraLimit limit : limits) {
+            if (limit.getType() == null) {
+                global = new State(limit, collection + ".limit");
+            } else {
+                typedStates.put(limit.getType(), new State(limit, collection + ".limit." + limit.getType()));
+            }
+        }
+
+        this.globalState = global;
+    }
+
+    /**
+     * @return the types having their own limit
+     */
+    Set<String> limitedTypes() {
+        return Collections.unmodifiableSet(typedStates.keySet());
+    }
+
+    /**
+     * Takes leases for a claim of up to {@code max} items of the given type.
+     *
+     * @param type the claimed type, or null for an untyped claim
+     * @param max  the most items to be claimed
+     * @return the granted leases, which may be fewer than asked, or null if the limit is exhausted
+     */
+    Grant acquire(final String type, final int max) {
+        final State state = type == null ? globalState : typedStates.getOrDefault(type, globalState);
+
+        if (state == null) {
+            return Grant.UNLIMITED;
+        }
+
+        final long now = System.currentTimeMillis();
+
+        if (now < state.slotsBlockedUntil || now < state.startsBlockedUntil) {
+            return null;
+        }
+
+        if (!state.created) {
+            sync(state);
+        }
+
+        final OkraLimit limit = state.limit;
+        final int optimistic = cap(cap(max, limit.getMaxConcurrent()), limit.getMaxStartsPerSecond());
+        final Grant grant = tryAcquire(state, optimistic, now);
+
+        if (grant != null) {
+            return grant;
+        }
+
+        final DBObject document = sync(state);
+        int free = max;
+
+        if (limit.getMaxConcurrent() > 0) {
+            final List<DBObject> held = leasesOf(document);
+            free = limit.getMaxConcurrent() - held.size();
+
+            if (free <= 0) {
+                free += reclaim(state, held, now);
+            }
+        }
+
+        int startsLeft = max;
+
+        if (limit.getMaxStartsPerSecond() > 0) {
+            final long second = (now + clockOffsetMillis) / 1000;
+            final long window = ((Number) document.get(WINDOW_FIELD)).longValue();
+            final int starts = ((Number) document.get(STARTS_FIELD)).intValue();
+
+            startsLeft = window < second
+                    ? limit.getMaxStartsPerSecond()
+                    : window == second ? limit.getMaxStartsPerSecond() - starts : 0;
+
+            if (startsLeft <= 0) {
+                state.startsBlockedUntil = (second + 1) * 1000 - clockOffsetMillis;
+                return null;
+            }
+        }
+
+        if (free <= 0) {
+            state.slotsBlockedUntil = now + cacheMillis;
+            return null;
+        }
+
+        return tryAcquire(state, Math.min(max, Math.min(free, startsLeft)), now);
+    }
+
+    /**
+     * Records which items were claimed with the given leases and gives back the unused ones.
+     *
+     * @param grant   the leases taken for the claim
+     * @param itemIds the ids of the claimed items
+     */
+    void claimed(final Grant grant, final List<String> itemIds) {
+        if (grant == Grant.UNLIMITED) {
+            return;
+        }
+
+        final State state = grant.state;
+        final OkraLimit limit = state.limit;
+        final int used = Math.min(itemIds.size(), grant.count);
+        final long now = System.currentTimeMillis();
+
+        if (limit.getMaxConcurrent() > 0) {
+            for (int i = 0; i < used; i++) {
+                leases.put(itemIds.get(i), new Lease(state, leaseId(grant.token, i), now));
+            }
+        }
+
+        if (used == grant.count) {
+            return;
+        }
+
+        final List<String> unused = new ArrayList<>(grant.count - used);
+
+        for (int i = used; i < grant.count; i++) {
+            unused.add(leaseId(grant.token, i));
+        }
+
+        if (limit.getMaxStartsPerSecond() > 0) {
+            final Update refund = new Update().inc(STARTS_FIELD, used - grant.count);
+
+            if (limit.getMaxConcurrent() > 0) {
+                refund.pull(LEASES_FIELD, leaseIn(unused));
+            }
+
+            if (update(Criteria.where("_id").is(state.id).and(WINDOW_FIELD).is(grant.second), refund)) {
+                return;
+            }
+        }
+
+        if (limit.getMaxConcurrent() > 0) {
+            update(Criteria.where("_id").is(state.id), new Update().pull(LEASES_FIELD, leaseIn(unused)));
+        }
+    }
+
+    /**
+     * Releases the leases of the given items, if they were claimed by this node.
+     *
+     * @param itemIds the ids of the acknowledged items
+     */
+    void release(final Collection<String> itemIds) {
+        if (leases.isEmpty()) {
+            return;
+        }
+
+        final Map<State, List<String>> released = new HashMap<>();
+
+        for (final String itemId : itemIds) {
+            final Lease lease = leases.remove(itemId);
+
+            if (lease != null) {
+                released.computeIfAbsent(lease.state, s -> new ArrayList<>()).add(lease.id);
+            }
+        }
+
+        released.forEach((state, ids) -> {
+            update(Criteria.where("_id").is(state.id), new Update().pull(LEASES_FIELD, leaseIn(ids)));
+            state.slotsBlockedUntil = 0;
+        });
+    }
+
+    private Grant tryAcquire(final State state, final int count, final long now) {
+        final OkraLimit limit = state.limit;
+        final String token = new ObjectId().toHexString();
+        final long second = (now + clockOffsetMillis) / 1000;
+
+        if (limit.getMaxStartsPerSecond() == 0) {
+            return update(guard(state, count), reserve(state, token, count, now))
+                    ? new Grant(state, token, count, second)
+                    : null;
+        }
+
+        final boolean acquired = update(
+                guard(state, count)
+                        .and(WINDOW_FIELD).is(second)
+                        .and(STARTS_FIELD).lte(limit.getMaxStartsPerSecond() - count),
+                reserve(state, token, count, now)
+                        .inc(STARTS_FIELD, count))
+                || update(
+                guard(state, count)
+                        .and(WINDOW_FIELD).lt(second),
+                reserve(state, token, count, now)
+                        .set(WINDOW_FIELD, second)
+                        .set(STARTS_FIELD, count));
+
+        return acquired ? new Grant(state, token, count, second) : null;
+    }
+
+    /**
+     * Matches the limit document only while it has room for {@code count} more leases: the
+     * leases array has no element at the index {@code maxConcurrent - count}.
+     */
+    private static Criteria guard(final State state, final int count) {
+        final Criteria criteria = Criteria.where("_id").is(state.id);
+
+        return state.limit.getMaxConcurrent() > 0
+                ? criteria.and(LEASES_FIELD + "." + (state.limit.getMaxConcurrent() - count)).exists(false)
+                : criteria;
+    }
+
+    private static Update reserve(final State state, final String token, final int count, final long now) {
+        final Update update = new Update();
+
+        if (state.limit.getMaxConcurrent() > 0) {
+            final Object[] reserved = new Object[count];
+
+            for (int i = 0; i < count; i++) {
+                reserved[i] = new BasicDBObject("id", leaseId(token, i))
+                        .append("token", token)
+                        .append("at", new Date(now));
+            }
+
+            update.push(LEASES_FIELD).each(reserved);
+        }
+
+        return update;
+    }
+
+    /**
+     * Removes the leases older than the heartbeat expiration whose token isn't carried by
+     * enough PROCESSING items with a live heartbeat, and forgets the local leases that are
+     * no longer held.
+     *
+     * @return how many leases were removed
+     */
+    private int reclaim(final State state, final List<DBObject> held, final long now) {
+        final long expiredBefore = now - expirationMillis;
+        final Map<String, List<DBObject>> byToken = held.stream()
+                .collect(Collectors.groupingBy(lease -> (String) lease.get("token"), LinkedHashMap::new,
+                        Collectors.toList()));
+
+        final Query liveQuery = Query.query(Criteria
+                .where(OkraSpring.CLAIM_TOKEN_FIELD).in(byToken.keySet())
+                .and("status").is(OkraStatus.PROCESSING.name())
+                .and("heartbeat").gte(new Date(expiredBefore)));
+        liveQuery.fields().include(OkraSpring.CLAIM_TOKEN_FIELD);
+
+        final Map<Object, Long> live = mongoTemplate.find(liveQuery, DBObject.class, collection)
+                .stream()
+                .collect(Collectors.groupingBy(item -> item.get(OkraSpring.CLAIM_TOKEN_FIELD), Collectors.counting()));
+
+        final List<String> stale = new ArrayList<>();
+
+        byToken.forEach((token, tokenLeases) -> tokenLeases.stream()
+                .filter(lease -> ((Date) lease.get("at")).getTime() < expiredBefore)
+                .limit(Math.max(0, tokenLeases.size() - live.getOrDefault(token, 0L)))
+                .forEach(lease -> stale.add((String) lease.get("id"))));
+
+        final Set<String> kept = held.stream()
+                .map(lease -> (String) lease.get("id"))
+                .collect(Collectors.toCollection(HashSet::new));
+        kept.removeAll(stale);
+
+        leases.values().removeIf(lease -> lease.state == state && lease.acquiredAt < now && !kept.contains(lease.id));
+
+        if (!stale.isEmpty()) {
+            update(Criteria.where("_id").is(state.id), new Update().pull(LEASES_FIELD, leaseIn(stale)));
+        }
+
+        return stale.size();
+    }
+
+    /**
+     * Stamps the limit document with the database clock, creating it if needed, and updates the
+     * offset of the local clock from the round trip.
+     *
+     * @return the limit document
+     */
+    private DBObject sync(final State state) {
+        final Query query = Query.query(Criteria.where("_id").is(state.id));
+        final Update update = new Update()
+                .setOnInsert(LEASES_FIELD, new BasicDBList())
+                .setOnInsert(WINDOW_FIELD, 0L)
+                .setOnInsert(STARTS_FIELD, 0)
+                .currentDate(CLOCK_FIELD);
+        final FindAndModifyOptions opts = new FindAndModifyOptions().upsert(true).returnNew(true);
+
+        final long sentAt = System.currentTimeMillis();
+        DBObject document;
+
+        try {
+            document = writer.findAndModify(OkraWrite.CLAIM, query, update, opts);
+        } catch (final DuplicateKeyException e) {
+            // created by another node in the meantime
+            document = writer.findAndModify(OkraWrite.CLAIM, query, update, opts);
+        }
+
+        final long receivedAt = System.currentTimeMillis();
+        clockOffsetMillis = ((Date) document.get(CLOCK_FIELD)).getTime() - (sentAt + receivedAt) / 2;
+        state.created = true;
+
+        return document;
+    }
+
+    private boolean update(final Criteria criteria, final Update update) {
+        return writer.updateFirst(OkraWrite.CLAIM, Query.query(criteria), update) == 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<DBObject> leasesOf(final DBObject document) {
+        final Object held = document.get(LEASES_FIELD);
+        return held == null ? Collections.emptyList() : (List<DBObject>) held;
+    }
+
+    private static DBObject leaseIn(final List<String> ids) {
+        return new BasicDBObject("id", new BasicDBObject("$in", ids));
+    }
+
+    private static String leaseId(final String token, final int index) {
+        return token + ":" + index;
+    }
+
+    private static int cap(final int max, final int limit) {
+        return limit > 0 ? Math.min(max, limit) : max;
+    }
+
+    /**
+     * Leases taken for one claim, all sharing the token stamped on the claimed items
+     */
+    static final class Grant {
+
+        static final Grant UNLIMITED = new Grant(null, null, Integer.MAX_VALUE, 0);
+
+        private final State state;
+        private final String token;
+        private final int count;
+        private final long second;
+
+        private Grant(final State state, final String token, final int count, final long second) {
+            this.state = state;
+            this.token = token;
+            this.count = count;
+            this.second = second;
+        }
+
+        /**
+         * @return the token to stamp on the claimed items, or null when the claim isn't limited
+         */
+        String getToken() {
+            return token;
+        }
+
+        /**
+         * @return the most items that may be claimed
+         */
+        int getCount() {
+            return count;
+        }
+    }
+
+    private static final class State {
+
+        private final OkraLimit limit;
+        private final String id;
+        private volatile boolean created;
+        private volatile long slotsBlockedUntil;
+        private volatile long startsBlockedUntil;
+
+        private State(final OkraLimit limit, final String id) {
+            this.limit = limit;
+            this.id = id;
+        }
+    }
+
+    private static final class Lease {
+
+        private final State state;
+        private final String id;
+        private final long acquiredAt;
+
+        private Lease(final State state, final String id, final long acquiredAt) {
+            this.state = state;
+            this.id = id;
+            this.acquiredAt = acquiredAt;
+        }
+    }
+}
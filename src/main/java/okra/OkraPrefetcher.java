@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import okra.base.model.OkraItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps a bounded local buffer of already claimed items, so consumers can start
+ * working without waiting for a round trip to the database.
+ * <p>
+ * The buffer is refilled in the background with batch claims whenever it drops below
+ * the low-water mark, and buffered items are heartbeated so their claims do not expire
+ * while they wait. Only a poll taking an item that is being heartbeated waits, for that
+ * heartbeat to finish. Closing the prefetcher releases the items that were never handed to
+ * a consumer back to PENDING, unless their claim was lost.
+ * <p>
+ * Polls and the buffer occupancy are also reported to the configured metrics.
+ *
+ * @param <T> the item type
+ */
+public class OkraPrefetcher<T extends OkraItem> implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OkraPrefetcher.class);
+
+    private static final long REFILL_INTERVAL_MILLIS = 1000;
+
+    private final OkraSpring<T> okra;
+    private final int bufferSize;
+    private final int lowWaterMark;
+    private final BlockingQueue<Buffered<T>> buffer;
+    private final ScheduledExecutorService executor;
+    private final AtomicBoolean refillRequested = new AtomicBoolean();
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong emptyPolls = new AtomicLong();
+    private final AtomicLong lostHeartbeats = new AtomicLong();
+
+    private volatile boolean running;
+
+    OkraPrefetcher(final OkraSpring<T> okra, final int bufferSize, final int lowWaterMark) {
+        this.okra = okra;
+        this.bufferSize = bufferSize;
+        this.lowWaterMark = lowWaterMark;
+        this.buffer = new LinkedBlockingQueue<>(bufferSize);
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "okra-prefetcher-" + okra.getCollection());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void start() {
+        running = true;
+
+        final long heartbeatIntervalMillis = okra.getHeartbeatIntervalMillis();
+
+        executor.scheduleWithFixedDelay(this::refill, 0, REFILL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        executor.scheduleWithFixedDelay(this::heartbeatBuffered,
+                heartbeatIntervalMillis, heartbeatIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes a claimed item from the buffer without waiting.
+     *
+     * @return a claimed item or empty if the buffer is empty
+     */
+    public Optional<T> poll() {
+        return handOver(buffer.poll());
+    }
+
+    /**
+     * Takes a claimed item from the buffer, waiting up to the given time for one to be available.
+     *
+     * @param timeout how long to wait
+     * @param unit    the timeout unit
+     * @return a claimed item or empty if none became available
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Optional<T> poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return handOver(buffer.poll(timeout, unit));
+    }
+
+    /**
+     * @return how many claimed items are waiting in the buffer
+     */
+    public int getBufferOccupancy() {
+        return buffer.size();
+    }
+
+    /**
+     * @return how many times consumers asked for an item
+     */
+    public long getPolls() {
+        return polls.get();
+    }
+
+    /**
+     * @return how many times consumers found the buffer empty
+     */
+    public long getEmptyPolls() {
+        return emptyPolls.get();
+    }
+
+    /**
+     * @return how many buffered items were dropped because another node took over their claim
+     */
+    public long getLostHeartbeats() {
+        return lostHeartbeats.get();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        executor.shutdown();
+
+        try {
+            if (!executor.awaitTermination(okra.getHeartbeatExpirationMillis(), TimeUnit.MILLISECONDS)) {
+                LOGGER.warn("Prefetcher of collection {} did not stop in time", okra.getCollection());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        final List<Buffered<T>> unstarted = new ArrayList<>();
+        buffer.drainTo(unstarted);
+
+        final long released = unstarted.isEmpty() ? 0 : okra.releaseAll(unstarted.stream()
+                .map(buffered -> buffered.item)
+                .collect(Collectors.toList()));
+        okra.recordPrefetchBufferOccupancy(0);
+
+        LOGGER.info("Prefetcher of collection {} released {} of {} unstarted items",
+                okra.getCollection(), released, unstarted.size());
+    }
+
+    private Optional<T> handOver(Buffered<T> buffered) {
+        polls.incrementAndGet();
+
+        // Waits for an in-flight heartbeat of the taken item, so the caller sees its latest heartbeat
+        while (buffered != null && !buffered.take()) {
+            buffered = buffer.poll();
+        }
+
+        final int occupancy = buffer.size();
+        okra.recordPrefetch(buffered != null, occupancy);
+
+        if (buffered == null) {
+            emptyPolls.incrementAndGet();
+            requestRefill();
+            return Optional.empty();
+        }
+
+        if (occupancy < lowWaterMark) {
+            requestRefill();
+        }
+
+        return Optional.of(buffered.item);
+    }
+
+    private void requestRefill() {
+        if (running && refillRequested.compareAndSet(false, true)) {
+            executor.execute(this::refill);
+        }
+    }
+
+    private void refill() {
+        refillRequested.set(false);
+
+        try {
+            while (running && buffer.size() < lowWaterMark) {
+                final int missing = bufferSize - buffer.size();
+                final List<T> claimed = okra.peekBatch(missing);
+                final List<T> rejected = new ArrayList<>();
+
+                for (final T item : claimed) {
+                    if (!running || !buffer.offer(new Buffered<>(item))) {
+                        rejected.add(item);
+                    }
+                }
+
+                if (!rejected.isEmpty()) {
+                    okra.releaseAll(rejected);
+                }
+
+                okra.recordPrefetchBufferOccupancy(buffer.size());
+
+                if (claimed.size() < missing) {
+                    return;
+                }
+            }
+        } catch (final RuntimeException e) {
+            LOGGER.error("Error prefetching items of collection {}", okra.getCollection(), e);
+        }
+    }
+
+    private void heartbeatBuffered() {
+        final List<Buffered<T>> heartbeating = buffer.stream()
+                .filter(Buffered::startHeartbeat)
+                .collect(Collectors.toList());
+
+        if (heartbeating.isEmpty()) {
+            return;
+        }
+
+        final Set<T> lost = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        try {
+            lost.addAll(okra.heartbeatAll(heartbeating.stream()
+                    .map(buffered -> buffered.item)
+                    .collect(Collectors.toList())));
+            lostHeartbeats.addAndGet(lost.size());
+        } catch (final RuntimeException e) {
+            LOGGER.error("Error heartbeating prefetched items of collection {}", okra.getCollection(), e);
+        } finally {
+            for (final Buffered<T> buffered : heartbeating) {
+                final boolean claimLost = lost.contains(buffered.item);
+
+                if (claimLost) {
+                    buffer.remove(buffered);
+                }
+
+                buffered.endHeartbeat(claimLost);
+            }
+        }
+    }
+
+    /**
+     * A buffered item, handed over to a single consumer once no heartbeat of it is in flight
+     */
+    private static final class Buffered<T> {
+
+        private final T item;
+        private boolean heartbeating;
+        private boolean lost;
+        private boolean taken;
+
+        private Buffered(final T item) {
+            this.item = item;
+        }
+
+        /**
+         * @return false if the item was already taken, so it mustn't be heartbeated anymore
+         */
+        private synchronized boolean startHeartbeat() {
+            if (taken) {
+                return false;
+            }
+
+            heartbeating = true;
+            return true;
+        }
+
+        private synchronized void endHeartbeat(final boolean claimLost) {
+            heartbeating = false;
+            lost = claimLost;
+            notifyAll();
+        }
+
+        /**
+         * @return false if the claim of the item was lost, so it can't be handed over
+         */
+        private synchronized boolean take() {
+            boolean interrupted = false;
+
+            while (heartbeating) {
+                try {
+                    wait();
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            taken = !lost;
+            return taken;
+        }
+    }
+}
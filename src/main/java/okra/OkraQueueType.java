@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import okra.base.model.OkraItem;
+
+import java.util.function.Function;
+
+/**
+ * One job type served by a multi-queue {@link OkraConsumer}: its handler, its share of the claims
+ * and how many of its items may be handled at once.
+ * <p>
+ * Types are claimed by weighted round robin, so a type with weight 3 gets three claim rounds for
+ * each round of a type with weight 1 while both have items due. A type that reached its
+ * in-flight limit, or that has nothing due, is skipped without slowing down the others.
+ *
+ * @param <T> the item type
+ * @see OkraSpring#consumer(java.util.List)
+ */
+public final class OkraQueueType<T extends OkraItem> {
+
+    private final String type;
+    private final int weight;
+    private final int maxInFlight;
+    private final Function<T, OkraResult> handler;
+
+    private OkraQueueType(final String type,
+                          final int weight,
+                          final int maxInFlight,
+                          final Function<T, OkraResult> handler) {
+        this.type = type;
+        this.weight = weight;
+        this.maxInFlight = maxInFlight;
+        this.handler = handler;
+    }
+
+    /**
+     * @param type        the value of the {@code type} field of the items
+     * @param weight      the share of the claim rounds given to this type
+     * @param maxInFlight the most items of this type handled at once
+     * @param handler     the handler of the items of this type
+     * @param <T>         the item type
+     * @return the job type
+     */
+    public static <T extends OkraItem> OkraQueueType<T> of(final String type,
+                                                           final int weight,
+                                                           final int maxInFlight,
+                                                           final Function<T, OkraResult> handler) {
+        if (type == null || type.isEmpty()) {
+            throw new IllegalArgumentException("type can't be empty");
+        }
+        if (weight <= 0) {
+            throw new IllegalArgumentException("weight must be positive");
+        }
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        if (handler == null) {
+            throw new IllegalArgumentException("handler can't be null");
+        }
+        return new OkraQueueType<>(type, weight, maxInFlight, handler);
+    }
+
+    /**
+     * A single lane claiming items of any type, as a plain consumer does
+     */
+    static <T extends OkraItem> OkraQueueType<T> untyped(final int maxInFlight,
+                                                        final Function<T, OkraResult> handler) {
+        return new OkraQueueType<>(null, 1, maxInFlight, handler);
+    }
+
+    /**
+     * @return the type, or null when items of any type are claimed
+     */
+    public String getType() {
+        return type;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public Function<T, OkraResult> getHandler() {
+        return handler;
+    }
+
+    @Override
+    public String toString() {
+        return "OkraQueueType{type=" + type + ", weight=" + weight + ", maxInFlight=" + maxInFlight + '}';
+    }
+}
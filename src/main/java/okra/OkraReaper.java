@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import okra.base.model.OkraItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Periodically returns items whose heartbeat expired back to PENDING, with a single
+ * multi-document update, moves the items that ran out of attempts to the dead-letter
+ * collection and promotes the items waiting for longer than the priority aging interval.
+ * <p>
+ * Every node may run a reaper, but only the one holding the leader lock does the work.
+ * While reapers are enabled the claim query only has to look for due PENDING items.
+ *
+ * @param <T> the item type
+ */
+public class OkraReaper<T extends OkraItem> implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OkraReaper.class);
+
+    private final OkraSpring<T> okra;
+    private final long intervalMillis;
+    private final OkraLeaderLock leaderLock;
+    private final ScheduledExecutorService executor;
+    private final AtomicLong lastRecovered = new AtomicLong();
+    private final AtomicLong totalRecovered = new AtomicLong();
+
+    OkraReaper(final OkraSpring<T> okra, final long intervalMillis) {
+        this.okra = okra;
+        this.intervalMillis = intervalMillis;
+        this.leaderLock = new OkraLeaderLock(okra.getMongoTemplate(),
+                okra.getCollection() + ".reaper", intervalMillis * 2);
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "okra-reaper-" + okra.getCollection());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void start() {
+        executor.scheduleWithFixedDelay(this::reap, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return how many items were recovered by the last run of this node
+     */
+    public long getLastRecovered() {
+        return lastRecovered.get();
+    }
+
+    /**
+     * @return how many items were recovered by this node since it started
+     */
+    public long getTotalRecovered() {
+        return totalRecovered.get();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+
+        try {
+            leaderLock.release();
+        } catch (final RuntimeException e) {
+            LOGGER.error("Error releasing reaper lock of collection {}", okra.getCollection(), e);
+        }
+    }
+
+    private void reap() {
+        try {
+            if (!leaderLock.tryAcquire()) {
+                lastRecovered.set(0);
+                return;
+            }
+
+            final long recovered = okra.recoverExpired();
+            lastRecovered.set(recovered);
+            totalRecovered.addAndGet(recovered);
+
+            if (recovered > 0) {
+                LOGGER.info("Recovered {} items with expired heartbeat from collection {}",
+                        recovered, okra.getCollection());
+            }
+
+            final long moved = okra.moveDeadLetters();
+
+            if (moved > 0) {
+                LOGGER.info("Moved {} dead items of collection {} to its dead-letter collection",
+                        moved, okra.getCollection());
+            }
+
+            final long promoted = okra.agePriorities();
+
+            if (promoted > 0) {
+                LOGGER.info("Promoted {} waiting items of collection {}", promoted, okra.getCollection());
+            }
+        } catch (final RuntimeException e) {
+            LOGGER.error("Error recovering expired items of collection {}", okra.getCollection(), e);
+        }
+    }
+}
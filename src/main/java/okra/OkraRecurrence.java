@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import org.springframework.scheduling.support.CronSequenceGenerator;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When a recurring item runs again, either following a cron expression or at a fixed rate.
+ * <p>
+ * A recurrence is stored on the item as its {@link #toString() spec}: {@code cron:<expression>}
+ * or {@code rate:<milliseconds>}. Cron expressions follow Spring's six field format, including
+ * seconds, and are evaluated in the system default time zone.
+ *
+ * @see okra.model.RecurringOkraItem
+ */
+public final class OkraRecurrence {
+
+    private static final String CRON_PREFIX = "cron:";
+    private static final String RATE_PREFIX = "rate:";
+
+    /**
+     * Most missed occurrences counted when catching up, so a very frequent cron
+     * expression that was missed for a long time doesn't keep the caller busy
+     */
+    private static final int MAX_COUNTED_OCCURRENCES = 10_000;
+
+    private final String spec;
+    private final CronSequenceGenerator cron;
+    private final long rateMillis;
+
+    private OkraRecurrence(final String spec, final CronSequenceGenerator cron, final long rateMillis) {
+        this.spec = spec;
+        this.cron = cron;
+        this.rateMillis = rateMillis;
+    }
+
+    /**
+     * @param expression a Spring cron expression, e.g. {@code 0 0/5 * * * *}
+     * @return a recurrence following the expression
+     */
+    public static OkraRecurrence cron(final String expression) {
+        if (expression == null || expression.trim().isEmpty()) {
+            throw new IllegalArgumentException("cron expression can't be empty");
+        }
+        return new OkraRecurrence(CRON_PREFIX + expression.trim(),
+                new CronSequenceGenerator(expression.trim(), TimeZone.getDefault()), 0);
+    }
+
+    /**
+     * @param rate how often the item runs
+     * @param unit the unit of the rate
+     * @return a recurrence running at the given fixed rate
+     */
+    public static OkraRecurrence fixedRate(final long rate, final TimeUnit unit) {
+        final long rateMillis = unit.toMillis(rate);
+        if (rateMillis <= 0) {
+            throw new IllegalArgumentException("rate must be at least one millisecond");
+        }
+        return new OkraRecurrence(RATE_PREFIX + rateMillis, null, rateMillis);
+    }
+
+    /**
+     * @param spec a spec created by {@link #toString()}
+     * @return the recurrence described by the spec
+     */
+    public static OkraRecurrence parse(final String spec) {
+        if (spec != null && spec.startsWith(CRON_PREFIX)) {
+            return cron(spec.substring(CRON_PREFIX.length()));
+        }
+
+        if (spec != null && spec.startsWith(RATE_PREFIX)) {
+            try {
+                return fixedRate(Long.parseLong(spec.substring(RATE_PREFIX.length())), TimeUnit.MILLISECONDS);
+            } catch (final NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid rate recurrence: " + spec, e);
+            }
+        }
+
+        throw new IllegalArgumentException("Invalid recurrence: " + spec);
+    }
+
+    /**
+     * @param after the date after which the next occurrence is looked for
+     * @return the first occurrence strictly after the given date
+     */
+    public LocalDateTime next(final LocalDateTime after) {
+        if (cron == null) {
+            return after.plus(rateMillis, ChronoUnit.MILLIS);
+        }
+
+        final Date next = cron.next(Date.from(after.atZone(ZoneId.systemDefault()).toInstant()));
+        return LocalDateTime.ofInstant(next.toInstant(), ZoneId.systemDefault());
+    }
+
+    /**
+     * @param first the first occurrence
+     * @param until the date until which occurrences are counted
+     * @return how many occurrences, starting at the given one, are not after the given date
+     */
+    int countUntil(final LocalDateTime first, final LocalDateTime until) {
+        if (first.isAfter(until)) {
+            return 0;
+        }
+
+        if (cron == null) {
+            final long count = ChronoUnit.MILLIS.between(first, until) / rateMillis + 1;
+            return (int) Math.min(count, MAX_COUNTED_OCCURRENCES);
+        }
+
+        int count = 0;
+
+        for (LocalDateTime occurrence = first;
+             !occurrence.isAfter(until) && count < MAX_COUNTED_OCCURRENCES;
+             occurrence = next(occurrence)) {
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * @param previous a past occurrence, which fixed rates stay aligned to
+     * @param after    the date after which the next occurrence is looked for
+     * @return the first occurrence strictly after the given date
+     */
+    LocalDateTime nextAfter(final LocalDateTime previous, final LocalDateTime after) {
+        if (cron == null) {
+            final long periods = ChronoUnit.MILLIS.between(previous, after) / rateMillis + 1;
+            return previous.plus(periods * rateMillis, ChronoUnit.MILLIS);
+        }
+
+        return next(after);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return this == o || o instanceof OkraRecurrence && spec.equals(((OkraRecurrence) o).spec);
+    }
+
+    @Override
+    public int hashCode() {
+        return spec.hashCode();
+    }
+
+    /**
+     * @return the spec of this recurrence, to be stored on the item
+     */
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
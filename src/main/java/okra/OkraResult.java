@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import java.time.LocalDateTime;
+
+/**
+ * What an {@link OkraConsumer} should do with an item after handling it.
+ */
+public final class OkraResult {
+
+    public enum Action {
+        /**
+         * The item was processed and will be completed, see {@link OkraSpring#complete}
+         */
+        DONE,
+
+        /**
+         * The item will run again at the given run date
+         */
+        RESCHEDULE,
+
+        /**
+         * The item is returned to the queue unchanged, so any node can claim it again
+         */
+        RELEASE,
+
+        /**
+         * The item failed and will be retried after a backoff, or dead-lettered once it runs
+         * out of attempts, see {@link OkraSpring#fail}. Items that don't keep track of their
+         * attempts are released instead
+         */
+        FAIL
+    }
+
+    private static final OkraResult DONE = new OkraResult(Action.DONE, null, null);
+    private static final OkraResult RELEASE = new OkraResult(Action.RELEASE, null, null);
+
+    private final Action action;
+    private final LocalDateTime runDate;
+    private final String reason;
+
+    private OkraResult(final Action action, final LocalDateTime runDate, final String reason) {
+        this.action = action;
+        this.runDate = runDate;
+        this.reason = reason;
+    }
+
+    public static OkraResult done() {
+        return DONE;
+    }
+
+    public static OkraResult release() {
+        return RELEASE;
+    }
+
+    public static OkraResult reschedule(final LocalDateTime runDate) {
+        if (runDate == null) {
+            throw new IllegalArgumentException("runDate can't be null");
+        }
+        return new OkraResult(Action.RESCHEDULE, runDate, null);
+    }
+
+    /**
+     * @param reason why the item failed
+     * @return a failure of an item implementing {@link okra.model.RetryableOkraItem}
+     */
+    public static OkraResult fail(final String reason) {
+        return new OkraResult(Action.FAIL, null, reason);
+    }
+
+    public Action getAction() {
+        return action;
+    }
+
+    /**
+     * @return the new run date when rescheduling, otherwise null
+     */
+    public LocalDateTime getRunDate() {
+        return runDate;
+    }
+
+    /**
+     * @return why the item failed when failing, otherwise null
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    @Override
+    public String toString() {
+        return "OkraResult(action=" + action + ", runDate=" + runDate + ", reason=" + reason + ")";
+    }
+}
@@ -22,33 +22,202 @@
  */
 package okra;
 
+import com.mongodb.AggregationOptions;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteResult;
+import com.mongodb.BulkWriteUpsert;
+import com.mongodb.Cursor;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.ReadPreference;
 import okra.base.model.OkraItem;
 import okra.base.model.OkraStatus;
 import okra.base.spring.AbstractOkraSpring;
+import okra.codec.OkraItemCodec;
 import okra.exception.OkraItemNotFoundException;
 import okra.exception.OkraRuntimeException;
+import okra.metrics.OkraMetrics;
+import okra.metrics.OkraOperation;
+import okra.model.DeduplicatedOkraItem;
+import okra.model.RecurringOkraItem;
+import okra.model.RetryableOkraItem;
 import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.query.BasicUpdate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
 
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-public class OkraSpring<T extends OkraItem> extends AbstractOkraSpring<T> {
+public class OkraSpring<T extends OkraItem> extends AbstractOkraSpring<T> implements AutoCloseable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(OkraSpring.class);
 
+    /**
+     * Field used to mark which items were claimed by a single batch claim
+     */
+    static final String CLAIM_TOKEN_FIELD = "claimToken";
+
+    /**
+     * Field holding the partition of an item when the queue is partitioned
+     */
+    static final String PARTITION_FIELD = "partition";
+
+    /**
+     * Field holding the priority of an item. Higher priorities are claimed first
+     */
+    static final String PRIORITY_FIELD = "priority";
+
+    /**
+     * Priority stored for the items scheduled without one when claims are ordered by priority
+     */
+    static final int DEFAULT_PRIORITY = 0;
+
+    /**
+     * Field holding when an item was last promoted because it waited too long
+     */
+    static final String AGED_AT_FIELD = "agedAt";
+
+    /**
+     * Field holding when an item was completed, expired by a TTL index
+     */
+    static final String COMPLETED_AT_FIELD = "completedAt";
+
+    /**
+     * Field holding the logical key of an item, unique among the queued items
+     */
+    static final String DEDUP_KEY_FIELD = "dedupKey";
+
+    /**
+     * Field holding the type of an item when a single queue serves several job types
+     */
+    static final String TYPE_FIELD = "type";
+
+    /**
+     * Field marking the items whose type has its own limit, so untyped claims skip them
+     * with an equality on a missing field instead of a negation on the type
+     */
+    static final String LIMITED_FIELD = "limited";
+
+    /**
+     * Field holding how many times an item failed
+     */
+    static final String ATTEMPTS_FIELD = "attempts";
+
+    /**
+     * Field holding why an item failed the last time
+     */
+    static final String LAST_ERROR_FIELD = "lastError";
+
+    /**
+     * Field holding when an item failed the last time
+     */
+    static final String FAILED_AT_FIELD = "failedAt";
+
+    /**
+     * Field holding the {@link OkraFinalStatus} of an item that left the queue for good. The
+     * status field is unset meanwhile, so it only ever holds {@link OkraStatus} names
+     */
+    static final String FINAL_STATUS_FIELD = "finalStatus";
+
+    private static final int DUPLICATE_KEY_ERROR = 11000;
+
+    /**
+     * Least time between two moves of dead items run by failures when the reaper is disabled
+     */
+    private static final long DEAD_LETTER_MOVE_INTERVAL_MILLIS = 1000;
+
     private final MongoTemplate mongoTemplate;
     private final long defaultHeartbeatExpirationMillis;
     private final Class<T> scheduleItemClass;
+    private final PollMode pollMode;
+    private final int scheduleChunkSize;
+    private final long subscriptionRefreshMillis;
+    private final int subscriptionLookahead;
+    private final int prefetchBufferSize;
+    private final int prefetchLowWaterMark;
+    private final int partitions;
+    private final long heartbeatIntervalMillis;
+    private final long reaperIntervalMillis;
+    private final int consumerParallelism;
+    private final long consumerMinBackoffMillis;
+    private final long consumerMaxBackoffMillis;
+    private final OkraMetrics metrics;
+    private final boolean metricsEnabled;
+    private final long statsCacheMillis;
+    private final ReadPreference statsReadPreference;
+    private final Sort claimSort;
+    private final long priorityAgingMillis;
+    private final int maxAgedPriority;
+    private final ExecutorService agingExecutor;
+    private final List<String> claimProjection;
+    private final int ackBatchSize;
+    private final long ackFlushIntervalMillis;
+    private final long completedRetentionMillis;
+    private final CatchUpPolicy catchUpPolicy;
+    private final boolean deduplication;
+    private final boolean multiQueue;
+    private final boolean indexProvisioning;
+    private final long failureInitialBackoffMillis;
+    private final long failureMaxBackoffMillis;
+    private final int maxAttempts;
+    private final String deadLetterCollection;
+    private final OkraItemCodec<T> codec;
+    private final OkraConsistency consistency;
+    private final OkraLimiter limiter;
+    private final List<String> limitedTypes;
+    private final OkraWriter writer;
+    private final OkraWriter deadLetterWriter;
+    private final Set<String> replacedFields;
+    private final Map<String, OkraRecurrence> recurrences = new ConcurrentHashMap<>();
+    private final AtomicLong lastPriorityAgingMillis = new AtomicLong(System.currentTimeMillis());
+    private final AtomicLong lastDeadLetterMoveMillis = new AtomicLong();
+    private final Object statsLock = new Object();
+    private volatile QueueStats cachedStats;
+    private OkraReaper<T> reaper;
+    private final AtomicInteger partitionCursor = new AtomicInteger(ThreadLocalRandom.current().nextInt(1 << 16));
+    private final List<Consumer<T>> scheduleListeners = new CopyOnWriteArrayList<>();
 
     public OkraSpring(final MongoTemplate mongoTemplate,
                       final String database,
@@ -56,31 +225,441 @@ public class OkraSpring<T extends OkraItem> extends AbstractOkraSpring<T> {
                       final long defaultHeartbeatExpiration,
                       final TimeUnit defaultHeartbeatExpirationUnit,
                       final Class<T> scheduleItemClass) {
+        this(mongoTemplate, database, collection, defaultHeartbeatExpiration,
+                defaultHeartbeatExpirationUnit, scheduleItemClass, new OkraSpringOptions());
+    }
+
+    @SuppressWarnings("unchecked")
+    public OkraSpring(final MongoTemplate mongoTemplate,
+                      final String database,
+                      final String collection,
+                      final long defaultHeartbeatExpiration,
+                      final TimeUnit defaultHeartbeatExpirationUnit,
+                      final Class<T> scheduleItemClass,
+                      final OkraSpringOptions options) {
         super(database, collection);
         this.mongoTemplate = mongoTemplate;
         this.defaultHeartbeatExpirationMillis = defaultHeartbeatExpirationUnit.toMillis(defaultHeartbeatExpiration);
         this.scheduleItemClass = scheduleItemClass;
+        this.pollMode = options.getPollMode();
+        this.scheduleChunkSize = options.getScheduleChunkSize();
+        this.subscriptionRefreshMillis = options.getSubscriptionRefreshMillis();
+        this.subscriptionLookahead = options.getSubscriptionLookahead();
+        this.prefetchBufferSize = options.getPrefetchBufferSize();
+        this.prefetchLowWaterMark = options.getPrefetchLowWaterMark();
+        this.partitions = options.getPartitions();
+        this.heartbeatIntervalMillis = options.getHeartbeatIntervalMillis() > 0
+                ? options.getHeartbeatIntervalMillis()
+                : Math.max(1, defaultHeartbeatExpirationMillis / 3);
+        this.reaperIntervalMillis = options.getReaperIntervalMillis();
+        this.consumerParallelism = options.getConsumerParallelism();
+        this.consumerMinBackoffMillis = options.getConsumerMinBackoffMillis();
+        this.consumerMaxBackoffMillis = options.getConsumerMaxBackoffMillis();
+        this.metrics = options.getMetrics();
+        this.metricsEnabled = metrics != OkraMetrics.NOOP;
+        this.statsCacheMillis = options.getStatsCacheMillis();
+        this.statsReadPreference = options.getConsistency().getReadPreference() != null
+                ? options.getConsistency().getReadPreference()
+                : options.getStatsReadPreference();
+        this.claimSort = options.isPriorityOrdering()
+                ? new Sort(Sort.Direction.DESC, PRIORITY_FIELD).and(new Sort(Sort.Direction.ASC, "runDate"))
+                : null;
+        this.priorityAgingMillis = options.getPriorityAgingMillis();
+        this.maxAgedPriority = options.getMaxAgedPriority();
+        this.agingExecutor = priorityAgingMillis > 0 && reaperIntervalMillis <= 0
+                ? Executors.newSingleThreadExecutor(r -> {
+                    final Thread thread = new Thread(r, "okra-aging-" + collection);
+                    thread.setDaemon(true);
+                    return thread;
+                })
+                : null;
+        this.claimProjection = new ArrayList<>(options.getClaimProjection());
+        this.ackBatchSize = options.getAckBatchSize();
+        this.ackFlushIntervalMillis = options.getAckFlushIntervalMillis();
+        this.completedRetentionMillis = options.getCompletedRetentionMillis();
+        this.catchUpPolicy = options.getCatchUpPolicy();
+        this.deduplication = options.isDeduplication();
+        this.multiQueue = options.isMultiQueue();
+        this.indexProvisioning = options.isIndexProvisioning();
+        this.failureInitialBackoffMillis = options.getFailureInitialBackoffMillis();
+        this.failureMaxBackoffMillis = options.getFailureMaxBackoffMillis();
+        this.maxAttempts = options.getMaxAttempts();
+        this.deadLetterCollection = options.getDeadLetterCollection() != null
+                ? options.getDeadLetterCollection()
+                : collection + ".deadLetters";
+        this.codec = (OkraItemCodec<T>) options.getCodec();
+        this.consistency = options.getConsistency();
+        this.writer = new OkraWriter(mongoTemplate, collection, scheduleItemClass, consistency);
+        this.deadLetterWriter = new OkraWriter(mongoTemplate, deadLetterCollection, null, consistency);
+        this.replacedFields = new LinkedHashSet<>(writer.itemFields());
+        this.replacedFields.addAll(Arrays.asList(
+                ATTEMPTS_FIELD, LAST_ERROR_FIELD, FAILED_AT_FIELD, AGED_AT_FIELD, LIMITED_FIELD));
+        this.replacedFields.removeAll(Arrays.asList("_id", PARTITION_FIELD, DEDUP_KEY_FIELD));
+        this.limiter = options.getLimits().isEmpty()
+                ? null
+                : new OkraLimiter(mongoTemplate, consistency, collection, options.getLimits(),
+                defaultHeartbeatExpirationMillis, options.getLimitCacheMillis());
+        this.limitedTypes = limiter == null
+                ? Collections.emptyList()
+                : new ArrayList<>(limiter.limitedTypes());
     }
 
     @Override
     public Optional<T> poll() {
-        final Optional<T> item = peek();
-        item.ifPresent(i -> mongoTemplate.remove(i, getCollection()));
-        return item;
+        final long start = startTimer();
+
+        try {
+            if (pollMode == PollMode.PEEK_AND_REMOVE) {
+                final Optional<T> item = claim();
+                item.ifPresent(i -> {
+                    writer.remove(OkraWrite.CLAIM, Query.query(Criteria.where("_id").is(new ObjectId(i.getId()))));
+                    releaseLimit(i.getId());
+                });
+                return item;
+            }
+
+            return findAndRemove();
+        } finally {
+            stopTimer(OkraOperation.POLL, start);
+        }
     }
 
     @Override
     public Optional<T> peek() {
-        final LocalDateTime expiredHeartbeatDate = LocalDateTime
-                .now()
-                .minus(defaultHeartbeatExpirationMillis, ChronoUnit.MILLIS);
-        final Criteria mainOr = generatePollCriteria(expiredHeartbeatDate);
+        final long start = startTimer();
+
+        try {
+            return claim();
+        } finally {
+            stopTimer(OkraOperation.PEEK, start);
+        }
+    }
+
+    private Optional<T> findAndRemove() {
+        final OkraLimiter.Grant grant = acquireLimit(null, 1);
+
+        if (grant == null) {
+            recordMiss();
+            return Optional.empty();
+        }
+
+        agePrioritiesInBackgroundIfDue();
+
+        final LocalDateTime expiredHeartbeatDate = expiredHeartbeatDate();
+        final int startPartition = nextStartPartition();
+
+        for (int i = 0; i < partitions; i++) {
+            final Query query = claimQuery(generatePollCriteria(expiredHeartbeatDate, partitionAt(startPartition, i)));
+            final T item = findAndRemoveItem(OkraWrite.CLAIM, query);
+
+            if (item != null) {
+                claimedWithLimit(grant, Collections.singletonList(item.getId()));
+                releaseLimit(item.getId());
+                recordClaimed(claimableSince(item.getStatus(), item.getRunDate(), item.getHeartbeat()));
+                return Optional.of(item);
+            }
+        }
+
+        claimedWithLimit(grant, Collections.emptyList());
+        recordMiss();
+        return Optional.empty();
+    }
+
+    private Optional<T> claim() {
+        final OkraLimiter.Grant grant = acquireLimit(null, 1);
+
+        if (grant == null) {
+            recordMiss();
+            return Optional.empty();
+        }
+
+        agePrioritiesInBackgroundIfDue();
+
+        final LocalDateTime expiredHeartbeatDate = expiredHeartbeatDate();
+        final int startPartition = nextStartPartition();
+
+        for (int i = 0; i < partitions; i++) {
+            final Criteria mainOr = generatePollCriteria(expiredHeartbeatDate, partitionAt(startPartition, i));
+            final LocalDateTime heartbeat = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+            final Query query = claimQuery(mainOr);
+            final FindAndModifyOptions opts = new FindAndModifyOptions().returnNew(false);
+            final T item = findAndModifyItem(OkraWrite.CLAIM, query, claimUpdate(grant, heartbeat), opts);
+
+            if (item != null) {
+                claimedWithLimit(grant, Collections.singletonList(item.getId()));
+                recordClaimed(claimableSince(item.getStatus(), item.getRunDate(), item.getHeartbeat()));
+
+                // the claim only changes these fields, so the item doesn't have to be read again
+                item.setStatus(OkraStatus.PROCESSING);
+                item.setHeartbeat(heartbeat);
+                return Optional.of(item);
+            }
+        }
+
+        claimedWithLimit(grant, Collections.emptyList());
+        recordMiss();
+        return Optional.empty();
+    }
+
+    /**
+     * Marks an item as claimed, stamping it with the token of its lease when the claim is limited
+     */
+    private Update claimUpdate(final OkraLimiter.Grant grant, final LocalDateTime heartbeat) {
+        final Update update = Update
+                .update("status", OkraStatus.PROCESSING)
+                .set("heartbeat", heartbeat);
+
+        return grant.getToken() == null ? update : update.set(CLAIM_TOKEN_FIELD, grant.getToken());
+    }
+
+    /**
+     * Claims up to {@code max} items in a single batch and removes them from the queue.
+     *
+     * @param max the maximum number of items to be claimed
+     * @return the claimed items, never null
+     */
+    public List<T> pollBatch(final int max) {
+        final long start = startTimer();
+
+        try {
+            final List<T> items = claimBatch(max, null);
+
+            if (!items.isEmpty()) {
+                final List<ObjectId> ids = toObjectIds(items);
+                writer.remove(OkraWrite.CLAIM, Query.query(Criteria.where("_id").in(ids)));
+                releaseLimits(items);
+            }
+
+            return items;
+        } finally {
+            stopTimer(OkraOperation.POLL_BATCH, start);
+        }
+    }
+
+    /**
+     * Claims up to {@code max} items using the same criteria as {@link #peek()}.
+     * <p>
+     * Candidates are selected first and then claimed with a single multi update that
+     * re-applies the poll criteria and stamps every claimed item with the same heartbeat
+     * and an unique claim token. Only the items carrying this token are returned, so an
+     * item is never handed to two concurrent claimers.
+     * <p>
+     * On a partitioned queue the batch is filled from the following partitions when the
+     * first one doesn't have enough due items. When an {@link OkraLimit} applies, the batch
+     * is cut down to what the limit still allows.
+     *
+     * @param max the maximum number of items to be claimed
+     * @return the claimed items, never null
+     */
+    public List<T> peekBatch(final int max) {
+        final long start = startTimer();
+
+        try {
+            return claimBatch(max, null);
+        } finally {
+            stopTimer(OkraOperation.PEEK_BATCH, start);
+        }
+    }
+
+    /**
+     * Claims up to {@code max} items of the given type, like {@link #peekBatch(int)}.
+     * The item class must have a {@code type} field.
+     *
+     * @param max  the maximum number of items to be claimed
+     * @param type the type of the items to be claimed
+     * @return the claimed items, never null
+     */
+    public List<T> peekBatch(final int max, final String type) {
+        final long start = startTimer();
+
+        try {
+            return claimBatch(max, type);
+        } finally {
+            stopTimer(OkraOperation.PEEK_BATCH, start);
+        }
+    }
+
+    /**
+     * Claims an item like {@link #peek()}, but only fetches its id, dates, status and the
+     * configured claim projection fields. The returned handle doesn't go through the entity
+     * mapping and only fetches the full item if it's asked to.
+     *
+     * @return a handle of the claimed item, if any item was due
+     * @see OkraClaim
+     */
+    public Optional<OkraClaim<T>> peekProjected() {
+        final long start = startTimer();
+
+        try {
+            final OkraLimiter.Grant grant = acquireLimit(null, 1);
+
+            if (grant == null) {
+                recordMiss();
+                return Optional.empty();
+            }
+
+            agePrioritiesInBackgroundIfDue();
+
+            final LocalDateTime expiredHeartbeatDate = expiredHeartbeatDate();
+            final int startPartition = nextStartPartition();
+
+            for (int i = 0; i < partitions; i++) {
+                final Query query = claimQuery(generatePollCriteria(expiredHeartbeatDate, partitionAt(startPartition, i)));
+                query.fields().include("_id").include("status").include("runDate").include("heartbeat");
+                claimProjection.forEach(field -> query.fields().include(field));
+
+                final LocalDateTime heartbeat = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+                final FindAndModifyOptions opts = new FindAndModifyOptions().returnNew(false);
+                final DBObject document = writer.findAndModify(OkraWrite.CLAIM, query,
+                        claimUpdate(grant, heartbeat), opts);
+
+                if (document != null) {
+                    final LocalDateTime runDate = toLocalDateTime((Date) document.get("runDate"));
+                    final Object status = document.get("status");
+                    recordClaimed(claimableSince(status == null ? null : OkraStatus.valueOf(status.toString()),
+                            runDate, toLocalDateTime((Date) document.get("heartbeat"))));
+                    claimedWithLimit(grant, Collections.singletonList(document.get("_id").toString()));
+
+                    document.put("status", OkraStatus.PROCESSING.name());
+                    document.put("heartbeat", toDate(heartbeat));
+
+                    return Optional.of(new OkraClaim<>(this, document, document.get("_id").toString(),
+                            runDate, heartbeat));
+                }
+            }
+
+            claimedWithLimit(grant, Collections.emptyList());
+            recordMiss();
+            return Optional.empty();
+        } finally {
+            stopTimer(OkraOperation.PEEK_PROJECTED, start);
+        }
+    }
+
+    Optional<T> findClaimed(final String id) {
+        return Optional.ofNullable(findOneItem(Query.query(Criteria.where("_id").is(new ObjectId(id)))));
+    }
+
+    Optional<LocalDateTime> heartbeatClaim(final String id, final LocalDateTime heartbeat) {
+        final long start = startTimer();
+
+        try {
+            final LocalDateTime newHeartbeat = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+
+            final Query query = Query.query(Criteria
+                    .where("_id").is(new ObjectId(id))
+                    .and("status").is(OkraStatus.PROCESSING)
+                    .and("heartbeat").is(heartbeat));
+
+            final boolean refreshed = writer.updateFirst(OkraWrite.HEARTBEAT, query,
+                    Update.update("heartbeat", newHeartbeat)) == 1;
+
+            if (!refreshed && metricsEnabled) {
+                metrics.recordLostHeartbeats(1);
+            }
+
+            return refreshed ? Optional.of(newHeartbeat) : Optional.empty();
+        } finally {
+            stopTimer(OkraOperation.HEARTBEAT, start);
+        }
+    }
+
+    void deleteClaimed(final String id) {
+        final long start = startTimer();
+
+        try {
+            writer.remove(OkraWrite.DELETE, Query.query(Criteria.where("_id").is(new ObjectId(id))));
+            releaseLimit(id);
+        } finally {
+            stopTimer(OkraOperation.DELETE, start);
+        }
+    }
+
+    private List<T> claimBatch(final int max, final String type) {
+        if (max <= 0) {
+            return Collections.emptyList();
+        }
+
+        final OkraLimiter.Grant grant = acquireLimit(type, max);
+
+        if (grant == null) {
+            recordMiss();
+            return Collections.emptyList();
+        }
+
+        agePrioritiesInBackgroundIfDue();
+
+        final int limitedMax = Math.min(max, grant.getCount());
+        final String claimToken = grant.getToken() == null ? new ObjectId().toHexString() : grant.getToken();
+        final LocalDateTime now = LocalDateTime.now();
+        final LocalDateTime expiredHeartbeatDate = now.minus(defaultHeartbeatExpirationMillis, ChronoUnit.MILLIS);
+        final int startPartition = nextStartPartition();
+        final Map<String, LocalDateTime> claimableSince = new HashMap<>();
+        final List<T> claimed;
+
+        if (partitions == 1) {
+            claimed = claimBatch(generatePollCriteria(expiredHeartbeatDate, null, type), limitedMax, now, claimToken,
+                    claimableSince);
+        } else {
+            claimed = new ArrayList<>(limitedMax);
+
+            for (int i = 0; i < partitions && claimed.size() < limitedMax; i++) {
+                final Criteria pollCriteria = generatePollCriteria(
+                        expiredHeartbeatDate, partitionAt(startPartition, i), type);
+                claimed.addAll(claimBatch(pollCriteria, limitedMax - claimed.size(), now, claimToken,
+                        claimableSince));
+            }
+        }
+
+        claimedWithLimit(grant, claimed.stream().map(OkraItem::getId).collect(Collectors.toList()));
+
+        if (claimed.isEmpty()) {
+            recordMiss();
+        } else if (metricsEnabled) {
+            claimed.forEach(item -> recordClaimed(claimableSince.get(item.getId())));
+        }
+
+        return claimed;
+    }
+
+    /**
+     * Claims up to {@code max} items matching the poll criteria, recording since when each
+     * candidate was claimable
+     */
+    private List<T> claimBatch(final Criteria pollCriteria,
+                               final int max,
+                               final LocalDateTime now,
+                               final String claimToken,
+                               final Map<String, LocalDateTime> claimableSince) {
+        final Query candidatesQuery = claimQuery(pollCriteria).limit(max);
+        candidatesQuery.fields().include("_id").include("status").include("runDate").include("heartbeat");
+
+        final List<T> candidates = findItems(candidatesQuery);
+        candidates.forEach(candidate -> claimableSince.put(candidate.getId(),
+                claimableSince(candidate.getStatus(), candidate.getRunDate(), candidate.getHeartbeat())));
+
+        final List<ObjectId> candidateIds = toObjectIds(candidates);
+
+        if (candidateIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final Query claimQuery = Query.query(new Criteria().andOperator(
+                Criteria.where("_id").in(candidateIds),
+                pollCriteria));
+
         final Update update = Update
                 .update("status", OkraStatus.PROCESSING)
-                .set("heartbeat", LocalDateTime.now());
-        final Query query = Query.query(mainOr);
-        final FindAndModifyOptions opts = new FindAndModifyOptions().returnNew(true);
-        return Optional.ofNullable(mongoTemplate.findAndModify(query, update, opts, scheduleItemClass, getCollection()));
+                .set("heartbeat", now)
+                .set(CLAIM_TOKEN_FIELD, claimToken);
+
+        writer.updateMulti(OkraWrite.CLAIM, claimQuery, update);
+
+        final Query claimedQuery = Query.query(Criteria
+                .where("_id").in(candidateIds)
+                .and(CLAIM_TOKEN_FIELD).is(claimToken));
+
+        return findItems(claimedQuery);
     }
 
     @Override
@@ -88,102 +667,2073 @@ public class OkraSpring<T extends OkraItem> extends AbstractOkraSpring<T> {
         return peek().orElseThrow(OkraItemNotFoundException::new);
     }
 
-    private Criteria generatePollCriteria(final LocalDateTime expiredHeartbeatDate) {
+    private LocalDateTime expiredHeartbeatDate() {
+        return LocalDateTime
+                .now()
+                .minus(defaultHeartbeatExpirationMillis, ChronoUnit.MILLIS);
+    }
+
+    private int nextStartPartition() {
+        return partitions == 1 ? 0 : Math.floorMod(partitionCursor.getAndIncrement(), partitions);
+    }
+
+    /**
+     * @return the partition to be claimed from, or null if the queue isn't partitioned
+     */
+    private Integer partitionAt(final int startPartition, final int offset) {
+        return partitions == 1 ? null : (startPartition + offset) % partitions;
+    }
+
+    private Criteria generatePollCriteria(final LocalDateTime expiredHeartbeatDate, final Integer partition) {
+        return generatePollCriteria(expiredHeartbeatDate, partition, null);
+    }
+
+    private Criteria generatePollCriteria(final LocalDateTime expiredHeartbeatDate,
+                                          final Integer partition,
+                                          final String type) {
         final Criteria pendingCriteria = new Criteria().andOperator(
-                Criteria.where("runDate").lt(LocalDateTime.now()),
-                Criteria.where("status").is(OkraStatus.PENDING)
+                prefixCriteria(partition, type,
+                        Criteria.where("runDate").lt(LocalDateTime.now()),
+                        Criteria.where("status").is(OkraStatus.PENDING))
         );
 
+        if (reaperIntervalMillis > 0) {
+            return pendingCriteria;
+        }
+
         final Criteria heartbeatCriteria = new Criteria()
                 .andOperator(
-                        Criteria.where("status").is(OkraStatus.PROCESSING),
-                        new Criteria().orOperator(
-                                Criteria.where("heartbeat").lt(expiredHeartbeatDate),
-                                Criteria.where("heartbeat").is(null)));
+                        prefixCriteria(partition, type,
+                                Criteria.where("status").is(OkraStatus.PROCESSING),
+                                new Criteria().orOperator(
+                                        Criteria.where("heartbeat").lt(expiredHeartbeatDate),
+                                        Criteria.where("heartbeat").is(null))));
 
         return new Criteria().orOperator(pendingCriteria, heartbeatCriteria);
     }
 
-    @Override
-    public Optional<T> reschedule(final T item) {
-        final Query query = new Query(Criteria.where("id").is(new ObjectId(item.getId())));
+    /**
+     * Returns every item whose heartbeat expired back to PENDING with a single multi update.
+     *
+     * @return how many items were recovered
+     */
+    public long recoverExpired() {
+        final long start = startTimer();
+
+        try {
+            final Update update = Update
+                    .update("status", OkraStatus.PENDING)
+                    .set("heartbeat", null);
+
+            return writer.updateMulti(OkraWrite.RESCHEDULE, expiredQuery(), update);
+        } finally {
+            stopTimer(OkraOperation.RECOVER_EXPIRED, start);
+        }
+    }
+
+    private Query expiredQuery() {
+        return Query.query(new Criteria().andOperator(
+                Criteria.where("status").is(OkraStatus.PROCESSING),
+                new Criteria().orOperator(
+                        Criteria.where("heartbeat").lt(expiredHeartbeatDate()),
+                        Criteria.where("heartbeat").is(null))));
+    }
+
+    /**
+     * Promotes by one priority level every PENDING item that has been due for longer than
+     * the priority aging interval and wasn't promoted during the last interval, so low
+     * priority items are still claimed under a sustained load of higher priority items.
+     * Items already at the max aged priority aren't promoted.
+     * <p>
+     * The items are promoted a chunk at a time: the ids of a chunk are found first and then
+     * promoted with a single update, which checks again that they're due for a promotion.
+     * <p>
+     * The reaper runs it on every round. When the reaper is disabled, claims hand it to a
+     * background thread at most once per aging interval, so it usually doesn't need to be
+     * called directly.
+     *
+     * @return how many items were promoted
+     */
+    public long agePriorities() {
+        if (priorityAgingMillis <= 0) {
+            return 0;
+        }
+
+        final LocalDateTime now = LocalDateTime.now();
+        final LocalDateTime agedBefore = now.minus(priorityAgingMillis, ChronoUnit.MILLIS);
+        final Criteria dueForAging = new Criteria().andOperator(
+                Criteria.where("status").is(OkraStatus.PENDING),
+                Criteria.where("runDate").lt(agedBefore),
+                Criteria.where(PRIORITY_FIELD).not().gte(maxAgedPriority),
+                new Criteria().orOperator(
+                        Criteria.where(AGED_AT_FIELD).lt(agedBefore),
+                        Criteria.where(AGED_AT_FIELD).is(null)));
 
         final Update update = new Update()
-                .set("status", OkraStatus.PENDING)
-                .set("runDate", item.getRunDate())
-                .set("heartbeat", null);
+                .inc(PRIORITY_FIELD, 1)
+                .set(AGED_AT_FIELD, now);
 
-        mongoTemplate.updateFirst(query, update, scheduleItemClass, getCollection());
+        long promoted = 0;
 
-        item.setStatus(OkraStatus.PENDING);
+        while (true) {
+            final Query idsQuery = Query.query(dueForAging).limit(scheduleChunkSize);
+            idsQuery.fields().include("_id");
+
+            final List<Object> ids = mongoTemplate.find(idsQuery, DBObject.class, getCollection())
+                    .stream()
+                    .map(document -> document.get("_id"))
+                    .collect(Collectors.toList());
+
+            if (ids.isEmpty()) {
+                return promoted;
+            }
+
+            final int chunkPromoted = writer.updateMulti(OkraWrite.RESCHEDULE,
+                    Query.query(new Criteria().andOperator(Criteria.where("_id").in(ids), dueForAging)), update);
+            promoted += chunkPromoted;
 
-        return Optional.of(item);
+            if (ids.size() < scheduleChunkSize || chunkPromoted == 0) {
+                return promoted;
+            }
+        }
     }
 
-    @Override
-    public Optional<T> heartbeat(final T item) {
-        return heartbeatAndUpdateCustomAttrs(item, null);
+    private void agePrioritiesInBackgroundIfDue() {
+        if (agingExecutor == null) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        final long last = lastPriorityAgingMillis.get();
+
+        if (now - last >= priorityAgingMillis && lastPriorityAgingMillis.compareAndSet(last, now)) {
+            try {
+                agingExecutor.execute(() -> {
+                    try {
+                        agePriorities();
+                    } catch (final RuntimeException e) {
+                        LOGGER.error("Error promoting the priorities of collection {}", getCollection(), e);
+                    }
+                });
+            } catch (final RejectedExecutionException e) {
+                LOGGER.debug("Priorities of collection {} aren't promoted anymore, the queue is closed", getCollection());
+            }
+        }
     }
 
-    @Override
-    public Optional<T> heartbeatAndUpdateCustomAttrs(final T item, final Map<String, Object> attrs) {
-        if (item.getId() == null || item.getHeartbeat() == null || item.getStatus() == null) {
+    /**
+     * Builds a claim query, ordered by priority and then run date when priority ordering is enabled.
+     * The order is served by the priority index, so the claim doesn't sort in memory.
+     */
+    private Query claimQuery(final Criteria criteria) {
+        final Query query = Query.query(criteria);
+        return claimSort == null ? query : query.with(claimSort);
+    }
+
+    /**
+     * Starts the reaper of this instance, if reapers are enabled and it isn't running yet.
+     * While reapers are enabled the claim criteria only cover due PENDING items,
+     * so at least one node must run its reaper.
+     *
+     * @return the reaper, if reapers are enabled
+     */
+    public synchronized Optional<OkraReaper<T>> startReaper() {
+        if (reaperIntervalMillis <= 0) {
             return Optional.empty();
         }
 
-        final Query query = Query.query(Criteria
-                .where("_id").is(new ObjectId(item.getId()))
-                .and("status").is(OkraStatus.PROCESSING)
-                .and("heartbeat").is(item.getHeartbeat())
-        );
+        if (reaper == null) {
+            reaper = new OkraReaper<>(this, reaperIntervalMillis);
+            reaper.start();
+        }
 
-        final Update update = Update.update("heartbeat", LocalDateTime.now());
+        return Optional.of(reaper);
+    }
 
-        if (attrs != null && !attrs.isEmpty()) {
-            attrs.forEach(update::set);
+    /**
+     * Stops the background threads of this instance: the reaper, if it was started, and the
+     * thread promoting priorities on claims. A promotion in flight is let finish. The queue
+     * itself stays usable, but expired items aren't recovered by this node anymore and
+     * priorities are only promoted by {@link #agePriorities()}.
+     */
+    @Override
+    public synchronized void close() {
+        if (agingExecutor != null) {
+            agingExecutor.shutdown();
         }
 
-        final FindAndModifyOptions opts = new FindAndModifyOptions().returnNew(true);
-        LOGGER.info("Querying for schedules using query: {}", query);
+        if (reaper != null) {
+            reaper.close();
+            reaper = null;
+        }
+    }
 
-        return Optional.ofNullable(mongoTemplate.findAndModify(query, update, opts, scheduleItemClass, getCollection()));
+    MongoTemplate getMongoTemplate() {
+        return mongoTemplate;
     }
 
-    @Override
-    public void delete(final T item) {
-        if (item.getId() == null) {
-            return;
+    /**
+     * Prepends the partition and type filters to the given criteria, so each branch of the
+     * poll criteria can be served by an index prefixed by the partition and the type.
+     * Items scheduled before the queue was partitioned belong to partition zero.
+     * Untyped claims skip the types having their own limit through the marker stamped on their
+     * items when they're scheduled.
+     */
+    private Criteria[] prefixCriteria(final Integer partition, final String type, final Criteria... criteria) {
+        final List<Criteria> prefixed = new ArrayList<>(criteria.length + 2);
+
+        if (partition != null) {
+            prefixed.add(partition == 0
+                    ? Criteria.where(PARTITION_FIELD).in(0, null)
+                    : Criteria.where(PARTITION_FIELD).is(partition));
         }
 
-        mongoTemplate.remove(item, getCollection());
+        if (type != null) {
+            prefixed.add(Criteria.where(TYPE_FIELD).is(type));
+        } else if (!limitedTypes.isEmpty()) {
+            prefixed.add(Criteria.where(LIMITED_FIELD).is(null));
+        }
+
+        Collections.addAll(prefixed, criteria);
+        return prefixed.toArray(new Criteria[prefixed.size()]);
     }
 
-    @Override
-    public void schedule(final T item) {
-        validateSchedule(item);
-        item.setStatus(OkraStatus.PENDING);
-        mongoTemplate.save(item, getCollection());
+    /**
+     * Creates the indexes needed to claim from a partitioned queue, to claim by type or by
+     * priority, to expire and count completed items, to deduplicate items, to reclaim the leases of
+     * limited claims and to skip the limited types on untyped claims. Does nothing if none of
+     * them is enabled.
+     * <p>
+     * With index provisioning, the claim and heartbeat indexes without the partition and type
+     * prefix are also created, so plain queues don't rely on the indexes declared by the item
+     * class, which only apply to its default collection.
+     */
+    public void ensureIndexes() {
+        if (limiter != null) {
+            mongoTemplate.indexOps(getCollection()).ensureIndex(new Index()
+                    .on(CLAIM_TOKEN_FIELD, Sort.Direction.ASC)
+                    .sparse()
+                    .named("i_claimToken"));
+        }
+
+        if (deduplication) {
+            mongoTemplate.indexOps(getCollection()).ensureIndex(new Index()
+                    .on(DEDUP_KEY_FIELD, Sort.Direction.ASC)
+                    .unique()
+                    .sparse()
+                    .named("i_dedupKey_unique"));
+        }
+
+        if (completedRetentionMillis > 0) {
+            mongoTemplate.indexOps(getCollection()).ensureIndex(new Index()
+                    .on(COMPLETED_AT_FIELD, Sort.Direction.ASC)
+                    .expire(Math.max(1, TimeUnit.MILLISECONDS.toSeconds(completedRetentionMillis)))
+                    .named("i_completedAt_ttl"));
+        }
+
+        if (completedRetentionMillis > 0 || indexProvisioning) {
+            // finished items are only counted by the snapshot, which matches them on this index
+            mongoTemplate.indexOps(getCollection()).ensureIndex(new Index()
+                    .on(FINAL_STATUS_FIELD, Sort.Direction.ASC)
+                    .sparse()
+                    .named("i_finalStatus"));
+        }
+
+        final List<String> prefix = new ArrayList<>();
+
+        if (partitions > 1) {
+            prefix.add(PARTITION_FIELD);
+        }
+
+        if (multiQueue) {
+            prefix.add(TYPE_FIELD);
+        }
+
+        if (!prefix.isEmpty() || claimSort != null) {
+            ensurePendingIndex(prefix);
+        }
+
+        if (!prefix.isEmpty()) {
+            ensureProcessingIndex(prefix);
+        }
+
+        if (!limitedTypes.isEmpty()) {
+            // untyped claims are prefixed by the marker of the limited types instead of the type
+            final List<String> untypedPrefix = new ArrayList<>(prefix);
+            untypedPrefix.remove(TYPE_FIELD);
+            untypedPrefix.add(LIMITED_FIELD);
+
+            ensurePendingIndex(untypedPrefix);
+            ensureProcessingIndex(untypedPrefix);
+        }
+
+        if (indexProvisioning) {
+            // counts, the recovery of expired items and untyped claims aren't prefixed by the type
+            if (!prefix.isEmpty() || claimSort == null) {
+                ensurePendingIndex(Collections.emptyList());
+            }
+
+            ensureProcessingIndex(Collections.emptyList());
+        }
     }
 
-    @Override
-    public long countByStatus(final OkraStatus status) {
-        return mongoTemplate.count(Query.query(Criteria.where("status").is(status)), scheduleItemClass);
+    private void ensurePendingIndex(final List<String> prefix) {
+        final List<String> pendingIndex = new ArrayList<>(prefix);
+        pendingIndex.add("status");
+
+        if (claimSort != null) {
+            pendingIndex.add(PRIORITY_FIELD);
+        }
+
+        pendingIndex.add("runDate");
+        ensureClaimIndex(pendingIndex);
     }
 
-    @Override
-    public long countDelayed() {
-        throw new OkraRuntimeException("Not implemented yet");
+    private void ensureProcessingIndex(final List<String> prefix) {
+        final List<String> processingIndex = new ArrayList<>(prefix);
+        processingIndex.add("status");
+        processingIndex.add("heartbeat");
+        ensureClaimIndex(processingIndex);
     }
 
-    private void validateSchedule(final T item) {
-        if (item.getId() != null) {
-            LOGGER.error("Impossible to schedule item because it already has an ID. Item: {}", item);
-            throw new OkraRuntimeException();
+    /**
+     * Creates an index on the given fields, named after them. The priority is descending,
+     * every other field is ascending.
+     */
+    private void ensureClaimIndex(final List<String> fields) {
+        final Index index = new Index();
+
+        for (final String field : fields) {
+            index.on(field, PRIORITY_FIELD.equals(field) ? Sort.Direction.DESC : Sort.Direction.ASC);
         }
 
-        if (item.getRunDate() == null) {
-            LOGGER.error("Impossible to schedule item because it doesn't have a schedule date. Item: {}", item);
-            throw new OkraRuntimeException();
+        mongoTemplate.indexOps(getCollection()).ensureIndex(index.named("i_" + String.join("_", fields)));
+    }
+
+    /**
+     * Explains the claim, expired items recovery and count queries of this queue against its
+     * collection, as they're sent by this instance, and lists the indexes of the collection. Meant
+     * to be checked on startup or by a CI job against a copy of the production indexes. Heartbeats
+     * match items by id, so they're always served by the {@code _id} index and aren't explained.
+     *
+     * @return the indexes of the collection and the winning plan of each query
+     * @see okra.builder.OkraSpringBuilder#withIndexCheck(IndexCheck)
+     */
+    public IndexReport indexReport() {
+        final LocalDateTime expiredHeartbeatDate = expiredHeartbeatDate();
+        final Integer partition = partitions == 1 ? null : 0;
+        final List<IndexReport.QueryPlan> plans = new ArrayList<>();
+
+        plans.add(explain("claim", claimQuery(generatePollCriteria(expiredHeartbeatDate, partition)), true));
+
+        if (multiQueue) {
+            plans.add(explain("claimByType",
+                    claimQuery(generatePollCriteria(expiredHeartbeatDate, partition, "")), true));
+        }
+
+        plans.add(explain("expired", expiredQuery(), false));
+        plans.add(explain("count", Query.query(Criteria.where("status").is(OkraStatus.PENDING)), false));
+
+        final List<String> indexes = mongoTemplate.indexOps(getCollection())
+                .getIndexInfo()
+                .stream()
+                .map(IndexInfo::getName)
+                .collect(Collectors.toList());
+
+        return new IndexReport(getCollection(), indexes, plans);
+    }
+
+    private IndexReport.QueryPlan explain(final String name, final Query query, final boolean single) {
+        final DBObject mappedQuery = writer.mapQuery(query.getQueryObject());
+        final DBObject mappedSort = query.getSortObject() == null ? null : writer.mapQuery(query.getSortObject());
+
+        final DBObject explain = mongoTemplate.execute(getCollection(), collection -> {
+            final DBCursor cursor = collection.find(mappedQuery);
+
+            if (mappedSort != null) {
+                cursor.sort(mappedSort);
+            }
+
+            return (single ? cursor.limit(1) : cursor).explain();
+        });
+
+        final List<String> stages = new ArrayList<>();
+        final Set<String> indexNames = new LinkedHashSet<>();
+        final Object queryPlanner = explain.get("queryPlanner");
+
+        if (queryPlanner instanceof DBObject) {
+            collectStages(((DBObject) queryPlanner).get("winningPlan"), stages, indexNames);
+        }
+
+        return new IndexReport.QueryPlan(name, mappedQuery.toString(), stages, indexNames);
+    }
+
+    /**
+     * Walks a plan from its root stage down to its leaves, including the plans of each shard
+     */
+    private static void collectStages(final Object plan, final List<String> stages, final Set<String> indexNames) {
+        if (!(plan instanceof DBObject)) {
+            return;
+        }
+
+        final DBObject stage = (DBObject) plan;
+
+        if (stage instanceof List) {
+            ((List<?>) stage).forEach(child -> collectStages(child, stages, indexNames));
+            return;
+        }
+
+        if (stage.get("stage") != null) {
+            stages.add(stage.get("stage").toString());
+        }
+
+        if (stage.get("indexName") != null) {
+            indexNames.add(stage.get("indexName").toString());
+        }
+
+        for (final String child : new String[]{"inputStage", "inputStages", "shards", "winningPlan"}) {
+            collectStages(stage.get(child), stages, indexNames);
+        }
+    }
+
+    @Override
+    public Optional<T> reschedule(final T item) {
+        final long start = startTimer();
+
+        try {
+            final Query query = new Query(Criteria
+                    .where("id").is(new ObjectId(item.getId()))
+                    .and(FINAL_STATUS_FIELD).exists(false));
+
+            final Update update = new Update()
+                    .set("status", OkraStatus.PENDING)
+                    .set("runDate", item.getRunDate())
+                    .set("heartbeat", null);
+
+            if (writer.updateFirst(OkraWrite.RESCHEDULE, query, update) == 0) {
+                LOGGER.warn("Item {} was not rescheduled because it is missing or finished", item.getId());
+                return Optional.empty();
+            }
+
+            releaseLimit(item.getId());
+
+            item.setStatus(OkraStatus.PENDING);
+            notifyScheduled(item);
+
+            return Optional.of(item);
+        } finally {
+            stopTimer(OkraOperation.RESCHEDULE, start);
+        }
+    }
+
+    @Override
+    public Optional<T> heartbeat(final T item) {
+        return heartbeatAndUpdateCustomAttrs(item, null);
+    }
+
+    @Override
+    public Optional<T> heartbeatAndUpdateCustomAttrs(final T item, final Map<String, Object> attrs) {
+        if (item.getId() == null || item.getHeartbeat() == null || item.getStatus() == null) {
+            return Optional.empty();
+        }
+
+        final long start = startTimer();
+
+        try {
+            final Query query = Query.query(Criteria
+                    .where("_id").is(new ObjectId(item.getId()))
+                    .and("status").is(OkraStatus.PROCESSING)
+                    .and("heartbeat").is(item.getHeartbeat())
+            );
+
+            final Update update = Update.update("heartbeat", LocalDateTime.now());
+
+            if (attrs != null && !attrs.isEmpty()) {
+                attrs.forEach(update::set);
+            }
+
+            final FindAndModifyOptions opts = new FindAndModifyOptions().returnNew(true);
+            LOGGER.debug("Querying for schedules using query: {}", query);
+
+            final T heartbeated = findAndModifyItem(OkraWrite.HEARTBEAT, query, update, opts);
+
+            if (heartbeated == null && metricsEnabled) {
+                metrics.recordLostHeartbeats(1);
+            }
+
+            return Optional.ofNullable(heartbeated);
+        } finally {
+            stopTimer(OkraOperation.HEARTBEAT, start);
+        }
+    }
+
+    /**
+     * Heartbeats all given items with a single bulk write.
+     * <p>
+     * Each item keeps the same optimistic guard as {@link #heartbeat(OkraItem)}: it is only
+     * refreshed if it is still PROCESSING with the heartbeat known by this node. Refreshed
+     * items have their heartbeat updated in place; items that were taken over by another
+     * node are returned.
+     *
+     * @param items the items to be heartbeated
+     * @return the items whose claim was lost, never null
+     */
+    public List<T> heartbeatAll(final Collection<T> items) {
+        final long start = startTimer();
+
+        try {
+            final List<T> lost = bulkHeartbeat(items);
+
+            if (!lost.isEmpty() && metricsEnabled) {
+                metrics.recordLostHeartbeats(lost.size());
+            }
+
+            return lost;
+        } finally {
+            stopTimer(OkraOperation.HEARTBEAT_ALL, start);
+        }
+    }
+
+    private List<T> bulkHeartbeat(final Collection<T> items) {
+        final List<T> candidates = new ArrayList<>(items.size());
+        final List<T> lost = new ArrayList<>();
+
+        for (final T item : items) {
+            if (item.getId() == null || item.getHeartbeat() == null || item.getStatus() == null) {
+                lost.add(item);
+            } else {
+                candidates.add(item);
+            }
+        }
+
+        if (candidates.isEmpty()) {
+            return lost;
+        }
+
+        final LocalDateTime heartbeat = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+        final OkraWriter.Bulk bulk = writer.bulk(OkraWrite.HEARTBEAT, BulkOperations.BulkMode.UNORDERED);
+
+        candidates.forEach(item -> bulk.updateOne(
+                Query.query(Criteria
+                        .where("_id").is(new ObjectId(item.getId()))
+                        .and("status").is(OkraStatus.PROCESSING)
+                        .and("heartbeat").is(item.getHeartbeat())),
+                Update.update("heartbeat", heartbeat)));
+
+        bulk.execute();
+
+        final Query refreshedQuery = Query.query(Criteria
+                .where("_id").in(toObjectIds(candidates))
+                .and("status").is(OkraStatus.PROCESSING)
+                .and("heartbeat").is(heartbeat));
+        refreshedQuery.fields().include("_id");
+
+        final Set<String> refreshedIds = findItems(refreshedQuery)
+                .stream()
+                .map(OkraItem::getId)
+                .collect(Collectors.toSet());
+
+        for (final T item : candidates) {
+            if (refreshedIds.contains(item.getId())) {
+                item.setHeartbeat(heartbeat);
+            } else {
+                lost.add(item);
+            }
+        }
+
+        return lost;
+    }
+
+    /**
+     * Starts a heartbeat manager that keeps the claims of the registered items alive.
+     *
+     * @param lostListener receives the items whose claim was taken over by another node
+     * @return the started heartbeat manager, which must be closed to stop heartbeating
+     * @see OkraHeartbeatManager
+     */
+    public OkraHeartbeatManager<T> heartbeatManager(final Consumer<T> lostListener) {
+        final OkraHeartbeatManager<T> manager = new OkraHeartbeatManager<>(this, heartbeatIntervalMillis, lostListener);
+        manager.start();
+        return manager;
+    }
+
+    /**
+     * Starts a managed consumer that claims, heartbeats and acknowledges items for the given handler.
+     *
+     * @param handler handles each claimed item and tells what to do with it afterwards
+     * @return the started consumer, which must be closed to stop consuming
+     * @see OkraConsumer
+     */
+    public OkraConsumer<T> consumer(final Function<T, OkraResult> handler) {
+        return consumer(Collections.singletonList(OkraQueueType.untyped(consumerParallelism, handler)));
+    }
+
+    /**
+     * Starts a managed consumer that serves several job types from this queue, dispatching
+     * each item to the handler of its type. The item class must have a {@code type} field.
+     * <p>
+     * Each round claims a batch of a single type, picked by weighted round robin among the
+     * types below their in-flight limit, with one claim query on the type index.
+     *
+     * @param types the served types, their weights, in-flight limits and handlers
+     * @return the started consumer, which must be closed to stop consuming
+     * @see OkraConsumer
+     */
+    public OkraConsumer<T> consumer(final List<OkraQueueType<T>> types) {
+        if (types == null || types.isEmpty()) {
+            LOGGER.error("Impossible to start a consumer without types");
+            throw new OkraRuntimeException();
+        }
+
+        final OkraConsumer<T> consumer = new OkraConsumer<>(this, types,
+                consumerParallelism, consumerMinBackoffMillis, consumerMaxBackoffMillis);
+        consumer.start();
+        return consumer;
+    }
+
+    @Override
+    public void delete(final T item) {
+        if (item.getId() == null) {
+            return;
+        }
+
+        final long start = startTimer();
+
+        try {
+            writer.remove(OkraWrite.DELETE, Query.query(Criteria.where("_id").is(new ObjectId(item.getId()))));
+            releaseLimit(item.getId());
+        } finally {
+            stopTimer(OkraOperation.DELETE, start);
+        }
+    }
+
+    /**
+     * Deletes all given items with a single remove.
+     *
+     * @param items the items to be deleted
+     * @return how many items were deleted
+     */
+    public long deleteAll(final Collection<T> items) {
+        final List<ObjectId> ids = toObjectIds(items);
+
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        final long start = startTimer();
+
+        try {
+            final int deleted = writer.remove(OkraWrite.DELETE, Query.query(Criteria.where("_id").in(ids)));
+            releaseLimits(items);
+            return deleted;
+        } finally {
+            stopTimer(OkraOperation.DELETE_ALL, start);
+        }
+    }
+
+    /**
+     * Acknowledges a processed item. The item is deleted, unless a completed retention is
+     * configured: then it's kept with the {@link OkraFinalStatus#DONE DONE} status and a completion
+     * date, and a TTL index removes it once the retention elapses. Either write is guarded by the
+     * claim of the item, so an item whose claim was lost, e.g. re-claimed after its heartbeat
+     * expired, is left to its new owner.
+     * <p>
+     * A {@link RecurringOkraItem} with a recurrence is returned to PENDING instead, with its
+     * next run date, by a single update guarded by its claim. Runs it missed are handled by
+     * the configured {@link CatchUpPolicy}. Recurring items must be claimed with peek,
+     * since poll removes them.
+     *
+     * @param item the processed item
+     */
+    public void complete(final T item) {
+        final OkraRecurrence recurrence = recurrenceOf(item);
+
+        if (recurrence != null) {
+            recur(item, recurrence);
+            return;
+        }
+
+        if (item.getId() == null || item.getHeartbeat() == null) {
+            return;
+        }
+
+        final long start = startTimer();
+
+        try {
+            final int completed = completedRetentionMillis <= 0
+                    ? writer.remove(OkraWrite.DELETE, claimGuard(item))
+                    : writer.updateFirst(OkraWrite.DELETE, claimGuard(item), completeUpdate());
+
+            if (completed == 0) {
+                LOGGER.warn("Item {} was not completed because its claim was lost", item.getId());
+                return;
+            }
+
+            releaseLimit(item.getId());
+        } finally {
+            stopTimer(OkraOperation.COMPLETE, start);
+        }
+    }
+
+    /**
+     * Acknowledges all given processed items with a single write, like {@link #complete(OkraItem)}.
+     * The write matches each item by its id and its claim, so items whose claim was lost are
+     * left untouched and aren't counted. Recurring items are rescheduled by a single unordered
+     * bulk write instead, with an update per item guarded by its claim, so likewise only the
+     * items whose claim held are changed and counted.
+     *
+     * @param items the processed items
+     * @return how many items were deleted, marked as DONE or rescheduled
+     */
+    public long completeAll(final Collection<T> items) {
+        final List<T> once = new ArrayList<>(items.size());
+        final List<T> recurring = new ArrayList<>();
+
+        for (final T item : items) {
+            (recurrenceOf(item) == null ? once : recurring).add(item);
+        }
+
+        return recurAll(recurring) + completeAllOnce(once);
+    }
+
+    private long completeAllOnce(final List<T> items) {
+        final List<Criteria> guards = items.stream()
+                .filter(item -> item.getId() != null && item.getHeartbeat() != null)
+                .map(this::claimGuardCriteria)
+                .collect(Collectors.toList());
+
+        if (guards.isEmpty()) {
+            return 0;
+        }
+
+        final long start = startTimer();
+
+        try {
+            final Query query = Query.query(new Criteria().orOperator(guards.toArray(new Criteria[guards.size()])));
+            final int completed = completedRetentionMillis <= 0
+                    ? writer.remove(OkraWrite.DELETE, query)
+                    : writer.updateMulti(OkraWrite.DELETE, query, completeUpdate());
+
+            if (completed < guards.size()) {
+                LOGGER.warn("{} of {} items were not completed because their claim was lost",
+                        guards.size() - completed, guards.size());
+            }
+
+            releaseLimits(items);
+            return completed;
+        } finally {
+            stopTimer(OkraOperation.COMPLETE_ALL, start);
+        }
+    }
+
+    /**
+     * Returns claimed items to PENDING, unchanged, with a single write matching each item by its
+     * id and its claim. Unlike {@link #reschedule(OkraItem)}, items whose claim was lost are left
+     * to their new owner.
+     *
+     * @param items the claimed items
+     * @return how many items were returned to PENDING
+     */
+    public long releaseAll(final Collection<T> items) {
+        final List<Criteria> guards = items.stream()
+                .filter(item -> item.getId() != null && item.getHeartbeat() != null)
+                .map(this::claimGuardCriteria)
+                .collect(Collectors.toList());
+
+        if (guards.isEmpty()) {
+            return 0;
+        }
+
+        final long start = startTimer();
+
+        try {
+            final Query query = Query.query(new Criteria().orOperator(guards.toArray(new Criteria[guards.size()])));
+            final Update update = new Update()
+                    .set("status", OkraStatus.PENDING)
+                    .set("heartbeat", null);
+
+            final int released = writer.updateMulti(OkraWrite.RESCHEDULE, query, update);
+            releaseLimits(items);
+            items.forEach(this::notifyScheduled);
+            return released;
+        } finally {
+            stopTimer(OkraOperation.RELEASE_ALL, start);
+        }
+    }
+
+    /**
+     * Returns a claimed item to PENDING at its run date, with a single update guarded by its
+     * claim. Unlike {@link #reschedule(OkraItem)}, an item whose claim was lost is left to its
+     * new owner.
+     *
+     * @param item the claimed item, with the run date it should run at
+     * @return false if the claim of the item was lost, so it wasn't released
+     */
+    public boolean release(final T item) {
+        if (item.getId() == null || item.getHeartbeat() == null) {
+            return false;
+        }
+
+        final long start = startTimer();
+
+        try {
+            final Update update = new Update()
+                    .set("status", OkraStatus.PENDING)
+                    .set("runDate", item.getRunDate())
+                    .set("heartbeat", null);
+
+            if (writer.updateFirst(OkraWrite.RESCHEDULE, claimGuard(item), update) == 0) {
+                LOGGER.warn("Item {} was not released because its claim was lost", item.getId());
+                return false;
+            }
+
+            releaseLimit(item.getId());
+
+            item.setStatus(OkraStatus.PENDING);
+            item.setHeartbeat(null);
+            notifyScheduled(item);
+
+            return true;
+        } finally {
+            stopTimer(OkraOperation.RESCHEDULE, start);
+        }
+    }
+
+    /**
+     * Starts an acknowledgement buffer that groups completions into single writes.
+     *
+     * @return the started buffer, which must be closed to write the pending acknowledgements
+     * @see OkraAckBuffer
+     */
+    public OkraAckBuffer<T> ackBuffer() {
+        final OkraAckBuffer<T> ackBuffer = new OkraAckBuffer<>(this, ackBatchSize, ackFlushIntervalMillis);
+        ackBuffer.start();
+        return ackBuffer;
+    }
+
+    /**
+     * Records a failed attempt of a claimed item with a single update guarded by its claim and
+     * by the attempts the item holds, so the outcome decided from them is the one the stored
+     * item gets. The update increments the attempts of the item, records why it failed and returns it to
+     * PENDING with its run date pushed back by an exponential backoff, so a failing item isn't
+     * claimed again right away. The backoff doubles with each attempt, from the initial backoff
+     * up to the max backoff, and each delay is picked at random between half the backoff and
+     * the whole backoff, so items failing together don't come back together.
+     * <p>
+     * An item failing its last attempt is marked as DEAD instead, which no claim matches. DEAD
+     * items are moved to the dead-letter collection in bulk, see {@link #moveDeadLetters()}.
+     * <p>
+     * A failing item is just a PENDING item due later, so the claim criteria and indexes
+     * are unchanged.
+     *
+     * @param item   the claimed item, which must be a {@link RetryableOkraItem}
+     * @param reason why the item failed
+     * @return false if the claim of the item was lost, or its attempts are stale, so the failure wasn't recorded
+     */
+    public boolean fail(final T item, final String reason) {
+        if (!(item instanceof RetryableOkraItem)) {
+            LOGGER.error("Impossible to fail item {}. Its class doesn't implement RetryableOkraItem", item.getId());
+            throw new OkraRuntimeException();
+        }
+
+        if (item.getId() == null || item.getHeartbeat() == null) {
+            return false;
+        }
+
+        final long start = startTimer();
+
+        try {
+            final RetryableOkraItem retryable = (RetryableOkraItem) item;
+            final int previousAttempts = retryable.getAttempts() == null ? 0 : retryable.getAttempts();
+            final int attempts = previousAttempts + 1;
+            final boolean dead = attempts >= maxAttempts;
+            final LocalDateTime now = LocalDateTime.now();
+            final LocalDateTime runDate = now.plus(failureBackoffMillis(attempts), ChronoUnit.MILLIS);
+
+            final Update update = new Update()
+                    .set(ATTEMPTS_FIELD, attempts)
+                    .set(LAST_ERROR_FIELD, reason)
+                    .set(FAILED_AT_FIELD, now)
+                    .set("heartbeat", null);
+
+            if (dead) {
+                update.set(FINAL_STATUS_FIELD, OkraFinalStatus.DEAD).unset("status").unset(DEDUP_KEY_FIELD);
+            } else {
+                update.set("status", OkraStatus.PENDING).set("runDate", runDate);
+            }
+
+            final Criteria attemptsGuard = previousAttempts == 0
+                    ? Criteria.where(ATTEMPTS_FIELD).in(0, null)
+                    : Criteria.where(ATTEMPTS_FIELD).is(previousAttempts);
+            final Query query = Query.query(new Criteria().andOperator(claimGuardCriteria(item), attemptsGuard));
+
+            if (writer.updateFirst(OkraWrite.RESCHEDULE, query, update) == 0) {
+                LOGGER.warn("Failure of item {} was not recorded because its claim was lost or its attempts are stale",
+                        item.getId());
+                return false;
+            }
+
+            releaseLimit(item.getId());
+            retryable.setAttempts(attempts);
+            retryable.setLastError(reason);
+            item.setHeartbeat(null);
+
+            if (dead) {
+                LOGGER.warn("Item {} failed {} times and will be moved to {}: {}",
+                        item.getId(), attempts, deadLetterCollection, reason);
+
+                if (reaperIntervalMillis <= 0) {
+                    moveDeadLetter(item.getId());
+                    moveDeadLettersIfDue();
+                }
+            } else {
+                item.setStatus(OkraStatus.PENDING);
+                item.setRunDate(runDate);
+                notifyScheduled(item);
+            }
+
+            return true;
+        } finally {
+            stopTimer(OkraOperation.FAIL, start);
+        }
+    }
+
+    /**
+     * Moves the DEAD items to the dead-letter collection, a chunk at a time: each chunk is
+     * copied with a single bulk insert and then removed from the queue with a single remove.
+     * Items copied by an interrupted move are only removed, so a move can always be retried.
+     * <p>
+     * The reaper runs it on every round. When the reaper is disabled, a failure moves the item
+     * it marked as DEAD right away, and the remaining DEAD items at most once per second.
+     *
+     * @return how many items were moved
+     */
+    public long moveDeadLetters() {
+        return moveDeadLetters(Criteria.where(FINAL_STATUS_FIELD).is(OkraFinalStatus.DEAD));
+    }
+
+    private long moveDeadLetters(final Criteria deadCriteria) {
+        long moved = 0;
+
+        while (true) {
+            final Query query = Query.query(deadCriteria).limit(scheduleChunkSize);
+            final List<DBObject> dead = mongoTemplate.find(query, DBObject.class, getCollection());
+            final List<Object> copied = dead.isEmpty() ? Collections.emptyList() : copyDeadLetters(dead);
+
+            if (copied.isEmpty()) {
+                return moved;
+            }
+
+            writer.remove(OkraWrite.DELETE, Query.query(Criteria
+                    .where("_id").in(copied)
+                    .and(FINAL_STATUS_FIELD).is(OkraFinalStatus.DEAD)));
+            moved += copied.size();
+
+            if (dead.size() < scheduleChunkSize) {
+                return moved;
+            }
+        }
+    }
+
+    /**
+     * @return the ids of the given documents that are now in the dead-letter collection
+     */
+    private List<Object> copyDeadLetters(final List<DBObject> documents) {
+        final Set<Integer> rejected = new HashSet<>();
+
+        try {
+            final OkraWriter.Bulk bulk = deadLetterWriter.bulk(OkraWrite.SCHEDULE, BulkOperations.BulkMode.UNORDERED);
+            documents.forEach(bulk::insert);
+            bulk.execute();
+        } catch (final BulkOperationException e) {
+            e.getErrors().stream()
+                    .filter(error -> error.getCode() != DUPLICATE_KEY_ERROR)
+                    .forEach(error -> rejected.add(error.getIndex()));
+
+            if (!rejected.isEmpty()) {
+                LOGGER.error("Dead-letter collection {} rejected {} of {} items",
+                        deadLetterCollection, rejected.size(), documents.size());
+            }
+        }
+
+        final List<Object> ids = new ArrayList<>(documents.size());
+
+        for (int i = 0; i < documents.size(); i++) {
+            if (!rejected.contains(i)) {
+                ids.add(documents.get(i).get("_id"));
+            }
+        }
+
+        return ids;
+    }
+
+    private void moveDeadLetter(final String id) {
+        try {
+            moveDeadLetters(Criteria.where("_id").is(new ObjectId(id)).and(FINAL_STATUS_FIELD).is(OkraFinalStatus.DEAD));
+        } catch (final RuntimeException e) {
+            LOGGER.error("Error moving dead item {} of collection {}", id, getCollection(), e);
+        }
+    }
+
+    private void moveDeadLettersIfDue() {
+        final long now = System.currentTimeMillis();
+        final long last = lastDeadLetterMoveMillis.get();
+
+        if (now - last >= DEAD_LETTER_MOVE_INTERVAL_MILLIS && lastDeadLetterMoveMillis.compareAndSet(last, now)) {
+            try {
+                moveDeadLetters();
+            } catch (final RuntimeException e) {
+                LOGGER.error("Error moving dead items of collection {}", getCollection(), e);
+            }
+        }
+    }
+
+    /**
+     * @return the delay before the given attempt, between half and all of its backoff
+     */
+    private long failureBackoffMillis(final int attempts) {
+        long backoffMillis = failureInitialBackoffMillis;
+
+        for (int i = 1; i < attempts && backoffMillis < failureMaxBackoffMillis; i++) {
+            backoffMillis *= 2;
+        }
+
+        backoffMillis = Math.min(backoffMillis, failureMaxBackoffMillis);
+        return backoffMillis / 2 + ThreadLocalRandom.current().nextLong(backoffMillis / 2 + 1);
+    }
+
+    private void recur(final T item, final OkraRecurrence recurrence) {
+        final long start = startTimer();
+
+        try {
+            if (!rescheduleRecurring(item, recurrence)) {
+                LOGGER.warn("Recurring item {} was not rescheduled because its claim was lost", item.getId());
+            }
+
+            releaseLimit(item.getId());
+        } finally {
+            stopTimer(OkraOperation.COMPLETE, start);
+        }
+    }
+
+    private long recurAll(final List<T> items) {
+        if (items.isEmpty()) {
+            return 0;
+        }
+
+        final long start = startTimer();
+
+        try {
+            final int rescheduled = bulkRecur(items);
+            releaseLimits(items);
+
+            if (rescheduled < items.size()) {
+                LOGGER.warn("{} of {} recurring items were not rescheduled because their claim was lost",
+                        items.size() - rescheduled, items.size());
+            }
+
+            return rescheduled;
+        } finally {
+            stopTimer(OkraOperation.COMPLETE_ALL, start);
+        }
+    }
+
+    /**
+     * Returns a recurring item to PENDING at its next run, with an update guarded by its claim.
+     * The item is only changed, and its subscribers notified, once the update matched.
+     *
+     * @return false if the claim of the item was lost
+     */
+    private boolean rescheduleRecurring(final T item, final OkraRecurrence recurrence) {
+        if (item.getId() == null || item.getHeartbeat() == null) {
+            return false;
+        }
+
+        final NextRun nextRun = nextRun(item, recurrence);
+
+        if (writer.updateFirst(OkraWrite.RESCHEDULE, claimGuard(item), recurUpdate(nextRun)) == 0) {
+            return false;
+        }
+
+        recurred(item, nextRun);
+        return true;
+    }
+
+    /**
+     * Reschedules the given recurring items with a single unordered bulk write, each update
+     * guarded by the claim of its item. The items are then read back, like in
+     * {@link #heartbeatAll(Collection)}, and only those found PENDING at their next run are
+     * changed and their subscribers notified.
+     *
+     * @return how many items were rescheduled
+     */
+    private int bulkRecur(final List<T> items) {
+        final Map<String, NextRun> nextRuns = new HashMap<>();
+        final List<T> candidates = new ArrayList<>(items.size());
+        final OkraWriter.Bulk bulk = writer.bulk(OkraWrite.RESCHEDULE, BulkOperations.BulkMode.UNORDERED);
+
+        for (final T item : items) {
+            if (item.getId() == null || item.getHeartbeat() == null) {
+                continue;
+            }
+
+            final NextRun nextRun = nextRun(item, recurrenceOf(item));
+            nextRuns.put(item.getId(), nextRun);
+            candidates.add(item);
+            bulk.updateOne(claimGuard(item), recurUpdate(nextRun));
+        }
+
+        if (candidates.isEmpty()) {
+            return 0;
+        }
+
+        bulk.execute();
+
+        final Query rescheduledQuery = Query.query(Criteria
+                .where("_id").in(toObjectIds(candidates))
+                .and("status").is(OkraStatus.PENDING)
+                .and("heartbeat").is(null));
+        rescheduledQuery.fields().include("_id").include("runDate");
+
+        final Map<String, LocalDateTime> runDates = new HashMap<>();
+        findItems(rescheduledQuery).forEach(found -> runDates.put(found.getId(), found.getRunDate()));
+
+        int rescheduled = 0;
+
+        for (final T item : candidates) {
+            final NextRun nextRun = nextRuns.get(item.getId());
+            final LocalDateTime runDate = runDates.get(item.getId());
+
+            if (runDate != null && runDate.equals(nextRun.runDate.truncatedTo(ChronoUnit.MILLIS))) {
+                recurred(item, nextRun);
+                rescheduled++;
+            }
+        }
+
+        return rescheduled;
+    }
+
+    private Update recurUpdate(final NextRun nextRun) {
+        return Update
+                .update("status", OkraStatus.PENDING)
+                .set("runDate", nextRun.runDate)
+                .set("heartbeat", null)
+                .set("missedRuns", nextRun.missedRuns);
+    }
+
+    private void recurred(final T item, final NextRun nextRun) {
+        item.setRunDate(nextRun.runDate);
+        ((RecurringOkraItem) item).setMissedRuns(nextRun.missedRuns);
+        item.setStatus(OkraStatus.PENDING);
+        item.setHeartbeat(null);
+        notifyScheduled(item);
+    }
+
+    private Query claimGuard(final T item) {
+        return Query.query(claimGuardCriteria(item));
+    }
+
+    private Criteria claimGuardCriteria(final T item) {
+        return Criteria
+                .where("_id").is(new ObjectId(item.getId()))
+                .and("status").is(OkraStatus.PROCESSING)
+                .and("heartbeat").is(item.getHeartbeat());
+    }
+
+    /**
+     * Computes the next run of a recurring item, applying the catch-up policy when its next
+     * occurrence is already due. The item itself isn't changed.
+     */
+    private NextRun nextRun(final T item, final OkraRecurrence recurrence) {
+        final LocalDateTime now = LocalDateTime.now();
+        final LocalDateTime previous = item.getRunDate() == null ? now : item.getRunDate();
+        final LocalDateTime next = recurrence.next(previous);
+
+        LocalDateTime runDate = next;
+        int missedRuns = 0;
+
+        if (!next.isAfter(now)) {
+            switch (catchUpPolicy) {
+                case SKIP:
+                    missedRuns = recurrence.countUntil(next, now);
+                    runDate = recurrence.nextAfter(previous, now);
+                    break;
+                case COALESCE:
+                    missedRuns = recurrence.countUntil(next, now);
+                    runDate = now;
+                    break;
+                case ALL:
+                default:
+                    break;
+            }
+        }
+
+        return new NextRun(runDate, missedRuns);
+    }
+
+    /**
+     * @return the parsed recurrence of the item, or null if it runs once
+     */
+    private OkraRecurrence recurrenceOf(final T item) {
+        if (!(item instanceof RecurringOkraItem)) {
+            return null;
+        }
+
+        final String spec = ((RecurringOkraItem) item).getRecurrence();
+        return spec == null ? null : recurrences.computeIfAbsent(spec, OkraRecurrence::parse);
+    }
+
+    private Update completeUpdate() {
+        return Update
+                .update(FINAL_STATUS_FIELD, OkraFinalStatus.DONE)
+                .unset("status")
+                .set(COMPLETED_AT_FIELD, LocalDateTime.now())
+                .set("heartbeat", null)
+                .unset(DEDUP_KEY_FIELD);
+    }
+
+    @Override
+    public void schedule(final T item) {
+        validateSchedule(item);
+
+        final long start = startTimer();
+
+        try {
+            item.setStatus(OkraStatus.PENDING);
+
+            if (partitions == 1 && codec == null && limitedTypes.isEmpty() && claimSort == null) {
+                writer.save(OkraWrite.SCHEDULE, item);
+            } else if (partitions == 1) {
+                if (item.getId() == null) {
+                    item.setId(new ObjectId().toHexString());
+                }
+
+                writer.save(OkraWrite.SCHEDULE, toDocument(item));
+            } else {
+                item.setId(new ObjectId().toHexString());
+                writer.insert(OkraWrite.SCHEDULE, toPartitionedDocument(item));
+            }
+
+            notifyScheduled(item);
+        } finally {
+            stopTimer(OkraOperation.SCHEDULE, start);
+        }
+    }
+
+    /**
+     * Schedules the item unless an item with the same dedup key is already queued, with a
+     * single upsert. A pending item with the same key keeps the earliest of both run dates.
+     *
+     * @param item the item to be scheduled, with a dedup key
+     * @return true if the item was inserted, false if it was deduplicated. The item gets the
+     * id and run date of the pending item it was deduplicated into, or no id if the key
+     * belongs to an item being processed
+     * @see DeduplicatedOkraItem
+     */
+    public boolean scheduleIfAbsent(final T item) {
+        return scheduleDeduplicated(item, DedupMode.KEEP_EARLIEST);
+    }
+
+    /**
+     * Schedules the item, replacing the pending item with the same dedup key if any, with a
+     * single upsert. The replaced item keeps its id, and the fields the new item doesn't have
+     * are removed from it. If the key belongs to an item being processed, nothing is scheduled.
+     *
+     * @param item the item to be scheduled, with a dedup key
+     * @return true if the item was inserted, false if it replaced a pending item or if the
+     * key belongs to an item being processed, in which case the item gets no id
+     * @see DeduplicatedOkraItem
+     */
+    public boolean scheduleOrUpdate(final T item) {
+        return scheduleDeduplicated(item, DedupMode.REPLACE);
+    }
+
+    private boolean scheduleDeduplicated(final T item, final DedupMode mode) {
+        final String validationError = dedupValidationError(item);
+
+        if (validationError != null) {
+            LOGGER.error("Impossible to schedule item because {}. Item: {}", validationError, item);
+            throw new OkraRuntimeException();
+        }
+
+        final long start = startTimer();
+
+        try {
+            final String id = new ObjectId().toHexString();
+            item.setId(id);
+            item.setStatus(OkraStatus.PENDING);
+
+            final FindAndModifyOptions opts = new FindAndModifyOptions().upsert(true).returnNew(true);
+            final DBObject document;
+
+            try {
+                document = writer.findAndModify(OkraWrite.SCHEDULE, dedupQuery(item), dedupUpdate(item, mode), opts);
+            } catch (final DuplicateKeyException e) {
+                LOGGER.debug("Item with dedup key {} is already queued", ((DeduplicatedOkraItem) item).getDedupKey());
+                item.setId(null);
+                return false;
+            }
+
+            item.setId(document.get("_id").toString());
+            item.setRunDate(toLocalDateTime((Date) document.get("runDate")));
+            notifyScheduled(item);
+
+            return id.equals(item.getId());
+        } finally {
+            stopTimer(OkraOperation.SCHEDULE, start);
+        }
+    }
+
+    /**
+     * Matches the pending item with the same dedup key. An item being processed isn't
+     * matched, so the upsert hits the unique index and the item is deduplicated untouched.
+     */
+    private Query dedupQuery(final T item) {
+        return Query.query(Criteria
+                .where(DEDUP_KEY_FIELD).is(((DeduplicatedOkraItem) item).getDedupKey())
+                .and("status").is(OkraStatus.PENDING));
+    }
+
+    /**
+     * Builds the dedup upsert. A replacing update also unsets the fields of the item class, and
+     * the fields Okra adds, that the new item doesn't have, so nothing of the replaced item survives
+     * but its id and partition.
+     */
+    private Update dedupUpdate(final T item, final DedupMode mode) {
+        final DBObject document = partitions == 1 ? toDocument(item) : toPartitionedDocument(item);
+        final DBObject setOnInsert = new BasicDBObject();
+        final DBObject set = new BasicDBObject();
+        final DBObject min = new BasicDBObject();
+        final DBObject unset = new BasicDBObject();
+
+        if (mode == DedupMode.REPLACE) {
+            replacedFields.stream()
+                    .filter(field -> !document.containsField(field))
+                    .forEach(field -> unset.put(field, ""));
+        }
+
+        for (final String field : document.keySet()) {
+            final Object value = document.get(field);
+
+            if ("_id".equals(field) || PARTITION_FIELD.equals(field)) {
+                setOnInsert.put(field, value);
+            } else if (mode == DedupMode.REPLACE) {
+                set.put(field, value);
+            } else if ("runDate".equals(field)) {
+                min.put(field, value);
+            } else {
+                setOnInsert.put(field, value);
+            }
+        }
+
+        final DBObject update = new BasicDBObject("$setOnInsert", setOnInsert);
+
+        if (!set.keySet().isEmpty()) {
+            update.put("$set", set);
+        }
+
+        if (!min.keySet().isEmpty()) {
+            update.put("$min", min);
+        }
+
+        if (!unset.keySet().isEmpty()) {
+            update.put("$unset", unset);
+        }
+
+        return new BasicUpdate(update);
+    }
+
+    /**
+     * Schedules all items using unordered bulk inserts.
+     *
+     * @param items the items to be scheduled
+     * @return how many items were accepted and which ones were rejected
+     * @see #scheduleAll(Iterator)
+     */
+    public ScheduleResult<T> scheduleAll(final Collection<T> items) {
+        return scheduleAll(items.iterator());
+    }
+
+    /**
+     * Schedules all items using unordered bulk inserts.
+     *
+     * @param items the items to be scheduled
+     * @return how many items were accepted and which ones were rejected
+     * @see #scheduleAll(Iterator)
+     */
+    public ScheduleResult<T> scheduleAll(final Stream<T> items) {
+        return scheduleAll(items.iterator());
+    }
+
+    /**
+     * Schedules all items using unordered bulk inserts.
+     * <p>
+     * Items are validated like in {@link #schedule(OkraItem)} and written in chunks
+     * of the configured schedule chunk size, so only one chunk is kept in memory at
+     * a time. Accepted items get their ids assigned; invalid items and items refused
+     * by the database are reported in the returned result.
+     *
+     * @param items the items to be scheduled
+     * @return how many items were accepted and which ones were rejected
+     */
+    public ScheduleResult<T> scheduleAll(final Iterator<T> items) {
+        return scheduleChunked(items, null);
+    }
+
+    /**
+     * Schedules all items using unordered bulk upserts on their dedup keys, so items whose
+     * key is already pending are resolved by the given mode instead of being queued twice.
+     *
+     * @param items the items to be scheduled
+     * @param mode  how items whose key is already pending are resolved
+     * @return how many items were inserted, which ones were deduplicated and which ones were rejected
+     * @see #scheduleAll(Iterator, DedupMode)
+     */
+    public ScheduleResult<T> scheduleAll(final Collection<T> items, final DedupMode mode) {
+        return scheduleAll(items.iterator(), mode);
+    }
+
+    /**
+     * Schedules all items using unordered bulk upserts on their dedup keys, so items whose
+     * key is already pending are resolved by the given mode instead of being queued twice.
+     * <p>
+     * Items are validated like in {@link #scheduleIfAbsent(OkraItem)} and written in chunks,
+     * like in {@link #scheduleAll(Iterator)}. Inserted items get their ids assigned. Items
+     * whose key was already pending are reported as deduplicated, without an id, or as updated,
+     * with the id of the pending item they replaced, depending on the mode. Items whose key
+     * belongs to an item being processed aren't scheduled: they're reported as in progress,
+     * without an id.
+     *
+     * @param items the items to be scheduled
+     * @param mode  how items whose key is already pending are resolved
+     * @return how many items were inserted, which ones were deduplicated and which ones were rejected
+     */
+    public ScheduleResult<T> scheduleAll(final Iterator<T> items, final DedupMode mode) {
+        if (mode == null) {
+            LOGGER.error("Impossible to schedule items without a dedup mode");
+            throw new OkraRuntimeException();
+        }
+
+        return scheduleChunked(items, mode);
+    }
+
+    private ScheduleResult<T> scheduleChunked(final Iterator<T> items, final DedupMode mode) {
+        final long start = startTimer();
+
+        try {
+            final ScheduleResult<T> result = new ScheduleResult<>();
+            final List<T> chunk = new ArrayList<>(scheduleChunkSize);
+
+            while (items.hasNext()) {
+                final T item = items.next();
+                final String validationError = mode == null
+                        ? scheduleValidationError(item)
+                        : dedupValidationError(item);
+
+                if (validationError != null) {
+                    result.addFailure(item, validationError);
+                    continue;
+                }
+
+                item.setId(new ObjectId().toHexString());
+                item.setStatus(OkraStatus.PENDING);
+                chunk.add(item);
+
+                if (chunk.size() >= scheduleChunkSize) {
+                    writeChunk(chunk, mode, result);
+                    chunk.clear();
+                }
+            }
+
+            if (!chunk.isEmpty()) {
+                writeChunk(chunk, mode, result);
+            }
+
+            return result;
+        } finally {
+            stopTimer(OkraOperation.SCHEDULE_ALL, start);
+        }
+    }
+
+    private void writeChunk(final List<T> chunk, final DedupMode mode, final ScheduleResult<T> result) {
+        if (mode == null) {
+            insertChunk(chunk, result);
+        } else {
+            upsertChunk(chunk, mode, result);
+        }
+    }
+
+    private void upsertChunk(final List<T> chunk, final DedupMode mode, final ScheduleResult<T> result) {
+        final OkraWriter.Bulk bulk = writer.bulk(OkraWrite.SCHEDULE, BulkOperations.BulkMode.UNORDERED);
+
+        chunk.forEach(item -> bulk.upsert(dedupQuery(item), dedupUpdate(item, mode)));
+
+        BulkWriteResult writeResult;
+        List<BulkWriteError> errors;
+
+        try {
+            writeResult = bulk.execute();
+            errors = Collections.emptyList();
+        } catch (final BulkOperationException e) {
+            writeResult = e.getResult();
+            errors = e.getErrors();
+        }
+
+        final Set<Integer> upserted = writeResult.getUpserts().stream()
+                .map(BulkWriteUpsert::getIndex)
+                .collect(Collectors.toSet());
+
+        final Map<Integer, BulkWriteError> errorsByIndex = errors.stream()
+                .collect(Collectors.toMap(BulkWriteError::getIndex, Function.identity()));
+
+        final List<T> replacing = new ArrayList<>();
+
+        for (int i = 0; i < chunk.size(); i++) {
+            final T item = chunk.get(i);
+            final BulkWriteError error = errorsByIndex.get(i);
+
+            if (upserted.contains(i)) {
+                result.addAccepted(1);
+                notifyScheduled(item);
+                continue;
+            }
+
+            item.setId(null);
+
+            if (error == null && mode == DedupMode.REPLACE) {
+                replacing.add(item);
+            } else if (error == null) {
+                result.addDeduplicated(item);
+            } else if (error.getCode() == DUPLICATE_KEY_ERROR) {
+                result.addInProgress(item);
+            } else {
+                result.addFailure(item, error.getMessage());
+            }
+        }
+
+        if (!replacing.isEmpty()) {
+            reportReplaced(replacing, result);
+        }
+    }
+
+    /**
+     * Gives the items that replaced pending items the ids of the items they replaced
+     */
+    private void reportReplaced(final List<T> items, final ScheduleResult<T> result) {
+        final Query query = Query.query(Criteria
+                .where(DEDUP_KEY_FIELD).in(items.stream()
+                        .map(item -> ((DeduplicatedOkraItem) item).getDedupKey())
+                        .collect(Collectors.toList()))
+                .and("status").is(OkraStatus.PENDING));
+        query.fields().include("_id").include(DEDUP_KEY_FIELD);
+
+        final Map<Object, Object> idsByKey = mongoTemplate.find(query, DBObject.class, getCollection())
+                .stream()
+                .collect(Collectors.toMap(document -> document.get(DEDUP_KEY_FIELD), document -> document.get("_id")));
+
+        for (final T item : items) {
+            final Object id = idsByKey.get(((DeduplicatedOkraItem) item).getDedupKey());
+
+            if (id != null) {
+                item.setId(id.toString());
+                notifyScheduled(item);
+            }
+
+            result.addUpdated(item);
+        }
+    }
+
+    private void insertChunk(final List<T> chunk, final ScheduleResult<T> result) {
+        final OkraWriter.Bulk bulk = writer.bulk(OkraWrite.SCHEDULE, BulkOperations.BulkMode.UNORDERED);
+
+        chunk.forEach(item -> bulk.insert(partitions == 1 ? toDocument(item) : toPartitionedDocument(item)));
+
+        try {
+            bulk.execute();
+            result.addAccepted(chunk.size());
+        } catch (final BulkOperationException e) {
+            LOGGER.error("Bulk schedule rejected {} of {} items", e.getErrors().size(), chunk.size());
+
+            e.getErrors().forEach(error -> {
+                final T item = chunk.get(error.getIndex());
+                item.setId(null);
+                result.addFailure(item, error.getMessage());
+            });
+
+            result.addAccepted(chunk.size() - e.getErrors().size());
+        }
+
+        if (!scheduleListeners.isEmpty()) {
+            chunk.stream().filter(item -> item.getId() != null).forEach(this::notifyScheduled);
+        }
+    }
+
+    /**
+     * Starts delivering due items to the given handler without blind polling.
+     *
+     * @param handler receives every claimed item
+     * @return the started subscription, which must be closed to stop the delivery
+     * @see OkraSubscription
+     */
+    public OkraSubscription<T> subscribe(final Consumer<T> handler) {
+        final OkraSubscription<T> subscription = new OkraSubscription<>(
+                this, handler, subscriptionRefreshMillis, subscriptionLookahead);
+        subscription.start();
+        return subscription;
+    }
+
+    /**
+     * Starts a prefetcher that keeps a local buffer of claimed items.
+     *
+     * @return the started prefetcher, which must be closed to release the buffered items
+     * @see OkraPrefetcher
+     */
+    public OkraPrefetcher<T> prefetcher() {
+        final OkraPrefetcher<T> prefetcher = new OkraPrefetcher<>(this, prefetchBufferSize, prefetchLowWaterMark);
+        prefetcher.start();
+        return prefetcher;
+    }
+
+    long getHeartbeatExpirationMillis() {
+        return defaultHeartbeatExpirationMillis;
+    }
+
+    long getHeartbeatIntervalMillis() {
+        return heartbeatIntervalMillis;
+    }
+
+    ReadPreference getStatsReadPreference() {
+        return statsReadPreference;
+    }
+
+    /**
+     * Converts the item to a document assigned to a random partition.
+     * The partition isn't part of the item class, so it's added to the converted document.
+     */
+    private DBObject toPartitionedDocument(final T item) {
+        final DBObject document = toDocument(item);
+        document.put(PARTITION_FIELD, ThreadLocalRandom.current().nextInt(partitions));
+        return document;
+    }
+
+    /**
+     * Converts the item to a document, marking it when its type has its own limit. When claims
+     * are ordered by priority, an item without one gets the default priority, so the claim sort
+     * and the pending index rank it among the items that have one instead of after them all.
+     */
+    private DBObject toDocument(final T item) {
+        final DBObject document;
+
+        if (codec != null) {
+            document = codec.encode(item);
+        } else {
+            document = new BasicDBObject();
+            mongoTemplate.getConverter().write(item, document);
+        }
+
+        if (limitedTypes.contains(document.get(TYPE_FIELD))) {
+            document.put(LIMITED_FIELD, true);
+        }
+
+        if (claimSort != null && document.get(PRIORITY_FIELD) == null) {
+            document.put(PRIORITY_FIELD, DEFAULT_PRIORITY);
+        }
+
+        return document;
+    }
+
+    /*
+     * Typed reads go through the codec when one is configured: the raw documents are fetched,
+     * skipping Spring Data's entity mapping, and decoded by the codec.
+     */
+
+    private T findAndModifyItem(final OkraWrite write,
+                                final Query query,
+                                final Update update,
+                                final FindAndModifyOptions opts) {
+        if (codec == null && consistency.getWriteConcern(write) == null) {
+            return mongoTemplate.findAndModify(query, update, opts, scheduleItemClass, getCollection());
+        }
+
+        return decode(writer.findAndModify(write, query, update, opts));
+    }
+
+    private T findAndRemoveItem(final OkraWrite write, final Query query) {
+        if (codec == null && consistency.getWriteConcern(write) == null) {
+            return mongoTemplate.findAndRemove(query, scheduleItemClass, getCollection());
+        }
+
+        return decode(writer.findAndModify(write, query, null, null));
+    }
+
+    private T findOneItem(final Query query) {
+        if (codec == null) {
+            return mongoTemplate.findOne(query, scheduleItemClass, getCollection());
+        }
+
+        return decode(mongoTemplate.findOne(query, DBObject.class, getCollection()));
+    }
+
+    private List<T> findItems(final Query query) {
+        if (codec == null) {
+            return mongoTemplate.find(query, scheduleItemClass, getCollection());
+        }
+
+        return mongoTemplate.find(query, DBObject.class, getCollection())
+                .stream()
+                .map(codec::decode)
+                .collect(Collectors.toList());
+    }
+
+    private T decode(final DBObject document) {
+        if (document == null) {
+            return null;
+        }
+
+        return codec != null ? codec.decode(document) : mongoTemplate.getConverter().read(scheduleItemClass, document);
+    }
+
+    void addScheduleListener(final Consumer<T> listener) {
+        scheduleListeners.add(listener);
+    }
+
+    void removeScheduleListener(final Consumer<T> listener) {
+        scheduleListeners.remove(listener);
+    }
+
+    private void notifyScheduled(final T item) {
+        scheduleListeners.forEach(listener -> listener.accept(item));
+    }
+
+    /**
+     * Retrieves the dates when the next items will become claimable: the run dates of
+     * the first pending items and the moment the oldest heartbeat expires.
+     * Only the date fields are fetched, without the id, so the status and run date index and
+     * the status and heartbeat index cover both queries.
+     */
+    List<LocalDateTime> nextDueDates(final int limit) {
+        final Query pendingQuery = Query
+                .query(Criteria.where("status").is(OkraStatus.PENDING))
+                .with(new Sort(Sort.Direction.ASC, "runDate"))
+                .limit(limit);
+        pendingQuery.fields().include("runDate").exclude("_id");
+
+        final List<LocalDateTime> dueDates = mongoTemplate.find(pendingQuery, DBObject.class, getCollection())
+                .stream()
+                .map(document -> toLocalDateTime((Date) document.get("runDate")))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+
+        final Query processingQuery = Query
+                .query(Criteria.where("status").is(OkraStatus.PROCESSING))
+                .with(new Sort(Sort.Direction.ASC, "heartbeat"));
+        processingQuery.fields().include("heartbeat").exclude("_id");
+
+        final DBObject oldestProcessing = mongoTemplate.findOne(processingQuery, DBObject.class, getCollection());
+
+        if (oldestProcessing != null) {
+            final LocalDateTime heartbeat = toLocalDateTime((Date) oldestProcessing.get("heartbeat"));
+            dueDates.add(heartbeat == null
+                    ? LocalDateTime.now()
+                    : heartbeat.plus(defaultHeartbeatExpirationMillis, ChronoUnit.MILLIS));
+        }
+
+        return dueDates;
+    }
+
+    @Override
+    public long countByStatus(final OkraStatus status) {
+        final long start = startTimer();
+
+        try {
+            final DBObject query = new BasicDBObject("status", status.name());
+            return mongoTemplate.execute(getCollection(), collection -> collection.count(query, statsReadPreference));
+        } finally {
+            stopTimer(OkraOperation.COUNT, start);
+        }
+    }
+
+    /**
+     * Counts the PENDING items that are past their run date and still waiting to be claimed.
+     *
+     * @see #snapshot()
+     */
+    @Override
+    public long countDelayed() {
+        return snapshot().getDelayed();
+    }
+
+    /**
+     * Computes the statistics of the queue with a single aggregation: the amount of items
+     * per status, the delayed items, the oldest due run date and the expired heartbeats.
+     * The aggregation first matches the reported statuses, so it reads them from the status
+     * indexes and the final status index instead of scanning the collection.
+     * <p>
+     * The aggregation runs with the configured stats read preference, so it can be kept
+     * away from the primary. When a stats cache is configured, snapshots younger than the
+     * cache duration are shared by all callers and only one caller at a time refreshes it.
+     *
+     * @return the statistics of the queue
+     */
+    public QueueStats snapshot() {
+        if (statsCacheMillis <= 0) {
+            return aggregateStats();
+        }
+
+        final QueueStats stats = cachedStats;
+
+        if (stats != null && !isStale(stats)) {
+            return stats;
+        }
+
+        synchronized (statsLock) {
+            if (cachedStats == null || isStale(cachedStats)) {
+                cachedStats = aggregateStats();
+            }
+
+            return cachedStats;
+        }
+    }
+
+    private boolean isStale(final QueueStats stats) {
+        return System.currentTimeMillis() - stats.getTakenAtMillis() >= statsCacheMillis;
+    }
+
+    private QueueStats aggregateStats() {
+        final long start = startTimer();
+
+        try {
+            final LocalDateTime now = LocalDateTime.now();
+            final long nowMillis = System.currentTimeMillis();
+
+            final DBObject isPending = eq("$status", OkraStatus.PENDING.name());
+            final DBObject isProcessing = eq("$status", OkraStatus.PROCESSING.name());
+            final DBObject isDelayed = and(isPending, new BasicDBObject("$lt", list("$runDate", toDate(now))));
+            final Date expiredHeartbeatDate = toDate(now.minus(defaultHeartbeatExpirationMillis, ChronoUnit.MILLIS));
+            final DBObject isExpired = and(isProcessing, new BasicDBObject("$lt", list("$heartbeat", expiredHeartbeatDate)));
+
+            final DBObject group = new BasicDBObject("_id", new BasicDBObject("$ifNull", list("$status", "$" + FINAL_STATUS_FIELD)))
+                    .append("count", new BasicDBObject("$sum", 1))
+                    .append("delayed", new BasicDBObject("$sum", cond(isDelayed, 1, 0)))
+                    .append("expired", new BasicDBObject("$sum", cond(isExpired, 1, 0)))
+                    .append("oldestDue", new BasicDBObject("$min", cond(isDelayed, "$runDate", null)));
+
+            // only the reported statuses are matched, each through its own index, before grouping
+            final DBObject match = new BasicDBObject("$or", list(
+                    new BasicDBObject("status", new BasicDBObject("$in", names(OkraStatus.values()))),
+                    new BasicDBObject(FINAL_STATUS_FIELD, new BasicDBObject("$in", names(OkraFinalStatus.values())))));
+
+            final List<DBObject> pipeline = Arrays.asList(
+                    new BasicDBObject("$match", match),
+                    new BasicDBObject("$group", group));
+            final AggregationOptions aggregationOptions = AggregationOptions.builder()
+                    .outputMode(AggregationOptions.OutputMode.CURSOR)
+                    .build();
+
+            return mongoTemplate.execute(getCollection(), collection -> {
+                final Map<String, Long> countsByStatus = new HashMap<>();
+                long delayed = 0;
+                long expired = 0;
+                Date oldestDue = null;
+
+                try (Cursor cursor = collection.aggregate(pipeline, aggregationOptions, statsReadPreference)) {
+                    while (cursor.hasNext()) {
+                        final DBObject result = cursor.next();
+                        countsByStatus.put(String.valueOf(result.get("_id")), ((Number) result.get("count")).longValue());
+                        delayed += ((Number) result.get("delayed")).longValue();
+                        expired += ((Number) result.get("expired")).longValue();
+
+                        final Date groupOldestDue = (Date) result.get("oldestDue");
+
+                        if (groupOldestDue != null && (oldestDue == null || groupOldestDue.before(oldestDue))) {
+                            oldestDue = groupOldestDue;
+                        }
+                    }
+                }
+
+                return new QueueStats(countsByStatus, delayed, toLocalDateTime(oldestDue), expired, now, nowMillis);
+            });
+        } finally {
+            stopTimer(OkraOperation.SNAPSHOT, start);
+        }
+    }
+
+    private static DBObject eq(final Object first, final Object second) {
+        return new BasicDBObject("$eq", list(first, second));
+    }
+
+    private static DBObject and(final Object first, final Object second) {
+        return new BasicDBObject("$and", list(first, second));
+    }
+
+    private static DBObject cond(final DBObject condition, final Object then, final Object otherwise) {
+        return new BasicDBObject("$cond", list(condition, then, otherwise));
+    }
+
+    private static BasicDBList names(final Enum<?>... values) {
+        return list(Arrays.stream(values).map(Enum::name).toArray());
+    }
+
+    private static BasicDBList list(final Object... values) {
+        final BasicDBList list = new BasicDBList();
+        Collections.addAll(list, values);
+        return list;
+    }
+
+    /**
+     * Converts dates like the Spring Data converters do, using the system default zone.
+     */
+    private static Date toDate(final LocalDateTime dateTime) {
+        return Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    private static LocalDateTime toLocalDateTime(final Date date) {
+        return date == null ? null : LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault());
+    }
+
+    /**
+     * @return the leases granted to a claim of up to {@code max} items of the given type,
+     * or null if its limit is exhausted
+     */
+    private OkraLimiter.Grant acquireLimit(final String type, final int max) {
+        return limiter == null ? OkraLimiter.Grant.UNLIMITED : limiter.acquire(type, max);
+    }
+
+    private void claimedWithLimit(final OkraLimiter.Grant grant, final List<String> ids) {
+        if (limiter != null) {
+            limiter.claimed(grant, ids);
+        }
+    }
+
+    private void releaseLimit(final String id) {
+        if (limiter != null && id != null) {
+            limiter.release(Collections.singletonList(id));
+        }
+    }
+
+    private void releaseLimits(final Collection<T> items) {
+        if (limiter != null) {
+            limiter.release(items.stream()
+                    .map(OkraItem::getId)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList()));
+        }
+    }
+
+    private long startTimer() {
+        return metricsEnabled ? System.nanoTime() : 0L;
+    }
+
+    private void stopTimer(final OkraOperation operation, final long start) {
+        if (metricsEnabled) {
+            metrics.recordLatency(operation, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return since when an item in the given state could be claimed: its run date while it's
+     * pending, or the expiration of its heartbeat when its claim is taken over
+     */
+    private LocalDateTime claimableSince(final OkraStatus status,
+                                         final LocalDateTime runDate,
+                                         final LocalDateTime heartbeat) {
+        if (status != OkraStatus.PROCESSING) {
+            return runDate;
+        }
+
+        return heartbeat == null ? null : heartbeat.plus(defaultHeartbeatExpirationMillis, ChronoUnit.MILLIS);
+    }
+
+    /**
+     * Records a successful claim and how late the item was claimed after it became claimable.
+     */
+    private void recordClaimed(final LocalDateTime claimableSince) {
+        if (metricsEnabled) {
+            metrics.recordPeek(true);
+
+            if (claimableSince != null) {
+                metrics.recordQueueLag(ChronoUnit.MILLIS.between(claimableSince, LocalDateTime.now()));
+            }
+        }
+    }
+
+    private void recordMiss() {
+        if (metricsEnabled) {
+            metrics.recordPeek(false);
+        }
+    }
+
+    void recordPrefetch(final boolean hit, final int bufferOccupancy) {
+        if (metricsEnabled) {
+            metrics.recordPrefetchPoll(hit);
+            metrics.recordPrefetchBufferOccupancy(bufferOccupancy);
+        }
+    }
+
+    void recordPrefetchBufferOccupancy(final int bufferOccupancy) {
+        if (metricsEnabled) {
+            metrics.recordPrefetchBufferOccupancy(bufferOccupancy);
+        }
+    }
+
+    private List<ObjectId> toObjectIds(final Collection<T> items) {
+        return items.stream()
+                .map(i -> new ObjectId(i.getId()))
+                .collect(Collectors.toList());
+    }
+
+    private void validateSchedule(final T item) {
+        final String validationError = scheduleValidationError(item);
+
+        if (validationError != null) {
+            LOGGER.error("Impossible to schedule item because {}. Item: {}", validationError, item);
+            throw new OkraRuntimeException();
+        }
+    }
+
+    private String scheduleValidationError(final T item) {
+        if (item.getId() != null) {
+            return "it already has an ID";
+        }
+
+        if (item.getRunDate() == null) {
+            return "it doesn't have a schedule date";
+        }
+
+        try {
+            recurrenceOf(item);
+        } catch (final IllegalArgumentException e) {
+            return "its recurrence is invalid: " + e.getMessage();
+        }
+
+        return null;
+    }
+
+    private String dedupValidationError(final T item) {
+        if (!deduplication) {
+            return "deduplication isn't enabled";
+        }
+
+        if (!(item instanceof DeduplicatedOkraItem)
+                || ((DeduplicatedOkraItem) item).getDedupKey() == null
+                || ((DeduplicatedOkraItem) item).getDedupKey().isEmpty()) {
+            return "it doesn't have a dedup key";
+        }
+
+        return scheduleValidationError(item);
+    }
+
+    /**
+     * The next run of a recurring item and how many runs it missed
+     */
+    private static final class NextRun {
+
+        private final LocalDateTime runDate;
+        private final int missedRuns;
+
+        private NextRun(final LocalDateTime runDate, final int missedRuns) {
+            this.runDate = runDate;
+            this.missedRuns = missedRuns;
         }
     }
-}
\ No newline at end of file
+}
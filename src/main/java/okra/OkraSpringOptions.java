@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import com.mongodb.ReadPreference;
+import lombok.Data;
+import okra.codec.OkraItemCodec;
+import okra.metrics.OkraMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Optional settings of {@link OkraSpring}. Every setting has a default value,
+ * so only the ones that differ from the defaults need to be configured.
+ * <p>
+ * These are the only defaults: the builder sets the options directly and
+ * {@link OkraSpring} reads them once, when it's created.
+ */
+@Data
+public class OkraSpringOptions {
+
+    private PollMode pollMode = PollMode.FIND_AND_REMOVE;
+
+    private int scheduleChunkSize = 1000;
+
+    private long subscriptionRefreshMillis = 5000;
+
+    private int subscriptionLookahead = 100;
+
+    private int prefetchBufferSize = 100;
+
+    private int prefetchLowWaterMark = 25;
+
+    private int partitions = 1;
+
+    /**
+     * Zero means a third of the heartbeat expiration
+     */
+    private long heartbeatIntervalMillis = 0;
+
+    /**
+     * Zero means the reaper is disabled
+     */
+    private long reaperIntervalMillis = 0;
+
+    private int consumerParallelism = Runtime.getRuntime().availableProcessors();
+
+    private long consumerMinBackoffMillis = 100;
+
+    private long consumerMaxBackoffMillis = 5000;
+
+    private OkraMetrics metrics = OkraMetrics.NOOP;
+
+    /**
+     * Zero means every snapshot runs its own aggregation
+     */
+    private long statsCacheMillis = 0;
+
+    private ReadPreference statsReadPreference = ReadPreference.primary();
+
+    private boolean priorityOrdering = false;
+
+    /**
+     * Zero means items are never promoted
+     */
+    private long priorityAgingMillis = 0;
+
+    /**
+     * Aging doesn't promote items past it
+     */
+    private int maxAgedPriority = Integer.MAX_VALUE;
+
+    /**
+     * Document fields fetched by projected claims, besides the id, dates and status
+     */
+    private List<String> claimProjection = new ArrayList<>();
+
+    /**
+     * One means acknowledgements are written right away
+     */
+    private int ackBatchSize = 1;
+
+    private long ackFlushIntervalMillis = 100;
+
+    /**
+     * Zero means completed items are deleted
+     */
+    private long completedRetentionMillis = 0;
+
+    private CatchUpPolicy catchUpPolicy = CatchUpPolicy.COALESCE;
+
+    private boolean deduplication = false;
+
+    private boolean multiQueue = false;
+
+    private boolean indexProvisioning = false;
+
+    private long failureInitialBackoffMillis = 1000;
+
+    private long failureMaxBackoffMillis = TimeUnit.HOURS.toMillis(1);
+
+    private int maxAttempts = 10;
+
+    /**
+     * Null means the queue collection followed by {@code .deadLetters}
+     */
+    private String deadLetterCollection;
+
+    /**
+     * Null means items are mapped by Spring Data
+     */
+    private OkraItemCodec<?> codec;
+
+    private OkraConsistency consistency = OkraConsistency.defaults();
+
+    /**
+     * Cluster wide limits of the claims, at most one per type and one global
+     */
+    private List<OkraLimit> limits = new ArrayList<>();
+
+    /**
+     * How long a node skips claiming from a limit found without free slots
+     */
+    private long limitCacheMillis = 1000;
+}
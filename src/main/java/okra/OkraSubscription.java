@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import okra.base.model.OkraItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Delivers items to a handler as soon as they are due, without polling blindly.
+ * <p>
+ * The subscription keeps an in-memory timeline of upcoming due times. It is fed by
+ * items scheduled through the same {@link OkraSpring} instance and by a periodic
+ * lookahead query that also covers items scheduled by other nodes and claims whose
+ * heartbeat is about to expire. The lookahead only fetches dates, so it's covered by
+ * the status and run date index and the status and heartbeat index when the queue has them.
+ * A claim is only issued when something on the timeline is due, so idle consumers issue
+ * close to no empty polls.
+ * <p>
+ * The timeline holds at most as many due times as the lookahead, the earliest ones: later
+ * ones are found again by the next lookahead query.
+ * <p>
+ * The handler runs on a handler thread of its own, so the timeline keeps being tracked while
+ * it runs, and receives claimed (PROCESSING) items one at a time. Long running work should
+ * still be handed off to another executor, since items are only claimed once the handler
+ * returns.
+ *
+ * @param <T> the item type
+ */
+public class OkraSubscription<T extends OkraItem> implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OkraSubscription.class);
+
+    private final OkraSpring<T> okra;
+    private final Consumer<T> handler;
+    private final long refreshIntervalMillis;
+    private final int lookahead;
+    private final ScheduledExecutorService timer;
+    private final ExecutorService handlerExecutor;
+    private final ConcurrentSkipListSet<Long> dueTimes = new ConcurrentSkipListSet<>();
+    private final AtomicInteger dueCount = new AtomicInteger();
+    private final AtomicBoolean drainRequested = new AtomicBoolean();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final Consumer<T> scheduleListener = item -> onScheduled(item.getRunDate());
+
+    private ScheduledFuture<?> nextWakeUp;
+    private long nextRefreshMillis;
+    private volatile long armedMillis = Long.MAX_VALUE;
+    private volatile boolean running;
+
+    OkraSubscription(final OkraSpring<T> okra,
+                     final Consumer<T> handler,
+                     final long refreshIntervalMillis,
+                     final int lookahead) {
+        this.okra = okra;
+        this.handler = handler;
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        this.lookahead = lookahead;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "okra-subscription-" + okra.getCollection());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.handlerExecutor = Executors.newSingleThreadExecutor(r -> {
+            final Thread thread = new Thread(r, "okra-subscription-handler-" + okra.getCollection());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void start() {
+        running = true;
+        okra.addScheduleListener(scheduleListener);
+        timer.execute(this::refresh);
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        okra.removeScheduleListener(scheduleListener);
+        timer.shutdownNow();
+        handlerExecutor.shutdownNow();
+    }
+
+    /**
+     * Adds the run date to the timeline and only wakes the timer up if it's earlier than
+     * the wake-up already armed
+     */
+    private void onScheduled(final LocalDateTime runDate) {
+        if (runDate == null || !running) {
+            return;
+        }
+
+        final long dueTime = toEpochMillis(runDate);
+
+        if (addDueTime(dueTime) && dueTime < armedMillis) {
+            try {
+                timer.execute(this::armTimer);
+            } catch (final RejectedExecutionException e) {
+                // closed meanwhile
+            }
+        }
+    }
+
+    /**
+     * Adds a due time to the timeline, dropping the latest ones beyond the lookahead.
+     * Equal due times are coalesced.
+     *
+     * @return whether the due time was added
+     */
+    private boolean addDueTime(final long dueTime) {
+        if (dueCount.get() >= lookahead) {
+            final Long last = dueTimes.floor(Long.MAX_VALUE);
+
+            if (last == null || dueTime >= last) {
+                return false;
+            }
+        }
+
+        if (!dueTimes.add(dueTime)) {
+            return false;
+        }
+
+        dueCount.incrementAndGet();
+
+        while (dueCount.get() > lookahead && dueTimes.pollLast() != null) {
+            dueCount.decrementAndGet();
+        }
+
+        return true;
+    }
+
+    private void refresh() {
+        try {
+            okra.nextDueDates(lookahead).forEach(dueDate -> addDueTime(toEpochMillis(dueDate)));
+        } catch (final RuntimeException e) {
+            LOGGER.error("Error refreshing due dates of collection {}", okra.getCollection(), e);
+        }
+
+        nextRefreshMillis = System.currentTimeMillis() + refreshIntervalMillis;
+        wakeUp();
+    }
+
+    private void wakeUp() {
+        if (!running) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        boolean due = false;
+        Long first;
+
+        while ((first = dueTimes.ceiling(Long.MIN_VALUE)) != null && first < now) {
+            if (dueTimes.remove(first)) {
+                dueCount.decrementAndGet();
+            }
+
+            due = true;
+        }
+
+        if (due) {
+            requestDrain();
+        }
+
+        if (System.currentTimeMillis() >= nextRefreshMillis) {
+            refresh();
+        } else {
+            armTimer();
+        }
+    }
+
+    /**
+     * Has the handler thread claim the due items. A request made while it's draining
+     * makes it drain once more, so items due meanwhile aren't left behind.
+     */
+    private void requestDrain() {
+        drainRequested.set(true);
+
+        if (draining.compareAndSet(false, true)) {
+            try {
+                handlerExecutor.execute(this::drainWhileRequested);
+            } catch (final RejectedExecutionException e) {
+                draining.set(false);
+            }
+        }
+    }
+
+    private void drainWhileRequested() {
+        try {
+            while (running && drainRequested.getAndSet(false)) {
+                drain();
+            }
+        } finally {
+            draining.set(false);
+        }
+
+        if (running && drainRequested.get()) {
+            requestDrain();
+        }
+    }
+
+    private void drain() {
+        while (running) {
+            final Optional<T> item;
+
+            try {
+                item = okra.peek();
+            } catch (final RuntimeException e) {
+                LOGGER.error("Error claiming items of collection {}", okra.getCollection(), e);
+                return;
+            }
+
+            if (!item.isPresent()) {
+                return;
+            }
+
+            try {
+                handler.accept(item.get());
+            } catch (final RuntimeException e) {
+                LOGGER.error("Error handling item {}", item.get(), e);
+            }
+        }
+    }
+
+    private void armTimer() {
+        if (!running) {
+            return;
+        }
+
+        if (nextWakeUp != null) {
+            nextWakeUp.cancel(false);
+        }
+
+        final Long first = dueTimes.ceiling(Long.MIN_VALUE);
+        final long wakeUpMillis = first == null
+                ? nextRefreshMillis
+                : Math.min(first + 1, nextRefreshMillis);
+
+        armedMillis = wakeUpMillis;
+
+        final long delay = Math.max(0, wakeUpMillis - System.currentTimeMillis());
+        nextWakeUp = timer.schedule(this::wakeUp, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static long toEpochMillis(final LocalDateTime date) {
+        return date.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+/**
+ * Kinds of writes of {@link OkraSpring}, each of which can get its own write concern.
+ *
+ * @see OkraConsistency
+ */
+public enum OkraWrite {
+
+    /**
+     * Claims of peek, poll, their batch and projected variants
+     */
+    CLAIM,
+
+    /**
+     * Schedules, single, bulk or deduplicated
+     */
+    SCHEDULE,
+
+    /**
+     * Heartbeats, single or bulk
+     */
+    HEARTBEAT,
+
+    /**
+     * Reschedules, completions of recurring items, recovery of expired claims and priority aging
+     */
+    RESCHEDULE,
+
+    /**
+     * Deletes and completions of non recurring items
+     */
+    DELETE
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.BulkWriteResult;
+import com.mongodb.CommandResult;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
+import org.springframework.data.mapping.PropertyHandler;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.convert.UpdateMapper;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Writes to one collection, each with the write concern its {@link OkraWrite kind} gets from
+ * the {@link OkraConsistency consistency profile}.
+ * <p>
+ * Kinds without a write concern of their own are written through the mongo template, so they keep
+ * every setting of the template. Kinds with a write concern are written by the driver calls taking
+ * an explicit write concern, run in the template's callbacks, so their errors are still translated
+ * by the template. Their queries and updates are mapped against the item class the same way the
+ * template maps them.
+ */
+final class OkraWriter {
+
+    private final MongoTemplate mongoTemplate;
+    private final String collection;
+    private final Class<?> itemClass;
+    private final MongoPersistentEntity<?> itemEntity;
+    private final OkraConsistency consistency;
+    private final QueryMapper queryMapper;
+    private final UpdateMapper updateMapper;
+
+    /**
+     * @param itemClass the class of the documents of the collection, or null for plain documents
+     */
+    OkraWriter(final MongoTemplate mongoTemplate,
+               final String collection,
+               final Class<?> itemClass,
+               final OkraConsistency consistency) {
+        this.mongoTemplate = mongoTemplate;
+        this.collection = collection;
+        this.itemClass = itemClass;
+        this.itemEntity = itemClass == null
+                ? null
+                : mongoTemplate.getConverter().getMappingContext().getPersistentEntity(itemClass);
+        this.consistency = consistency;
+        this.queryMapper = new QueryMapper(mongoTemplate.getConverter());
+        this.updateMapper = new UpdateMapper(mongoTemplate.getConverter());
+    }
+
+    /**
+     * @return how many documents were updated
+     */
+    int updateFirst(final OkraWrite write, final Query query, final Update update) {
+        return update(write, query, update, false, false);
+    }
+
+    /**
+     * @return how many documents were updated
+     */
+    int updateMulti(final OkraWrite write, final Query query, final Update update) {
+        return update(write, query, update, false, true);
+    }
+
+    /**
+     * @return how many documents were updated or inserted
+     */
+    int upsert(final OkraWrite write, final Query query, final Update update) {
+        return update(write, query, update, true, false);
+    }
+
+    private int update(final OkraWrite write,
+                       final Query query,
+                       final Update update,
+                       final boolean upsert,
+                       final boolean multi) {
+        final WriteConcern writeConcern = consistency.getWriteConcern(write);
+
+        if (writeConcern == null) {
+            return upsert ? mongoTemplate.upsert(query, update, itemClass, collection).getN()
+                    : multi ? mongoTemplate.updateMulti(query, update, itemClass, collection).getN()
+                    : mongoTemplate.updateFirst(query, update, itemClass, collection).getN();
+        }
+
+        final DBObject mappedQuery = mapQuery(query.getQueryObject());
+        final DBObject mappedUpdate = mapUpdate(update);
+
+        return mongoTemplate.execute(collection, c -> c.update(mappedQuery, mappedUpdate, upsert, multi, writeConcern))
+                .getN();
+    }
+
+    /**
+     * @return how many documents were removed
+     */
+    int remove(final OkraWrite write, final Query query) {
+        final WriteConcern writeConcern = consistency.getWriteConcern(write);
+
+        if (writeConcern == null) {
+            return mongoTemplate.remove(query, itemClass, collection).getN();
+        }
+
+        final DBObject mappedQuery = mapQuery(query.getQueryObject());
+        return mongoTemplate.execute(collection, c -> c.remove(mappedQuery, writeConcern)).getN();
+    }
+
+    /**
+     * Saves an item, converted by the template unless the kind of write has a write concern
+     */
+    void save(final OkraWrite write, final Object item) {
+        if (consistency.getWriteConcern(write) == null) {
+            mongoTemplate.save(item, collection);
+            return;
+        }
+
+        final DBObject document = new BasicDBObject();
+        mongoTemplate.getConverter().write(item, document);
+        save(write, document);
+    }
+
+    /**
+     * Saves an already converted document
+     */
+    void save(final OkraWrite write, final DBObject document) {
+        mongoTemplate.execute(collection, c -> c.save(document, writeConcern(write, c)));
+    }
+
+    /**
+     * Inserts an already converted document
+     */
+    void insert(final OkraWrite write, final DBObject document) {
+        mongoTemplate.execute(collection, c -> c.insert(document, writeConcern(write, c)));
+    }
+
+    /**
+     * Runs a findAndModify, or a find and remove when no update is given. The template runs
+     * findAndModify without a write concern, so when the kind of write has one, the command is
+     * run with the write concern in it.
+     *
+     * @return the document before or after the update, as asked by the options, or null if none matched
+     */
+    DBObject findAndModify(final OkraWrite write,
+                           final Query query,
+                           final Update update,
+                           final FindAndModifyOptions opts) {
+        final WriteConcern writeConcern = consistency.getWriteConcern(write);
+
+        if (writeConcern == null) {
+            return update == null
+                    ? mongoTemplate.findAndRemove(query, DBObject.class, collection)
+                    : mongoTemplate.findAndModify(query, update, opts, DBObject.class, collection);
+        }
+
+        final DBObject command = new BasicDBObject("findAndModify", collection)
+                .append("query", mapQuery(query.getQueryObject()));
+
+        if (query.getSortObject() != null) {
+            command.put("sort", mapQuery(query.getSortObject()));
+        }
+
+        if (query.getFieldsObject() != null) {
+            command.put("fields", query.getFieldsObject());
+        }
+
+        if (update == null) {
+            command.put("remove", true);
+        } else {
+            command.put("update", mapUpdate(update));
+            command.put("new", opts.isReturnNew());
+            command.put("upsert", opts.isUpsert());
+        }
+
+        command.put("writeConcern", toCommandDocument(writeConcern));
+
+        return mongoTemplate.execute(db -> {
+            final CommandResult result = db.command(command);
+            result.throwOnError();
+
+            final Object writeConcernError = result.get("writeConcernError");
+
+            if (writeConcernError instanceof DBObject) {
+                final Object code = ((DBObject) writeConcernError).get("code");
+                throw new MongoException(code instanceof Number ? ((Number) code).intValue() : -1,
+                        String.valueOf(((DBObject) writeConcernError).get("errmsg")));
+            }
+
+            return (DBObject) result.get("value");
+        });
+    }
+
+    /**
+     * @return a new bulk write of the given kind
+     */
+    Bulk bulk(final OkraWrite write, final BulkOperations.BulkMode mode) {
+        final WriteConcern writeConcern = consistency.getWriteConcern(write);
+
+        if (writeConcern == null) {
+            return new TemplateBulk(itemClass == null
+                    ? mongoTemplate.bulkOps(mode, collection)
+                    : mongoTemplate.bulkOps(mode, itemClass, collection));
+        }
+
+        final DBCollection dbCollection = mongoTemplate.getCollection(collection);
+
+        return new DriverBulk(mode == BulkOperations.BulkMode.ORDERED
+                ? dbCollection.initializeOrderedBulkOperation()
+                : dbCollection.initializeUnorderedBulkOperation(), writeConcern);
+    }
+
+    /**
+     * @return the document fields of the properties of the item class, empty for plain documents
+     */
+    Set<String> itemFields() {
+        final Set<String> fields = new LinkedHashSet<>();
+
+        if (itemEntity != null) {
+            itemEntity.doWithProperties((PropertyHandler<MongoPersistentProperty>) property ->
+                    fields.add(property.getFieldName()));
+        }
+
+        return fields;
+    }
+
+    /**
+     * Maps a query or a sort of the item class to the document sent to MongoDB
+     */
+    DBObject mapQuery(final DBObject object) {
+        return queryMapper.getMappedObject(object, itemEntity);
+    }
+
+    private DBObject mapUpdate(final Update update) {
+        return updateMapper.getMappedObject(update.getUpdateObject(), itemEntity);
+    }
+
+    private WriteConcern writeConcern(final OkraWrite write, final DBCollection collection) {
+        final WriteConcern writeConcern = consistency.getWriteConcern(write);
+        return writeConcern != null ? writeConcern : collection.getWriteConcern();
+    }
+
+    private static DBObject toCommandDocument(final WriteConcern writeConcern) {
+        final DBObject document = new BasicDBObject();
+
+        if (writeConcern.getWObject() != null) {
+            document.put("w", writeConcern.getWObject());
+        }
+
+        if (writeConcern.getWtimeout() > 0) {
+            document.put("wtimeout", writeConcern.getWtimeout());
+        }
+
+        if (writeConcern.getJ()) {
+            document.put("j", true);
+        }
+
+        return document;
+    }
+
+    /**
+     * Bulk write of a single kind, through the template or with an explicit write concern
+     */
+    interface Bulk {
+
+        Bulk insert(DBObject document);
+
+        Bulk updateOne(Query query, Update update);
+
+        Bulk upsert(Query query, Update update);
+
+        /**
+         * @return the result of the bulk write
+         * @throws BulkOperationException if any of the writes failed
+         */
+        BulkWriteResult execute();
+    }
+
+    private static final class TemplateBulk implements Bulk {
+
+        private final BulkOperations bulkOperations;
+
+        private TemplateBulk(final BulkOperations bulkOperations) {
+            this.bulkOperations = bulkOperations;
+        }
+
+        @Override
+        public Bulk insert(final DBObject document) {
+            bulkOperations.insert(document);
+            return this;
+        }
+
+        @Override
+        public Bulk updateOne(final Query query, final Update update) {
+            bulkOperations.updateOne(query, update);
+            return this;
+        }
+
+        @Override
+        public Bulk upsert(final Query query, final Update update) {
+            bulkOperations.upsert(query, update);
+            return this;
+        }
+
+        @Override
+        public BulkWriteResult execute() {
+            return bulkOperations.execute();
+        }
+    }
+
+    private final class DriverBulk implements Bulk {
+
+        private final BulkWriteOperation bulkOperation;
+        private final WriteConcern writeConcern;
+
+        private DriverBulk(final BulkWriteOperation bulkOperation, final WriteConcern writeConcern) {
+            this.bulkOperation = bulkOperation;
+            this.writeConcern = writeConcern;
+        }
+
+        @Override
+        public Bulk insert(final DBObject document) {
+            bulkOperation.insert(document);
+            return this;
+        }
+
+        @Override
+        public Bulk updateOne(final Query query, final Update update) {
+            bulkOperation.find(mapQuery(query.getQueryObject())).updateOne(mapUpdate(update));
+            return this;
+        }
+
+        @Override
+        public Bulk upsert(final Query query, final Update update) {
+            bulkOperation.find(mapQuery(query.getQueryObject())).upsert().updateOne(mapUpdate(update));
+            return this;
+        }
+
+        @Override
+        public BulkWriteResult execute() {
+            return mongoTemplate.execute(db -> {
+                try {
+                    return bulkOperation.execute(writeConcern);
+                } catch (final BulkWriteException e) {
+                    throw new BulkOperationException(e.getMessage(), e);
+                }
+            });
+        }
+    }
+}
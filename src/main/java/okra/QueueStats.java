@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import okra.base.model.OkraStatus;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Point in time statistics of a queue, computed by a single aggregation.
+ *
+ * @see OkraSpring#snapshot()
+ */
+public class QueueStats {
+
+    private final Map<String, Long> countsByStatus;
+    private final long delayed;
+    private final LocalDateTime oldestDueRunDate;
+    private final long expiredHeartbeats;
+    private final LocalDateTime takenAt;
+    private final long takenAtMillis;
+
+    QueueStats(final Map<String, Long> countsByStatus,
+               final long delayed,
+               final LocalDateTime oldestDueRunDate,
+               final long expiredHeartbeats,
+               final LocalDateTime takenAt,
+               final long takenAtMillis) {
+        this.countsByStatus = Collections.unmodifiableMap(countsByStatus);
+        this.delayed = delayed;
+        this.oldestDueRunDate = oldestDueRunDate;
+        this.expiredHeartbeats = expiredHeartbeats;
+        this.takenAt = takenAt;
+        this.takenAtMillis = takenAtMillis;
+    }
+
+    /**
+     * @return how many items are in each status, keyed by the status name
+     */
+    public Map<String, Long> getCountsByStatus() {
+        return countsByStatus;
+    }
+
+    /**
+     * @param status the status
+     * @return how many items are in the given status
+     */
+    public long getCount(final OkraStatus status) {
+        return countsByStatus.getOrDefault(status.name(), 0L);
+    }
+
+    /**
+     * @param status the final status
+     * @return how many items are in the given final status
+     */
+    public long getCount(final OkraFinalStatus status) {
+        return countsByStatus.getOrDefault(status.name(), 0L);
+    }
+
+    /**
+     * @return how many items are in the queue
+     */
+    public long getTotal() {
+        return countsByStatus.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    /**
+     * @return how many PENDING items are past their run date and waiting to be claimed
+     */
+    public long getDelayed() {
+        return delayed;
+    }
+
+    /**
+     * @return the run date of the item waiting the longest to be claimed, if any item is due
+     */
+    public Optional<LocalDateTime> getOldestDueRunDate() {
+        return Optional.ofNullable(oldestDueRunDate);
+    }
+
+    /**
+     * @return how many PROCESSING items have an expired heartbeat
+     */
+    public long getExpiredHeartbeats() {
+        return expiredHeartbeats;
+    }
+
+    /**
+     * @return when these statistics were computed
+     */
+    public LocalDateTime getTakenAt() {
+        return takenAt;
+    }
+
+    long getTakenAtMillis() {
+        return takenAtMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "QueueStats(countsByStatus=" + countsByStatus
+                + ", delayed=" + delayed
+                + ", oldestDueRunDate=" + oldestDueRunDate
+                + ", expiredHeartbeats=" + expiredHeartbeats
+                + ", takenAt=" + takenAt + ")";
+    }
+}
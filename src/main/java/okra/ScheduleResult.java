@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import okra.base.model.OkraItem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a bulk schedule. Accepted items have their ids set,
+ * rejected items are reported together with the reason of the rejection
+ * and, when deduplicating, items whose key was already queued are reported apart:
+ * deduplicated, replacing the pending item or held back by an item being processed.
+ *
+ * @param <T> the item type
+ */
+public class ScheduleResult<T extends OkraItem> {
+
+    private long accepted;
+    private final List<Failure<T>> failures = new ArrayList<>();
+    private final List<T> deduplicated = new ArrayList<>();
+    private final List<T> updated = new ArrayList<>();
+    private final List<T> inProgress = new ArrayList<>();
+
+    void addAccepted(final long count) {
+        accepted += count;
+    }
+
+    void addFailure(final T item, final String reason) {
+        failures.add(new Failure<>(item, reason));
+    }
+
+    void addDeduplicated(final T item) {
+        deduplicated.add(item);
+    }
+
+    void addUpdated(final T item) {
+        updated.add(item);
+    }
+
+    void addInProgress(final T item) {
+        inProgress.add(item);
+    }
+
+    /**
+     * @return how many items were persisted
+     */
+    public long getAccepted() {
+        return accepted;
+    }
+
+    /**
+     * @return how many items were rejected, either by validation or by the database
+     */
+    public long getRejected() {
+        return failures.size();
+    }
+
+    /**
+     * @return the rejected items and why they were rejected
+     */
+    public List<Failure<T>> getFailures() {
+        return Collections.unmodifiableList(failures);
+    }
+
+    /**
+     * @return the items that weren't inserted because an item with the same dedup key was already queued
+     */
+    public List<T> getDeduplicated() {
+        return Collections.unmodifiableList(deduplicated);
+    }
+
+    /**
+     * @return the items that replaced the pending item with the same dedup key, with the id of the replaced item
+     */
+    public List<T> getUpdated() {
+        return Collections.unmodifiableList(updated);
+    }
+
+    /**
+     * @return the items that weren't scheduled because the item with the same dedup key is being
+     * processed. They have no id and may be scheduled again once that item is completed
+     */
+    public List<T> getInProgress() {
+        return Collections.unmodifiableList(inProgress);
+    }
+
+    @Override
+    public String toString() {
+        return "ScheduleResult(accepted=" + accepted + ", rejected=" + getRejected()
+                + ", deduplicated=" + deduplicated.size() + ", updated=" + updated.size()
+                + ", inProgress=" + inProgress.size() + ")";
+    }
+
+    public static class Failure<T extends OkraItem> {
+
+        private final T item;
+        private final String reason;
+
+        Failure(final T item, final String reason) {
+            this.item = item;
+            this.reason = reason;
+        }
+
+        public T getItem() {
+            return item;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return "Failure(item=" + item + ", reason=" + reason + ")";
+        }
+    }
+}
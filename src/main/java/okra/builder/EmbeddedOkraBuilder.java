@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra.builder;
+
+import okra.EmbeddedOkra;
+import okra.Preconditions;
+import okra.base.model.OkraItem;
+import okra.codec.DefaultOkraItemCodec;
+import okra.codec.OkraItemCodec;
+import okra.exception.InvalidOkraConfigurationException;
+import okra.model.DefaultOkraItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+
+/**
+ * Builds an {@link EmbeddedOkra}, which keeps the queue in memory and in a journal file under
+ * the given directory instead of in MongoDB. The journal of a collection is
+ * {@code <directory>/<database>/<collection>.journal}.
+ */
+public class EmbeddedOkraBuilder<T extends OkraItem> extends OkraBuilder<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EmbeddedOkraBuilder.class);
+
+    private Path directory;
+    private OkraItemCodec<T> codec;
+    private boolean syncWrites = false;
+    private int compactionThreshold = 10_000;
+
+    @Override
+    public EmbeddedOkra<T> build() {
+        validateConfiguration();
+
+        return new EmbeddedOkra<>(
+                directory.resolve(getDatabase()).resolve(getCollection() + ".journal"),
+                getDatabase(),
+                getCollection(),
+                getExpireDuration(),
+                getExpireDurationUnit(),
+                codec != null ? codec : defaultCodec(),
+                syncWrites,
+                compactionThreshold
+        );
+    }
+
+    /**
+     * Set the directory holding the journals
+     *
+     * @param directory the journal directory
+     * @return this builder
+     */
+    public EmbeddedOkraBuilder<T> withDirectory(final Path directory) {
+        this.directory = Preconditions.checkConfigurationNotNull(directory, "directory");
+        return this;
+    }
+
+    /**
+     * Set the codec converting items to and from the journaled documents.
+     * Defaults to {@link DefaultOkraItemCodec} when the item class is {@link DefaultOkraItem},
+     * and must be set for any other item class
+     *
+     * @param codec the codec of the item class
+     * @return this builder
+     */
+    public EmbeddedOkraBuilder<T> withCodec(final OkraItemCodec<T> codec) {
+        this.codec = Preconditions.checkConfigurationNotNull(codec, "codec");
+        return this;
+    }
+
+    /**
+     * Force every journal write to the disk, so the queue also survives a crash of the machine.
+     * Defaults to leaving writes to the operating system, which survives a crash of the process
+     *
+     * @return this builder
+     */
+    public EmbeddedOkraBuilder<T> withSyncWrites() {
+        this.syncWrites = true;
+        return this;
+    }
+
+    /**
+     * Set how many records the journal may hold before being compacted. It is only compacted
+     * when it also holds more than twice as many records as items.
+     * Defaults to 10000
+     *
+     * @param compactionThreshold the amount of records
+     * @return this builder
+     */
+    public EmbeddedOkraBuilder<T> withCompactionThreshold(final int compactionThreshold) {
+        if (compactionThreshold <= 0) {
+            LOGGER.error("Invalid compaction threshold: {}. It must be greater than zero.", compactionThreshold);
+            throw new InvalidOkraConfigurationException();
+        }
+        this.compactionThreshold = compactionThreshold;
+        return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    private OkraItemCodec<T> defaultCodec() {
+        return (OkraItemCodec<T>) (OkraItemCodec<?>) DefaultOkraItemCodec.create();
+    }
+
+    private void validateConfiguration() {
+        if (directory == null
+                || getCollection() == null
+                || getCollection().isEmpty()
+                || getDatabase() == null
+                || getDatabase().isEmpty()
+                || (codec == null && !DefaultOkraItem.class.equals(getItemClass()))) {
+
+            LOGGER.error("Invalid EmbeddedOkra configuration. " +
+                            "Please verify params: " +
+                            "[Directory: {}, Database: {}, Collection: {}, ItemClass: {}, Codec is null? {}]",
+                    directory, getDatabase(), getCollection(), getItemClass(), codec == null);
+
+            throw new InvalidOkraConfigurationException();
+        }
+    }
+}
@@ -22,33 +22,68 @@
  */
 package okra.builder;
 
+import com.mongodb.ReadPreference;
+import okra.AsyncOkraSpring;
+import okra.CatchUpPolicy;
+import okra.IndexCheck;
+import okra.IndexReport;
+import okra.OkraConsistency;
+import okra.OkraLimit;
 import okra.OkraSpring;
+import okra.OkraSpringOptions;
+import okra.PollMode;
 import okra.Preconditions;
-import okra.base.AbstractOkra;
 import okra.base.model.OkraItem;
+import okra.codec.OkraItemCodec;
 import okra.exception.InvalidOkraConfigurationException;
+import okra.metrics.OkraMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.mongodb.core.MongoTemplate;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
 public class OkraSpringBuilder<T extends OkraItem> extends OkraBuilder<T> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(OkraSpringBuilder.class);
 
+    private final OkraSpringOptions options = new OkraSpringOptions();
     private MongoTemplate mongoTemplate;
+    private IndexCheck indexCheck = IndexCheck.NONE;
 
     @Override
-    public AbstractOkra<T> build() {
+    public OkraSpring<T> build() {
         validateConfiguration();
 
-        return new OkraSpring<>(
+        final OkraSpring<T> okra = new OkraSpring<>(
                 mongoTemplate,
                 getDatabase(),
                 getCollection(),
                 getExpireDuration(),
                 getExpireDurationUnit(),
-                getItemClass()
+                getItemClass(),
+                options
         );
+
+        okra.ensureIndexes();
+        checkIndexes(okra);
+        okra.startReaper();
+
+        return okra;
+    }
+
+    /**
+     * Build a non-blocking Okra that runs its operations on the given executor
+     *
+     * @param executor the executor that will run the database operations
+     * @return the async Okra
+     */
+    public AsyncOkraSpring<T> buildAsync(final Executor executor) {
+        return new AsyncOkraSpring<>(build(), Preconditions.checkConfigurationNotNull(executor, "executor"));
     }
 
     /**
@@ -62,6 +97,560 @@ public class OkraSpringBuilder<T extends OkraItem> extends OkraBuilder<T> {
         return this;
     }
 
+    /**
+     * Set how poll will take items out of the queue.
+     * Defaults to {@link PollMode#FIND_AND_REMOVE}
+     *
+     * @param pollMode the poll mode
+     * @return this builder
+     */
+    public OkraSpringBuilder<T> withPollMode(final PollMode pollMode) {
+        options.setPollMode(Preconditions.checkConfigurationNotNull(pollMode, "pollMode"));
+        return this;
+    }
+
+    /**
+     * Set how many items are sent to the database per bulk insert when scheduling in bulk.
+     * Defaults to 1000
+     *
+     * @param scheduleChunkSize the amount of items per bulk insert
+     * @return this builder
+     */
+    public OkraSpringBuilder<T> withScheduleChunkSize(final int scheduleChunkSize) {
+        if (scheduleChunkSize <= 0) {
+            LOGGER.error("Invalid schedule chunk size: {}. It must be greater than zero.", scheduleChunkSize);
+            throw new InvalidOkraConfigurationException();
+        }
+        options.setScheduleChunkSize(scheduleChunkSize);
+        return this;
+    }
+
+    /**
+     * Set how often subscriptions look for items scheduled by other nodes.
+     * Defaults to 5 seconds
+     *
+     * @param interval the refresh interval
+     * @param unit     the refresh interval unit
+     * @return this builder
+     */
+    public OkraSpringBuilder<T> withSubscriptionRefresh(final long interval, final TimeUnit unit) {
+        Preconditions.checkConfigurationNotNull(unit, "unit");
+        if (interval <= 0) {
+            LOGGER.error("Invalid subscription refresh interval: {}. It must be greater than zero.", interval);
+            throw new InvalidOkraConfigurationException();
+        }
+        options.setSubscriptionRefreshMillis(unit.toMillis(interval));
+        return this;
+    }
+
+    /**
+     * Set how many upcoming due dates subscriptions keep track of.
+     * Defaults to 100
+     *
+     * @param subscriptionLookahead the amount of upcoming due dates
+     * @return this builder
+     */
+    public OkraSpringBuilder<T> withSubscriptionLookahead(final int subscriptionLookahead) {
+        if (subscriptionLookahead <= 0) {
+            LOGGER.error("Invalid subscription lookahead: {}. It must be greater than zero.", subscriptionLookahead);
+            throw new InvalidOkraConfigurationException();
+        }
+        options.setSubscriptionLookahead(subscriptionLookahead);
+        return this;
+    }
+
+    /**
+     * Set the size of the prefetch buffer and when it is refilled.
+     * Defaults to a buffer of 100 items refilled when it drops below 25 items
+     *
+     * @param bufferSize   the maximum amount of prefetched items
+     * @param lowWaterMark the buffer is refilled when it holds less items than this
+     * @return this builder
+     */
+    public OkraSpringBuilder<T> withPrefetchBuffer(final int bufferSize, final int lowWaterMark) {
+        if (bufferSize <= 0 || lowWaterMark <= 0 || lowWaterMark > bufferSize) {
+            LOGGER.error("Invalid prefetch buffer configuration. Buffer size: {}, low-water mark: {}. " +
+                    "Both must be greater than zero and the low-water mark can't exceed the buffer size.",
+                    bufferSize, lowWaterMark);
+            throw new InvalidOkraConfigurationException();
+        }
+        options.setPrefetchBufferSize(bufferSize);
+        options.setPrefetchLowWaterMark(lowWaterMark);
+        return this;
+    }
+
+    /**
+     * Spread the items across the given amount of partitions, so concurrent consumers
+     * start claiming from different items instead of competing for the oldest ones.
+     * Defaults to 1 (not partitioned)
+     *
+     * @param partitions the amount of partitions
+     * @return this builder
+     */
+    public OkraSpringBuilder<T> withPartitions(final int partitions) {
+        if (partitions <= 0) {
+            LOGGER.error("Invalid amount of partitions: {}. It must be greater than zero.", partitions);
+            throw new InvalidOkraConfigurationException();
+        }
+        options.setPartitions(partitions);
+        return this;
+    }
+
+    /**
+     * Set how often managed heartbeats are sent.
+     * Defaults to a third of the expiration time
+     *
+     * @param interval the heartbeat interval
+     * @param unit     the heartbeat interval unit
+     * @return this builder
+     */
+    public OkraSpringBuilder<T> withHeartbeatInterval(final long interval, final TimeUnit unit) {
+        Preconditions.checkConfigurationNotNull(unit, "unit");
+        if (interval <= 0) {
+            LOGGER.error("Invalid heartbeat interval: {}. It must be greater than zero.", interval);
+            throw new InvalidOkraConfigurationException();
+        }
+        options.setHeartbeatIntervalMillis(unit.toMillis(interval));
+        return this;
+    }
+
+    /**
+     * Enable the reaper, which periodically returns items with expired heartbeat back to PENDING.
+     * Claims then only look for due PENDING items, which is a cheaper query.
+     * Disabled by default
+     *
+     * @param interval how often the reaper runs
+     * @param unit     the interval unit
+     * @return this builder
+     */
+    public OkraSpringBuilder<T> withReaper(final long interval, final TimeUnit unit) {
+        Preconditions.checkConfigurationNotNull(unit, "unit");
+        if (interval <= 0) {
+            LOGGER.error("Invalid reaper interval: {}. It must be greater than zero.", interval);
+            throw new InvalidOkraConfigurationException();
+        }
+        options.setReaperIntervalMillis(unit.toMillis(interval));
+        return this;
+    }
+
+    /**
+     * Set how many items a managed consumer handles concurrently.
+     * Defaults to the amount of available processors
+     *
+     * @param consumerParallelism the amount of worker threads
+     * @return this builder
+     */
+    public OkraSpringBuilder<T> withConsumerParallelism(final int consumerParallelism) {
+        if (consumerParallelism <= 0) {
+            LOGGER.error("Invalid consumer parallelism: {}. It must be greater than zero.", consumerParallelism);
+            throw new InvalidOkraConfigurationException();
+        }
+        options.setConsumerParallelism(consumerParallelism);
+        return this;
+    }
+
+    /**
+     * Set how long a managed consumer waits when nothing is due. The wait doubles at every
+     * empty claim, from the minimum up to the maximum, and is randomized to avoid
+     * consumers polling in lockstep. Waits are kept in milliseconds, so waits shorter than
+     * a millisecond are rounded up to one millisecond rather than truncated to no wait at all.
+     * Defaults to 100 milliseconds up to 5 seconds
+     *
+     * @param min  the first wait after an empty claim
+     * @param max  the longest wait
+     * @param unit the unit of both waits
+     * @return this builder
+     */
+    public OkraSpringBuilder<T> withIdleBackoff(final long min, final long max, final TimeUnit unit) {
+        Preconditions.checkConfigurationNotNull(unit, "unit");
+        if (min <= 0 || max < min) {
+            LOGGER.error("Invalid idle backoff. Min: {}, max: {}. " +
+                    "Min must be greater than zero and max can't be less than min.", min, max);
+            throw new InvalidOkraConfigurationException();
+        }
+        options.setConsumerMinBackoffMillis(Math.max(1, unit.toMillis(min)));
+        options.setConsumerMaxBackoffMillis(Math.max(1, unit.toMillis(max)));
+        return this;
+    }
+
+    /**
+     * Set where the latency of each operation, the claim hit rate, the lost heartbeats
+     * and the queue lag are recorded, e.g. a {@link okra.metrics.MicrometerOkraMetrics}.
+     * Defaults to {@link OkraMetrics#NOOP}, which doesn't take any measurement
+     *
+     * @param metrics the metrics receiver
+     * @return this builder
+     */
+    public OkraSpringBuilder<T> withMetrics(final OkraMetrics metrics) {
+        options.setMetrics(Preconditions.checkConfigurationNotNull(metrics, "metrics"));
+        return this;
+    }
+
+    /**
+     * Share each queue statistics snapshot between all callers for the given duration,
+     * so dashboards polling the statistics don't run one aggregation each.
+     * Defaults to zero, which means every snapshot runs its own aggregation
+     *
+     * @param duration how long a snapshot is reused
+     * @param unit     the unit of the duration
+     * @return this builder
+     */
+    public OkraSpringBuilder<T> withStatsCache(final long duration, final TimeUnit unit) {
+        Preconditions.checkConfigurationNotNull(unit, "unit");
+        if (duration < 0) {
+            LOGGER.error("Invalid stats cache duration: {}. It can't be negative.", duration);
+            throw new InvalidOkraConfigurationException();
+        }
+        options.setStatsCacheMillis(unit.toMillis(duration));
+        return this;
+    }
+
+    /**
+     * Set where the queue statistics and counts run, e.g.
+     * {@link ReadPreference#secondaryPreferred()} to keep them away from the primary.
+     * Overridden by the read preference of the {@link #withConsistency(OkraConsistency) consistency profile}.
+     * Defaults to the primary
+     *
+     * @param readPreference the read preference of the statistics and counts
+     * @return this builder
+     */
+    public OkraSpringBuilder<T> withStatsReadPreference(final ReadPreference readPreference) {
+        options.setStatsReadPreference(Preconditions.checkConfigurationNotNull(readPreference, "readPreference"));
+        return this;
+    }
+
+    /**
+     * Claim items by priority first and then by run date. The item class must have an
+     * integer {@code priority} field, higher priorities are claimed first, and items
+     * scheduled without a priority are stored with the default priority of zero.
+     * Defaults to claiming the first due item found, without any order
+     *
+     * @return this builder
+     */
+    public OkraSpringBuilder<T> withPriorityOrdering() {
+        options.setPriorityOrdering(true);
+        return this;
+    }
+
+    /**
+     * Claim items by priority and promote the ones that have been due for longer than the
+     * given interval by one priority level per interval, so low priority items aren't
+     * starved by a sustained load of higher priority items.
+     * Defaults to no promotion
+     *
+     * @param interval how long an item waits before each promotion
+     * @param unit     the unit of the interval
+     * @return this builder
+     * @see #withPriorityOrdering()
+     */
+    public OkraSpringBuilder<T> withPriorityAging(final long interval, final TimeUnit unit) {
+        Preconditions.checkConfigurationNotNull(unit, "unit");
+        if (interval <= 0) {
+            LOGGER.error("Invalid priority aging interval: {}. It must be greater than zero.", interval);
+            throw new InvalidOkraConfigurationException();
+        }
+        options.setPriorityOrdering(true);
+        options.setPriorityAgingMillis(unit.toMillis(interval));
+        return this;
+    }
+
+    /**
+     * Like {@link #withPriorityAging(long, TimeUnit)}, but aging doesn't promote items past the
+     * given priority, so waiting items can't overtake the most urgent ones.
+     *
+     * @param interval    how long an item waits before each promotion
+     * @param unit        the unit of the interval
+     * @param maxPriority the highest priority aging promotes items to
+     * @return this builder
+     */
+    public OkraSpringBuilder<T> withPriorityAging(final long interval, final TimeUnit unit, final int maxPriority) {
+        if (maxPriority <= 0) {
+            LOGGER.error("Invalid max aged priority: {}. It must be greater than zero.", maxPriority);
+            throw new InvalidOkraConfigurationException();
+        }
+        withPriorityAging(interval, unit);
+        options.setMaxAgedPriority(maxPriority);
+        return this;
+    }
+
+    /**
+     * Set the document fields fetched by projected claims, besides the id, dates and status,
+     * e.g. the few fields handlers need to route an item without loading its payload.
+     * Defaults to no additional field
+     *
+     * @param fields the names of the fields, as stored in the documents
+     * @return this builder
+     * @see OkraSpring#peekProjected()
+     */
+    public OkraSpringBuilder<T> withClaimProjection(final String... fields) {
+        Preconditions.checkConfigurationNotNull(fields, "fields");
+        if (Arrays.stream(fields).anyMatch(field -> field == null || field.isEmpty())) {
+            LOGGER.error("Invalid claim projection: {}. Fields can't be null or empty.", Arrays.toString(fields));
+            throw new InvalidOkraConfigurationException();
+        }
+        options.setClaimProjection(new ArrayList<>(Arrays.asList(fields)));
+        return this;
+    }
+
+    /**
+     * Group acknowledgements into single writes of up to the given amount of items,
+     * written at least once per flush interval. Buffered items stay PROCESSING, so
+     * the flush interval must be well below the heartbeat expiration.
+     * Defaults to writing each acknowledgement right away
+     *
+     * @param batchSize     the most acknowledgements written at once
+     * @param flushInterval the longest an acknowledgement waits to be written
+     * @param unit          the unit of the flush interval
+     * @return this builder
+     * @see okra.OkraAckBuffer
+     */
+    public OkraSpringBuilder<T> withAckBuffer(final int batchSize, final long flushInterval, final TimeUnit unit) {
+        Preconditions.checkConfigurationNotNull(unit, "unit");
+        if (batchSize <= 0 || flushInterval <= 0) {
+            LOGGER.error("Invalid ack buffer. Batch size: {}, flush interval: {}. " +
+                    "Both must be greater than zero.", batchSize, flushInterval);
+            throw new InvalidOkraConfigurationException();
+        }
+        options.setAckBatchSize(batchSize);
+        options.setAckFlushIntervalMillis(unit.toMillis(flushInterval));
+        return this;
+    }
+
+    /**
+     * Keep completed items for the given retention, with the DONE status and a completion date,
+     * instead of deleting them. A TTL index removes them in the background once the retention elapses.
+     * Defaults to deleting completed items
+     *
+     * @param retention how long completed items are kept
+     * @param unit      the unit of the retention
+     * @return this builder
+     */
+    public OkraSpringBuilder<T> withCompletedRetention(final long retention, final TimeUnit unit) {
+        Preconditions.checkConfigurationNotNull(unit, "unit");
+        if (retention <= 0) {
+            LOGGER.error("Invalid completed retention: {}. It must be greater than zero.", retention);
+            throw new InvalidOkraConfigurationException();
+        }
+        options.setCompletedRetentionMillis(unit.toMillis(retention));
+        return this;
+    }
+
+    /**
+     * Set what happens to the runs a recurring item missed when it's completed.
+     * Defaults to {@link CatchUpPolicy#COALESCE}
+     *
+     * @param catchUpPolicy the catch-up policy
+     * @return this builder
+     * @see okra.model.RecurringOkraItem
+     */
+    public OkraSpringBuilder<T> withCatchUpPolicy(final CatchUpPolicy catchUpPolicy) {
+        options.setCatchUpPolicy(Preconditions.checkConfigurationNotNull(catchUpPolicy, "catchUpPolicy"));
+        return this;
+    }
+
+    /**
+     * Enable scheduling items identified by a dedup key, backed by an unique index on the key.
+     * Defaults to disabled
+     *
+     * @return this builder
+     * @see okra.model.DeduplicatedOkraItem
+     * @see OkraSpring#scheduleIfAbsent(OkraItem)
+     * @see OkraSpring#scheduleOrUpdate(OkraItem)
+     */
+    public OkraSpringBuilder<T> withDeduplication() {
+        options.setDeduplication(true);
+        return this;
+    }
+
+    /**
+     * Serve several job types from this queue. The item class must have a {@code type} field,
+     * and claims by type are backed by indexes prefixed by the type.
+     * Defaults to a single job type
+     *
+     * @return this builder
+     * @see OkraSpring#consumer(java.util.List)
+     */
+    public OkraSpringBuilder<T> withMultiQueue() {
+        options.setMultiQueue(true);
+        return this;
+    }
+
+    /**
+     * Set the codec converting items to and from documents, bypassing Spring Data's reflective
+     * mapping on claims, heartbeats and schedules. Queries and updates are still mapped by Spring Data.
+     * Defaults to Spring Data's mapping
+     *
+     * @param codec the codec of the item class
+     * @return this builder
+     * @see okra.codec.DefaultOkraItemCodec
+     */
+    public OkraSpringBuilder<T> withCodec(final OkraItemCodec<T> codec) {
+        options.setCodec(Preconditions.checkConfigurationNotNull(codec, "codec"));
+        return this;
+    }
+
+    /**
+     * Set the write concern of each kind of write and the read preference of counts and statistics.
+     * See {@link OkraConsistency} for the delivery guarantees kept by each preset.
+     * Defaults to {@link OkraConsistency#defaults()}, the defaults of the mongo template
+     *
+     * @param consistency the consistency profile
+     * @return this builder
+     */
+    public OkraSpringBuilder<T> withConsistency(final OkraConsistency consistency) {
+        options.setConsistency(Preconditions.checkConfigurationNotNull(consistency, "consistency"));
+        return this;
+    }
+
+    /**
+     * Add a cluster wide limit of the concurrent claims and of the claims per second, checked
+     * atomically with each claim through a shared document in the {@code okraLimits} collection.
+     * At most one limit per type and one global limit can be added. Items of a type with its own
+     * limit are marked when they're scheduled, so untyped claims skip them: items scheduled before
+     * the limit was added aren't marked and are still claimed by untyped claims.
+     * Defaults to no limit
+     *
+     * @param limit the limit
+     * @return this builder
+     * @see OkraLimit
+     */
+    public OkraSpringBuilder<T> withLimit(final OkraLimit limit) {
+        Preconditions.checkConfigurationNotNull(limit, "limit");
+        if (options.getLimits().stream().anyMatch(added -> Objects.equals(added.getType(), limit.getType()))) {
+            LOGGER.error("Invalid limit: {}. The limit of its type was already added.", limit);
+            throw new InvalidOkraConfigurationException();
+        }
+        options.getLimits().add(limit);
+        return this;
+    }
+
+    /**
+     * Set how long a node stops claiming from a limit it found without free slots, unless it
+     * acknowledges one of its own items in the meantime. Claims from an exhausted limit
+     * don't reach the database during that time. A limit out of starts for the current second
+     * is skipped until the next second, whatever this setting.
+     * Defaults to one second
+     *
+     * @param duration how long an exhausted limit is skipped
+     * @param unit     the unit of the duration
+     * @return this builder
+     */
+    public OkraSpringBuilder<T> withLimitCache(final long duration, final TimeUnit unit) {
+        Preconditions.checkConfigurationNotNull(unit, "unit");
+        if (duration < 0) {
+            LOGGER.error("Invalid limit cache duration: {}. It can't be negative.", duration);
+            throw new InvalidOkraConfigurationException();
+        }
+        options.setLimitCacheMillis(unit.toMillis(duration));
+        return this;
+    }
+
+    /**
+     * Create the claim and heartbeat indexes on the configured collection, even when the queue
+     * isn't partitioned, typed nor ordered by priority. The indexes declared by the item class
+     * are only created on its default collection.
+     * Defaults to relying on the indexes declared by the item class
+     *
+     * @return this builder
+     */
+    public OkraSpringBuilder<T> withIndexProvisioning() {
+        options.setIndexProvisioning(true);
+        return this;
+    }
+
+    /**
+     * Explain the claim, heartbeat and count queries on build, and warn or fail if any of them
+     * doesn't use an index. A collection that doesn't exist yet has no index, so checking a new
+     * collection needs {@link #withIndexProvisioning()}.
+     * Defaults to {@link IndexCheck#NONE}
+     *
+     * @param indexCheck what to do when a query doesn't use an index
+     * @return this builder
+     * @see OkraSpring#indexReport()
+     */
+    public OkraSpringBuilder<T> withIndexCheck(final IndexCheck indexCheck) {
+        this.indexCheck = Preconditions.checkConfigurationNotNull(indexCheck, "indexCheck");
+        return this;
+    }
+
+    /**
+     * Set the backoff of failed items: the first retry waits the initial backoff, and each
+     * following one twice as long as the previous one, up to the max backoff. Each delay is
+     * picked at random between half and all of its backoff.
+     * Defaults to one second, up to one hour
+     *
+     * @param initialBackoff the backoff of the first retry
+     * @param maxBackoff     the longest backoff
+     * @param unit           the unit of the backoffs
+     * @return this builder
+     * @see OkraSpring#fail(OkraItem, String)
+     */
+    public OkraSpringBuilder<T> withFailureBackoff(final long initialBackoff,
+                                                   final long maxBackoff,
+                                                   final TimeUnit unit) {
+        Preconditions.checkConfigurationNotNull(unit, "unit");
+        if (initialBackoff <= 0 || maxBackoff < initialBackoff) {
+            LOGGER.error("Invalid failure backoff. Initial: {}, max: {}. " +
+                            "Initial must be greater than zero and max can't be less than initial.",
+                    initialBackoff, maxBackoff);
+            throw new InvalidOkraConfigurationException();
+        }
+        options.setFailureInitialBackoffMillis(unit.toMillis(initialBackoff));
+        options.setFailureMaxBackoffMillis(unit.toMillis(maxBackoff));
+        return this;
+    }
+
+    /**
+     * Set how many times an item may fail before it's moved to the dead-letter collection.
+     * Defaults to 10
+     *
+     * @param maxAttempts the most attempts of an item
+     * @return this builder
+     * @see OkraSpring#fail(OkraItem, String)
+     */
+    public OkraSpringBuilder<T> withMaxAttempts(final int maxAttempts) {
+        if (maxAttempts <= 0) {
+            LOGGER.error("Invalid max attempts: {}. It must be positive.", maxAttempts);
+            throw new InvalidOkraConfigurationException();
+        }
+        options.setMaxAttempts(maxAttempts);
+        return this;
+    }
+
+    /**
+     * Set the collection receiving the items that ran out of attempts.
+     * Defaults to the queue collection followed by {@code .deadLetters}
+     *
+     * @param deadLetterCollection the dead-letter collection
+     * @return this builder
+     */
+    public OkraSpringBuilder<T> withDeadLetterCollection(final String deadLetterCollection) {
+        if (deadLetterCollection == null || deadLetterCollection.isEmpty()) {
+            LOGGER.error("Invalid dead-letter collection. It can't be empty.");
+            throw new InvalidOkraConfigurationException();
+        }
+        options.setDeadLetterCollection(deadLetterCollection);
+        return this;
+    }
+
+    private void checkIndexes(final OkraSpring<T> okra) {
+        if (indexCheck == IndexCheck.NONE) {
+            return;
+        }
+
+        final IndexReport report = okra.indexReport();
+
+        for (final IndexReport.QueryPlan plan : report.getUnindexedPlans()) {
+            LOGGER.warn("The {} query of collection {} doesn't use an index: {}",
+                    plan.getName(), getCollection(), plan);
+        }
+
+        if (indexCheck == IndexCheck.FAIL && !report.isIndexed()) {
+            LOGGER.error("Invalid indexes of collection {}. Indexes: {}", getCollection(), report.getIndexes());
+            throw new InvalidOkraConfigurationException();
+        }
+    }
+
     private void validateConfiguration() {
         if (mongoTemplate == null
                 || getCollection() == null
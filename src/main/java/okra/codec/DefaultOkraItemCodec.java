@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra.codec;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import okra.base.model.OkraStatus;
+import okra.model.DefaultOkraItem;
+import org.bson.types.ObjectId;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.function.Supplier;
+
+/**
+ * Codec of {@link DefaultOkraItem} and its subclasses, writing the same document as Spring
+ * Data's mapping does, type hint included.
+ * <p>
+ * Subclasses with their own fields extend it and encode and decode them in
+ * {@link #encodeFields(DefaultOkraItem, DBObject)} and {@link #decodeFields(DBObject, DefaultOkraItem)}.
+ *
+ * @param <T> the item type
+ */
+public class DefaultOkraItemCodec<T extends DefaultOkraItem> implements OkraItemCodec<T> {
+
+    private static final String CLASS_FIELD = "_class";
+
+    private final Supplier<T> factory;
+
+    /**
+     * @param factory creates the decoded items
+     */
+    public DefaultOkraItemCodec(final Supplier<T> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * @return the codec of {@link DefaultOkraItem} itself
+     */
+    public static DefaultOkraItemCodec<DefaultOkraItem> create() {
+        return new DefaultOkraItemCodec<>(DefaultOkraItem::new);
+    }
+
+    @Override
+    public DBObject encode(final T item) {
+        final DBObject document = new BasicDBObject();
+
+        if (item.getId() != null) {
+            document.put("_id", ObjectId.isValid(item.getId()) ? new ObjectId(item.getId()) : item.getId());
+        }
+
+        document.put(CLASS_FIELD, item.getClass().getName());
+        putIfNotNull(document, "heartbeat", toDate(item.getHeartbeat()));
+        putIfNotNull(document, "runDate", toDate(item.getRunDate()));
+        putIfNotNull(document, "status", item.getStatus() == null ? null : item.getStatus().name());
+        putIfNotNull(document, "priority", item.getPriority());
+        putIfNotNull(document, "recurrence", item.getRecurrence());
+        putIfNotNull(document, "missedRuns", item.getMissedRuns());
+        putIfNotNull(document, "dedupKey", item.getDedupKey());
+        putIfNotNull(document, "type", item.getType());
+        putIfNotNull(document, "attempts", item.getAttempts());
+        putIfNotNull(document, "lastError", item.getLastError());
+
+        encodeFields(item, document);
+        return document;
+    }
+
+    @Override
+    public T decode(final DBObject document) {
+        final T item = factory.get();
+        final Object id = document.get("_id");
+        final Object status = document.get("status");
+
+        item.setId(id == null ? null : id.toString());
+        item.setHeartbeat(toLocalDateTime((Date) document.get("heartbeat")));
+        item.setRunDate(toLocalDateTime((Date) document.get("runDate")));
+        item.setStatus(status == null ? null : OkraStatus.valueOf(status.toString()));
+        item.setPriority(integerValue(document.get("priority")));
+        item.setRecurrence((String) document.get("recurrence"));
+        item.setMissedRuns(integerValue(document.get("missedRuns")));
+        item.setDedupKey((String) document.get("dedupKey"));
+        item.setType((String) document.get("type"));
+        item.setAttempts(integerValue(document.get("attempts")));
+        item.setLastError((String) document.get("lastError"));
+
+        decodeFields(document, item);
+        return item;
+    }
+
+    /**
+     * Encodes the fields added by a subclass. Does nothing by default.
+     *
+     * @param item     the item being encoded
+     * @param document the document holding the fields of {@link DefaultOkraItem}
+     */
+    protected void encodeFields(final T item, final DBObject document) {
+    }
+
+    /**
+     * Decodes the fields added by a subclass. Does nothing by default.
+     *
+     * @param document the stored document
+     * @param item     the item holding the fields of {@link DefaultOkraItem}
+     */
+    protected void decodeFields(final DBObject document, final T item) {
+    }
+
+    protected static void putIfNotNull(final DBObject document, final String field, final Object value) {
+        if (value != null) {
+            document.put(field, value);
+        }
+    }
+
+    /**
+     * Same conversion as Spring Data's, so heartbeats read through a codec match the stored ones
+     */
+    protected static Date toDate(final LocalDateTime dateTime) {
+        return dateTime == null ? null : Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    protected static LocalDateTime toLocalDateTime(final Date date) {
+        return date == null ? null : LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault());
+    }
+
+    private static Integer integerValue(final Object value) {
+        return value == null ? null : ((Number) value).intValue();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra.codec;
+
+import com.mongodb.DBObject;
+import okra.base.model.OkraItem;
+
+/**
+ * Converts items to and from their stored documents without going through Spring Data's
+ * reflective mapping.
+ * <p>
+ * A codec must keep the document layout of the mapped item class: the id as {@code _id},
+ * dates as BSON dates and the status as its name. Collections can then be shared between
+ * instances with and without a codec.
+ *
+ * @param <T> the item type
+ * @see DefaultOkraItemCodec
+ * @see okra.builder.OkraSpringBuilder#withCodec(OkraItemCodec)
+ */
+public interface OkraItemCodec<T extends OkraItem> {
+
+    /**
+     * @param item the item, never null
+     * @return the document to be stored
+     */
+    DBObject encode(T item);
+
+    /**
+     * Decodes a document, which may only hold the fields included by a query projection.
+     *
+     * @param document the stored document, never null
+     * @return the item
+     */
+    T decode(DBObject document);
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records Okra measurements in a Micrometer registry. All meters are tagged with the queue name:
+ * <ul>
+ * <li>{@code okra.operation}: latency histogram per operation, tagged with the operation</li>
+ * <li>{@code okra.peek}: claims, tagged with result hit or miss</li>
+ * <li>{@code okra.heartbeat.lost}: heartbeats whose claim was taken over by another node</li>
+ * <li>{@code okra.queue.lag}: how long claimed items waited after they became claimable: after their
+ * run date, or after their heartbeat expired when their claim is taken over</li>
+ * <li>{@code okra.prefetch.poll}: polls of prefetchers, tagged with result hit or miss</li>
+ * <li>{@code okra.prefetch.buffer}: claimed items waiting in the prefetcher buffers</li>
+ * </ul>
+ * Requires micrometer-core on the classpath.
+ */
+public class MicrometerOkraMetrics implements OkraMetrics {
+
+    private final Map<OkraOperation, Timer> latencies = new EnumMap<>(OkraOperation.class);
+    private final Counter peekHits;
+    private final Counter peekMisses;
+    private final Counter lostHeartbeats;
+    private final Timer queueLag;
+    private final Counter prefetchHits;
+    private final Counter prefetchMisses;
+    private final AtomicInteger prefetchBufferOccupancy;
+
+    public MicrometerOkraMetrics(final MeterRegistry registry, final String queue) {
+        for (final OkraOperation operation : OkraOperation.values()) {
+            latencies.put(operation, Timer.builder("okra.operation")
+                    .description("Latency of Okra operations")
+                    .tag("queue", queue)
+                    .tag("operation", operation.name().toLowerCase(Locale.ROOT))
+                    .publishPercentileHistogram()
+                    .register(registry));
+        }
+
+        peekHits = Counter.builder("okra.peek")
+                .description("Claims that returned an item")
+                .tag("queue", queue)
+                .tag("result", "hit")
+                .register(registry);
+
+        peekMisses = Counter.builder("okra.peek")
+                .description("Claims that found nothing due")
+                .tag("queue", queue)
+                .tag("result", "miss")
+                .register(registry);
+
+        lostHeartbeats = Counter.builder("okra.heartbeat.lost")
+                .description("Heartbeats whose claim was taken over by another node")
+                .tag("queue", queue)
+                .register(registry);
+
+        queueLag = Timer.builder("okra.queue.lag")
+                .description("How long claimed items waited after they became claimable")
+                .tag("queue", queue)
+                .publishPercentileHistogram()
+                .register(registry);
+
+        prefetchHits = Counter.builder("okra.prefetch.poll")
+                .description("Prefetcher polls that found a buffered item")
+                .tag("queue", queue)
+                .tag("result", "hit")
+                .register(registry);
+
+        prefetchMisses = Counter.builder("okra.prefetch.poll")
+                .description("Prefetcher polls that found the buffer empty")
+                .tag("queue", queue)
+                .tag("result", "miss")
+                .register(registry);
+
+        prefetchBufferOccupancy = registry.gauge("okra.prefetch.buffer",
+                Collections.singletonList(Tag.of("queue", queue)), new AtomicInteger());
+    }
+
+    @Override
+    public void recordLatency(final OkraOperation operation, final long nanos) {
+        latencies.get(operation).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordPeek(final boolean hit) {
+        (hit ? peekHits : peekMisses).increment();
+    }
+
+    @Override
+    public void recordLostHeartbeats(final int count) {
+        lostHeartbeats.increment(count);
+    }
+
+    @Override
+    public void recordQueueLag(final long millis) {
+        queueLag.record(Math.max(0, millis), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void recordPrefetchPoll(final boolean hit) {
+        (hit ? prefetchHits : prefetchMisses).increment();
+    }
+
+    @Override
+    public void recordPrefetchBufferOccupancy(final int occupancy) {
+        prefetchBufferOccupancy.set(occupancy);
+    }
+}
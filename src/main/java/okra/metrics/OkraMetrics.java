@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra.metrics;
+
+/**
+ * Receives measurements of {@link okra.OkraSpring}.
+ * <p>
+ * Every method does nothing by default, so implementations only override what they record.
+ * When {@link #NOOP} is configured, Okra doesn't take any measurement at all.
+ */
+public interface OkraMetrics {
+
+    OkraMetrics NOOP = new OkraMetrics() {
+    };
+
+    /**
+     * @param operation the operation
+     * @param nanos     how long the operation took
+     */
+    default void recordLatency(final OkraOperation operation, final long nanos) {
+    }
+
+    /**
+     * @param hit whether a claim returned an item
+     */
+    default void recordPeek(final boolean hit) {
+    }
+
+    /**
+     * @param count how many heartbeats failed because another node took over the claim
+     */
+    default void recordLostHeartbeats(final int count) {
+    }
+
+    /**
+     * @param millis how long a claimed item waited after it became claimable: after its run date,
+     *               or after its heartbeat expired when its claim was taken over
+     */
+    default void recordQueueLag(final long millis) {
+    }
+
+    /**
+     * @param hit whether a poll of a prefetcher found a buffered item
+     */
+    default void recordPrefetchPoll(final boolean hit) {
+    }
+
+    /**
+     * @param occupancy how many claimed items are waiting in a prefetcher buffer
+     */
+    default void recordPrefetchBufferOccupancy(final int occupancy) {
+    }
+}
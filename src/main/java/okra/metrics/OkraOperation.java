@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra.metrics;
+
+/**
+ * Operations of {@link okra.OkraSpring} whose latency is recorded.
+ */
+public enum OkraOperation {
+    PEEK,
+    PEEK_BATCH,
+    PEEK_PROJECTED,
+    POLL,
+    POLL_BATCH,
+    SCHEDULE,
+    SCHEDULE_ALL,
+    RESCHEDULE,
+    HEARTBEAT,
+    HEARTBEAT_ALL,
+    DELETE,
+    DELETE_ALL,
+    COMPLETE,
+    COMPLETE_ALL,
+    FAIL,
+    RELEASE_ALL,
+    COUNT,
+    SNAPSHOT,
+    RECOVER_EXPIRED
+}
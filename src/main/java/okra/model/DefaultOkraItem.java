@@ -23,7 +23,6 @@
 package okra.model;
 
 import lombok.Data;
-import okra.base.model.OkraItem;
 import okra.base.model.OkraStatus;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.index.CompoundIndex;
@@ -35,11 +34,13 @@ import java.time.LocalDateTime;
         {
                 @CompoundIndex(def = "{'runDate':1,'status':1}", name = "i_runDate_status"),
                 @CompoundIndex(def = "{'status':1,'heartbeat':1}", name = "i_status_heartbeat"),
-                @CompoundIndex(def = "{'_id':-1,'status':1,'heartbeat':1}", name = "i_id_heartbeat_status")
+                @CompoundIndex(def = "{'_id':-1,'status':1,'heartbeat':1}", name = "i_id_heartbeat_status"),
+                @CompoundIndex(def = "{'status':1,'priority':-1,'runDate':1}", name = "i_status_priority_runDate"),
+                @CompoundIndex(def = "{'dedupKey':1}", name = "i_dedupKey_unique", unique = true, sparse = true)
         }
 )
 @Data
-public class DefaultOkraItem implements OkraItem {
+public class DefaultOkraItem implements RecurringOkraItem, DeduplicatedOkraItem, RetryableOkraItem {
 
     @Id
     private String id;
@@ -49,4 +50,18 @@ public class DefaultOkraItem implements OkraItem {
     private LocalDateTime runDate;
 
     private OkraStatus status;
+
+    private Integer priority;
+
+    private String recurrence;
+
+    private Integer missedRuns;
+
+    private String dedupKey;
+
+    private String type;
+
+    private Integer attempts;
+
+    private String lastError;
 }
\ No newline at end of file
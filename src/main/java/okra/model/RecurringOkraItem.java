@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra.model;
+
+import okra.base.model.OkraItem;
+
+/**
+ * Item that runs again after being completed, instead of being deleted.
+ * <p>
+ * Completing an item with a recurrence returns the same document to PENDING with its next
+ * run date. Items without a recurrence are completed as usual.
+ *
+ * @see okra.OkraRecurrence
+ * @see okra.OkraSpring#complete(OkraItem)
+ */
+public interface RecurringOkraItem extends OkraItem {
+
+    /**
+     * @return the recurrence spec, see {@link okra.OkraRecurrence#toString()}, or null if the item runs once
+     */
+    String getRecurrence();
+
+    void setRecurrence(String recurrence);
+
+    /**
+     * @return how many runs were merged into the current one by the
+     * {@link okra.CatchUpPolicy#COALESCE} policy, or skipped by {@link okra.CatchUpPolicy#SKIP},
+     * or null if the item never recurred
+     */
+    Integer getMissedRuns();
+
+    void setMissedRuns(Integer missedRuns);
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra.model;
+
+import okra.base.model.OkraItem;
+
+/**
+ * Item that keeps track of its failed attempts, so it's retried with an exponential backoff
+ * and moved to a dead-letter collection once it runs out of attempts.
+ *
+ * @see okra.OkraSpring#fail(OkraItem, String)
+ */
+public interface RetryableOkraItem extends OkraItem {
+
+    /**
+     * @return how many times the item failed, or null if it never failed
+     */
+    Integer getAttempts();
+
+    void setAttempts(Integer attempts);
+
+    /**
+     * @return why the item failed the last time, or null if it never failed
+     */
+    String getLastError();
+
+    void setLastError(String lastError);
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import okra.base.model.OkraStatus;
+import okra.builder.OkraSpringBuilder;
+import okra.exception.OkraRuntimeException;
+import okra.model.DefaultOkraItem;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AcknowledgementTest extends OkraBaseContainerTest {
+
+    @Test
+    public void shouldDeleteAllItemsAtOnce() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder();
+        builder.withCollection("deleteAllSchedulerCollection");
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+
+        okra.scheduleAll(dueItems(10));
+        final List<DefaultOkraItem> claimed = okra.peekBatch(10);
+
+        assertThat(okra.deleteAll(claimed)).isEqualTo(10);
+        assertThat(okra.snapshot().getTotal()).isZero();
+    }
+
+    @Test
+    public void shouldKeepCompletedItemsWhenRetentionIsConfigured() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withCompletedRetention(1, TimeUnit.DAYS)
+                .withAckBuffer(4, 1, TimeUnit.HOURS);
+        builder.withCollection("completedSchedulerCollection");
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+
+        okra.scheduleAll(dueItems(10));
+        final List<DefaultOkraItem> claimed = okra.peekBatch(10);
+
+        try (OkraAckBuffer<DefaultOkraItem> ackBuffer = okra.ackBuffer()) {
+            claimed.forEach(ackBuffer::ack);
+            assertThat(ackBuffer.getPending()).isEqualTo(2);
+        }
+
+        final QueueStats stats = okra.snapshot();
+        assertThat(stats.getCount(OkraFinalStatus.DONE)).isEqualTo(10);
+        assertThat(stats.getTotal()).isEqualTo(10);
+        assertThat(okra.peek().isPresent()).isFalse();
+    }
+
+    @Test
+    public void shouldKeepCompletedItemsReadableAndFinished() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withCompletedRetention(1, TimeUnit.DAYS);
+        builder.withCollection("finishedSchedulerCollection");
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+
+        okra.scheduleAll(dueItems(1));
+        final DefaultOkraItem claimed = okra.peek().orElseThrow(IllegalStateException::new);
+        okra.complete(claimed);
+
+        final List<DefaultOkraItem> stored = okra.getMongoTemplate()
+                .findAll(DefaultOkraItem.class, "finishedSchedulerCollection");
+        assertThat(stored).hasSize(1);
+        assertThat(stored.get(0).getStatus()).isNull();
+
+        assertThat(okra.reschedule(claimed).isPresent()).isFalse();
+
+        final QueueStats stats = okra.snapshot();
+        assertThat(stats.getCount(OkraFinalStatus.DONE)).isEqualTo(1);
+        assertThat(stats.getCount(OkraStatus.PENDING)).isZero();
+    }
+
+    @Test(expected = OkraRuntimeException.class)
+    public void shouldRejectAcknowledgementsOnceClosed() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withAckBuffer(4, 1, TimeUnit.HOURS);
+        builder.withCollection("closedAckSchedulerCollection");
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+
+        okra.scheduleAll(dueItems(1));
+        final DefaultOkraItem claimed = okra.peek().orElseThrow(IllegalStateException::new);
+
+        final OkraAckBuffer<DefaultOkraItem> ackBuffer = okra.ackBuffer();
+        ackBuffer.close();
+        ackBuffer.ack(claimed);
+    }
+
+    @Test
+    public void shouldNotCompleteItemsWhoseClaimWasLost() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withCompletedRetention(1, TimeUnit.DAYS);
+        builder.withCollection("lostClaimCompletedSchedulerCollection");
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+
+        okra.scheduleAll(dueItems(2));
+        final List<DefaultOkraItem> claimed = okra.peekBatch(2);
+        final DefaultOkraItem stale = claimed.get(0);
+        final DefaultOkraItem owned = claimed.get(1);
+        okra.heartbeat(stale).orElseThrow(IllegalStateException::new);
+
+        okra.complete(stale);
+        assertThat(okra.snapshot().getCount(OkraFinalStatus.DONE)).isZero();
+
+        assertThat(okra.completeAll(Arrays.asList(stale, owned))).isEqualTo(1);
+
+        final QueueStats stats = okra.snapshot();
+        assertThat(stats.getCount(OkraFinalStatus.DONE)).isEqualTo(1);
+        assertThat(stats.getCount(OkraStatus.PROCESSING)).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotDeleteItemsWhoseClaimWasLost() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder();
+        builder.withCollection("lostClaimDeletedSchedulerCollection");
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+
+        okra.scheduleAll(dueItems(2));
+        final List<DefaultOkraItem> claimed = okra.peekBatch(2);
+        okra.heartbeat(claimed.get(0)).orElseThrow(IllegalStateException::new);
+
+        assertThat(okra.completeAll(claimed)).isEqualTo(1);
+        assertThat(okra.snapshot().getCount(OkraStatus.PROCESSING)).isEqualTo(1);
+    }
+
+    private static List<DefaultOkraItem> dueItems(final int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> {
+                    final DefaultOkraItem item = new DefaultOkraItem();
+                    item.setRunDate(LocalDateTime.now().minusSeconds(1));
+                    return item;
+                })
+                .collect(Collectors.toList());
+    }
+}
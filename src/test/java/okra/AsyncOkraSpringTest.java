@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import okra.base.model.OkraStatus;
+import okra.builder.OkraSpringBuilder;
+import okra.exception.OkraRuntimeException;
+import okra.model.DefaultOkraItem;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AsyncOkraSpringTest extends OkraBaseContainerTest {
+
+    @Test
+    public void shouldCompleteWithTheClaimedItem() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            final AsyncOkraSpring<DefaultOkraItem> okra = asyncOkra("asyncSchedulerCollection", executor);
+
+            final DefaultOkraItem item = new DefaultOkraItem();
+            item.setRunDate(LocalDateTime.now().minusSeconds(1));
+            okra.schedule(item).get(10, TimeUnit.SECONDS);
+
+            final Optional<DefaultOkraItem> claimed = okra.peek().get(10, TimeUnit.SECONDS);
+
+            assertThat(claimed).isPresent();
+            assertThat(claimed.get().getId()).isEqualTo(item.getId());
+            assertThat(claimed.get().getStatus()).isEqualTo(OkraStatus.PROCESSING);
+            assertThat(okra.peekBatch(10).get(10, TimeUnit.SECONDS)).isEmpty();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldCompleteExceptionallyWhenTheOperationFails() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            final AsyncOkraSpring<DefaultOkraItem> okra = asyncOkra("failingAsyncSchedulerCollection", executor);
+
+            final CompletableFuture<Void> scheduled = okra.schedule(new DefaultOkraItem());
+
+            assertThatThrownBy(() -> scheduled.get(10, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(OkraRuntimeException.class);
+            assertThat(scheduled.isCompletedExceptionally()).isTrue();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldRunEveryOperationOnTheExecutor() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor(
+                runnable -> new Thread(runnable, "okra-async-test"));
+        final List<String> threads = new CopyOnWriteArrayList<>();
+
+        try {
+            final AsyncOkraSpring<DefaultOkraItem> okra = asyncOkra("executorAsyncSchedulerCollection",
+                    command -> executor.execute(() -> {
+                        threads.add(Thread.currentThread().getName());
+                        command.run();
+                    }));
+
+            final DefaultOkraItem item = new DefaultOkraItem();
+            item.setRunDate(LocalDateTime.now().minusSeconds(1));
+            okra.schedule(item).get(10, TimeUnit.SECONDS);
+            okra.peek().get(10, TimeUnit.SECONDS);
+
+            assertThat(threads).containsExactly("okra-async-test", "okra-async-test");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private AsyncOkraSpring<DefaultOkraItem> asyncOkra(final String collection,
+                                                       final Executor executor) throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder();
+        builder.withCollection(collection);
+        return builder.buildAsync(executor);
+    }
+}
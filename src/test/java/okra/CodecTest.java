@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import com.mongodb.DBObject;
+import okra.base.model.OkraStatus;
+import okra.builder.OkraSpringBuilder;
+import okra.codec.DefaultOkraItemCodec;
+import okra.model.DefaultOkraItem;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CodecTest extends OkraBaseContainerTest {
+
+    @Test
+    public void shouldClaimAndHeartbeatThroughTheCodec() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = okra("codecSchedulerCollection", true);
+
+        final LocalDateTime runDate = LocalDateTime.now().minusSeconds(1).truncatedTo(ChronoUnit.MILLIS);
+        final DefaultOkraItem item = new DefaultOkraItem();
+        item.setRunDate(runDate);
+        item.setPriority(3);
+        item.setType("mail");
+        okra.schedule(item);
+
+        final DefaultOkraItem claimed = okra.peek().orElseThrow(IllegalStateException::new);
+
+        assertThat(claimed.getId()).isEqualTo(item.getId());
+        assertThat(claimed.getStatus()).isEqualTo(OkraStatus.PROCESSING);
+        assertThat(claimed.getRunDate()).isEqualTo(runDate);
+        assertThat(claimed.getPriority()).isEqualTo(3);
+        assertThat(claimed.getType()).isEqualTo("mail");
+        assertThat(okra.heartbeat(claimed).isPresent()).isTrue();
+    }
+
+    @Test
+    public void shouldShareCollectionsWithMappedInstances() throws Exception {
+        final OkraSpring<DefaultOkraItem> mapped = okra("sharedCodecSchedulerCollection", false);
+        final OkraSpring<DefaultOkraItem> encoded = okra("sharedCodecSchedulerCollection", true);
+
+        final DefaultOkraItem mappedItem = new DefaultOkraItem();
+        mappedItem.setRunDate(LocalDateTime.now().minusSeconds(1));
+        mappedItem.setDedupKey("mapped");
+        mapped.schedule(mappedItem);
+
+        final DefaultOkraItem decoded = encoded.peek().orElseThrow(IllegalStateException::new);
+        assertThat(decoded.getId()).isEqualTo(mappedItem.getId());
+        assertThat(decoded.getDedupKey()).isEqualTo("mapped");
+
+        final DefaultOkraItem encodedItem = new DefaultOkraItem();
+        encodedItem.setRunDate(LocalDateTime.now().minusSeconds(1));
+        encodedItem.setDedupKey("encoded");
+        encoded.schedule(encodedItem);
+
+        final DefaultOkraItem read = mapped.peek().orElseThrow(IllegalStateException::new);
+        assertThat(read.getId()).isEqualTo(encodedItem.getId());
+        assertThat(read.getDedupKey()).isEqualTo("encoded");
+        assertThat(mapped.heartbeat(read).isPresent()).isTrue();
+    }
+
+    @Test
+    public void shouldNotWriteUnsetCounters() {
+        final DefaultOkraItem item = new DefaultOkraItem();
+        item.setRunDate(LocalDateTime.now());
+
+        final DBObject document = DefaultOkraItemCodec.create().encode(item);
+        assertThat(document.containsField("priority")).isFalse();
+        assertThat(document.containsField("missedRuns")).isFalse();
+        assertThat(document.containsField("attempts")).isFalse();
+
+        final DefaultOkraItem decoded = DefaultOkraItemCodec.create().decode(document);
+        assertThat(decoded.getPriority()).isNull();
+        assertThat(decoded.getMissedRuns()).isNull();
+        assertThat(decoded.getAttempts()).isNull();
+    }
+
+    private OkraSpring<DefaultOkraItem> okra(final String collection, final boolean codec) throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder();
+
+        if (codec) {
+            builder.withCodec(DefaultOkraItemCodec.create());
+        }
+
+        builder.withCollection(collection);
+        return builder.build();
+    }
+}
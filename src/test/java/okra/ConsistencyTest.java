@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import okra.base.model.OkraStatus;
+import okra.builder.OkraSpringBuilder;
+import okra.model.DefaultOkraItem;
+import org.junit.Test;
+import org.springframework.dao.DataAccessException;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConsistencyTest extends OkraBaseContainerTest {
+
+    @Test
+    public void shouldRunTheItemLifecycleWithMajorityWrites() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = okra("majoritySchedulerCollection",
+                OkraConsistency.majority().withReadPreference(ReadPreference.secondaryPreferred()));
+
+        final DefaultOkraItem item = new DefaultOkraItem();
+        item.setRunDate(LocalDateTime.now().minusSeconds(1));
+        okra.schedule(item);
+        assertThat(okra.countByStatus(OkraStatus.PENDING)).isEqualTo(1);
+
+        final DefaultOkraItem claimed = okra.peek().orElseThrow(IllegalStateException::new);
+        assertThat(claimed.getId()).isEqualTo(item.getId());
+        assertThat(claimed.getStatus()).isEqualTo(OkraStatus.PROCESSING);
+
+        final DefaultOkraItem heartbeated = okra.heartbeat(claimed).orElseThrow(IllegalStateException::new);
+        assertThat(okra.heartbeatAll(Collections.singletonList(heartbeated))).isEmpty();
+
+        heartbeated.setRunDate(LocalDateTime.now().minusSeconds(1));
+        okra.reschedule(heartbeated);
+        assertThat(okra.poll().map(DefaultOkraItem::getId)).contains(item.getId());
+        assertThat(okra.countByStatus(OkraStatus.PENDING)).isZero();
+    }
+
+    @Test
+    public void shouldHeartbeatWithTheFastHeartbeatsProfile() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = okra("fastHeartbeatSchedulerCollection",
+                OkraConsistency.fastHeartbeats());
+
+        final DefaultOkraItem item = new DefaultOkraItem();
+        item.setRunDate(LocalDateTime.now().minusSeconds(1));
+        okra.schedule(item);
+
+        final DefaultOkraItem claimed = okra.peek().orElseThrow(IllegalStateException::new);
+        final DefaultOkraItem heartbeated = okra.heartbeat(claimed).orElseThrow(IllegalStateException::new);
+
+        assertThat(heartbeated.getHeartbeat()).isNotEqualTo(claimed.getHeartbeat());
+        assertThat(okra.heartbeat(claimed).isPresent()).isFalse();
+
+        okra.delete(heartbeated);
+        assertThat(okra.countByStatus(OkraStatus.PROCESSING)).isZero();
+    }
+
+    /*
+     * A standalone server refuses w:2, so only the kind of write configured with it fails
+     */
+
+    @Test(expected = DataAccessException.class)
+    public void shouldWriteSchedulesWithTheirWriteConcern() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = okra("scheduleConcernSchedulerCollection",
+                OkraConsistency.defaults().withWriteConcern(OkraWrite.SCHEDULE, new WriteConcern(2)));
+
+        final DefaultOkraItem item = new DefaultOkraItem();
+        item.setRunDate(LocalDateTime.now().minusSeconds(1));
+        okra.schedule(item);
+    }
+
+    @Test(expected = DataAccessException.class)
+    public void shouldClaimWithTheClaimWriteConcern() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = okra("claimConcernSchedulerCollection",
+                OkraConsistency.defaults().withWriteConcern(OkraWrite.CLAIM, new WriteConcern(2)));
+
+        final DefaultOkraItem item = new DefaultOkraItem();
+        item.setRunDate(LocalDateTime.now().minusSeconds(1));
+        okra.schedule(item);
+        assertThat(okra.countByStatus(OkraStatus.PENDING)).isEqualTo(1);
+
+        okra.peek();
+    }
+
+    @Test(expected = DataAccessException.class)
+    public void shouldHeartbeatWithTheHeartbeatWriteConcern() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = okra("heartbeatConcernSchedulerCollection",
+                OkraConsistency.defaults().withWriteConcern(OkraWrite.HEARTBEAT, new WriteConcern(2)));
+
+        final DefaultOkraItem item = new DefaultOkraItem();
+        item.setRunDate(LocalDateTime.now().minusSeconds(1));
+        okra.schedule(item);
+
+        final DefaultOkraItem claimed = okra.peek().orElseThrow(IllegalStateException::new);
+        okra.heartbeatAll(Collections.singletonList(claimed));
+    }
+
+    @Test(expected = DataAccessException.class)
+    public void shouldRescheduleWithTheRescheduleWriteConcern() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = okra("rescheduleConcernSchedulerCollection",
+                OkraConsistency.defaults().withWriteConcern(OkraWrite.RESCHEDULE, new WriteConcern(2)));
+
+        final DefaultOkraItem item = new DefaultOkraItem();
+        item.setRunDate(LocalDateTime.now().minusSeconds(1));
+        okra.schedule(item);
+
+        final DefaultOkraItem claimed = okra.peek().orElseThrow(IllegalStateException::new);
+        final DefaultOkraItem heartbeated = okra.heartbeat(claimed).orElseThrow(IllegalStateException::new);
+        okra.reschedule(heartbeated);
+    }
+
+    @Test
+    public void shouldReadStatisticsWithTheReadPreferenceOfTheProfile() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withStatsReadPreference(ReadPreference.primaryPreferred())
+                .withConsistency(OkraConsistency.defaults().withReadPreference(ReadPreference.secondary()));
+        builder.withCollection("readPreferenceSchedulerCollection");
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+
+        assertThat(okra.getStatsReadPreference()).isEqualTo(ReadPreference.secondary());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRefuseUnacknowledgedClaims() {
+        OkraConsistency.defaults().withWriteConcern(OkraWrite.CLAIM, WriteConcern.UNACKNOWLEDGED);
+    }
+
+    private OkraSpring<DefaultOkraItem> okra(final String collection,
+                                             final OkraConsistency consistency) throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withPollMode(PollMode.PEEK_AND_REMOVE)
+                .withConsistency(consistency);
+        builder.withCollection(collection);
+        return builder.build();
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import com.mongodb.MongoClient;
+import okra.base.model.OkraItem;
+import okra.base.model.OkraStatus;
+import okra.builder.OkraSpringBuilder;
+import okra.model.DefaultOkraItem;
+import org.junit.Test;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.time.LocalDateTime;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConsumerTest extends OkraBaseContainerTest {
+
+    @Test
+    public void shouldHandleAndAcknowledgeEveryItem() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withConsumerParallelism(4)
+                .withIdleBackoff(10, 100, TimeUnit.MILLISECONDS);
+        builder.withCollection("consumerSchedulerCollection");
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+
+        final CountDownLatch handled = new CountDownLatch(20);
+        final Set<String> handledIds = ConcurrentHashMap.newKeySet();
+
+        for (int i = 0; i < 20; i++) {
+            final DefaultOkraItem item = new DefaultOkraItem();
+            item.setRunDate(LocalDateTime.now().minusSeconds(1));
+            okra.schedule(item);
+        }
+
+        try (OkraConsumer<DefaultOkraItem> ignored = okra.consumer(item -> {
+            handledIds.add(item.getId());
+            handled.countDown();
+            return OkraResult.done();
+        })) {
+            assertThat(handled.await(10, TimeUnit.SECONDS)).isTrue();
+        }
+
+        assertThat(handledIds).hasSize(20);
+        assertThat(okra.peek().isPresent()).isFalse();
+    }
+
+    @Test
+    public void shouldHandleItemsWithASubMillisecondIdleBackoff() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withIdleBackoff(500, 900, TimeUnit.MICROSECONDS);
+        builder.withCollection("subMillisecondBackoffSchedulerCollection");
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+        final CountDownLatch handled = new CountDownLatch(1);
+
+        try (OkraConsumer<DefaultOkraItem> ignored = okra.consumer(item -> {
+            handled.countDown();
+            return OkraResult.done();
+        })) {
+            Thread.sleep(50);
+
+            final DefaultOkraItem item = new DefaultOkraItem();
+            item.setRunDate(LocalDateTime.now().minusSeconds(1));
+            okra.schedule(item);
+
+            assertThat(handled.await(10, TimeUnit.SECONDS)).isTrue();
+        }
+    }
+
+    @Test
+    public void shouldNotReleaseItemsWhoseClaimWasLost() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withIdleBackoff(10, 100, TimeUnit.MILLISECONDS);
+        builder.withCollection("lostClaimConsumerSchedulerCollection");
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+        final CountDownLatch handled = new CountDownLatch(1);
+
+        final DefaultOkraItem item = new DefaultOkraItem();
+        item.setRunDate(LocalDateTime.now().minusSeconds(1));
+        okra.schedule(item);
+
+        try (OkraConsumer<DefaultOkraItem> ignored = okra.consumer(claimed -> {
+            // another node takes the claim over: the stored heartbeat is no longer ours
+            okra.heartbeat(claimed);
+            handled.countDown();
+            return OkraResult.release();
+        })) {
+            assertThat(handled.await(10, TimeUnit.SECONDS)).isTrue();
+        }
+
+        assertThat(okra.countByStatus(OkraStatus.PROCESSING)).isEqualTo(1);
+        assertThat(okra.countByStatus(OkraStatus.PENDING)).isZero();
+    }
+
+    @Test
+    public void shouldRecordTheFailureOfFailedItems() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withIdleBackoff(10, 100, TimeUnit.MILLISECONDS)
+                .withFailureBackoff(1, 1, TimeUnit.HOURS);
+        builder.withCollection("failingConsumerSchedulerCollection");
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+
+        final DefaultOkraItem item = new DefaultOkraItem();
+        item.setRunDate(LocalDateTime.now().minusSeconds(1));
+        okra.schedule(item);
+
+        final CountDownLatch handled = new CountDownLatch(1);
+
+        try (OkraConsumer<DefaultOkraItem> ignored = okra.consumer(claimed -> {
+            handled.countDown();
+            return OkraResult.fail("boom");
+        })) {
+            assertThat(handled.await(10, TimeUnit.SECONDS)).isTrue();
+
+            DefaultOkraItem stored = null;
+
+            for (int i = 0; i < 100 && (stored == null || stored.getAttempts() == null); i++) {
+                Thread.sleep(100);
+                stored = okra.getMongoTemplate()
+                        .findById(item.getId(), DefaultOkraItem.class, "failingConsumerSchedulerCollection");
+            }
+
+            assertThat(stored.getAttempts()).isEqualTo(1);
+            assertThat(stored.getLastError()).isEqualTo("boom");
+            assertThat(stored.getStatus()).isEqualTo(OkraStatus.PENDING);
+        }
+    }
+
+    @Test
+    public void shouldReleaseFailedItemsThatDontKeepTrackOfTheirAttempts() throws Exception {
+        final MongoClient client = new MongoClient(
+                mongoContainer.getContainerIpAddress(),
+                mongoContainer.getMappedPort(27017));
+        final OkraSpringBuilder<PlainOkraItem> builder = new OkraSpringBuilder<PlainOkraItem>()
+                .withMongoTemplate(new MongoTemplate(client, "okraBenchmark"))
+                .withIdleBackoff(10, 100, TimeUnit.MILLISECONDS);
+        builder.withDatabase("okraSpringTests")
+                .withCollection("plainFailingConsumerSchedulerCollection")
+                .withExpiration(5, TimeUnit.MINUTES)
+                .withItemClass(PlainOkraItem.class);
+        final OkraSpring<PlainOkraItem> okra = builder.build();
+
+        final PlainOkraItem item = new PlainOkraItem();
+        item.setRunDate(LocalDateTime.now().minusSeconds(1));
+        okra.schedule(item);
+
+        final CountDownLatch handledTwice = new CountDownLatch(2);
+        final AtomicReference<String> handledId = new AtomicReference<>();
+
+        try (OkraConsumer<PlainOkraItem> ignored = okra.consumer(claimed -> {
+            handledId.set(claimed.getId());
+            handledTwice.countDown();
+            return OkraResult.fail("boom");
+        })) {
+            assertThat(handledTwice.await(10, TimeUnit.SECONDS)).isTrue();
+        }
+
+        assertThat(handledId.get()).isEqualTo(item.getId());
+    }
+
+    /**
+     * Item that doesn't keep track of its failed attempts
+     */
+    public static class PlainOkraItem implements OkraItem {
+
+        @Id
+        private String id;
+
+        private LocalDateTime heartbeat;
+
+        private LocalDateTime runDate;
+
+        private OkraStatus status;
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(final String id) {
+            this.id = id;
+        }
+
+        @Override
+        public LocalDateTime getHeartbeat() {
+            return heartbeat;
+        }
+
+        @Override
+        public void setHeartbeat(final LocalDateTime heartbeat) {
+            this.heartbeat = heartbeat;
+        }
+
+        @Override
+        public LocalDateTime getRunDate() {
+            return runDate;
+        }
+
+        @Override
+        public void setRunDate(final LocalDateTime runDate) {
+            this.runDate = runDate;
+        }
+
+        @Override
+        public OkraStatus getStatus() {
+            return status;
+        }
+
+        @Override
+        public void setStatus(final OkraStatus status) {
+            this.status = status;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import okra.base.model.OkraStatus;
+import okra.builder.OkraSpringBuilder;
+import okra.model.DefaultOkraItem;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DeduplicationTest extends OkraBaseContainerTest {
+
+    @Test
+    public void shouldKeepTheEarliestRunDate() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = dedupOkra("dedupSchedulerCollection");
+
+        final LocalDateTime earliest = LocalDateTime.now().plusMinutes(1).truncatedTo(ChronoUnit.MILLIS);
+        final DefaultOkraItem first = keyedItem("job-1", earliest.plusMinutes(10));
+        final DefaultOkraItem retry = keyedItem("job-1", earliest);
+
+        assertThat(okra.scheduleIfAbsent(first)).isTrue();
+        assertThat(okra.scheduleIfAbsent(retry)).isFalse();
+
+        assertThat(retry.getId()).isEqualTo(first.getId());
+        assertThat(retry.getRunDate()).isEqualTo(earliest);
+        assertThat(okra.countByStatus(OkraStatus.PENDING)).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldReplaceThePendingItem() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = dedupOkra("replaceSchedulerCollection");
+
+        final DefaultOkraItem first = keyedItem("job-1", LocalDateTime.now().minusSeconds(1));
+        final DefaultOkraItem update = keyedItem("job-1", LocalDateTime.now().minusSeconds(1));
+        update.setPriority(5);
+
+        assertThat(okra.scheduleOrUpdate(first)).isTrue();
+        assertThat(okra.scheduleOrUpdate(update)).isFalse();
+        assertThat(update.getId()).isEqualTo(first.getId());
+
+        final DefaultOkraItem claimed = okra.peek().orElseThrow(IllegalStateException::new);
+        assertThat(claimed.getPriority()).isEqualTo(5);
+        assertThat(okra.peek().isPresent()).isFalse();
+    }
+
+    @Test
+    public void shouldRemoveTheFieldsTheReplacingItemDoesNotHave() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = dedupOkra("replaceFieldsSchedulerCollection");
+
+        final DefaultOkraItem first = keyedItem("job-1", LocalDateTime.now().minusSeconds(1));
+        first.setType("report");
+        first.setLastError("timeout");
+        final DefaultOkraItem update = keyedItem("job-1", LocalDateTime.now().minusSeconds(1));
+
+        assertThat(okra.scheduleOrUpdate(first)).isTrue();
+        assertThat(okra.scheduleOrUpdate(update)).isFalse();
+
+        final DefaultOkraItem claimed = okra.peek().orElseThrow(IllegalStateException::new);
+        assertThat(claimed.getId()).isEqualTo(first.getId());
+        assertThat(claimed.getType()).isNull();
+        assertThat(claimed.getLastError()).isNull();
+    }
+
+    @Test
+    public void shouldDeduplicateAgainstItemsBeingProcessed() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = dedupOkra("processingDedupSchedulerCollection");
+
+        assertThat(okra.scheduleIfAbsent(keyedItem("job-1", LocalDateTime.now().minusSeconds(1)))).isTrue();
+        final DefaultOkraItem claimed = okra.peek().orElseThrow(IllegalStateException::new);
+
+        final DefaultOkraItem retry = keyedItem("job-1", LocalDateTime.now());
+        assertThat(okra.scheduleIfAbsent(retry)).isFalse();
+        assertThat(retry.getId()).isNull();
+
+        okra.complete(claimed);
+        assertThat(okra.scheduleIfAbsent(keyedItem("job-1", LocalDateTime.now()))).isTrue();
+    }
+
+    @Test
+    public void shouldReportDeduplicatedItemsOfBulkSchedules() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = dedupOkra("bulkDedupSchedulerCollection");
+        okra.scheduleIfAbsent(keyedItem("job-2", LocalDateTime.now()));
+
+        final DefaultOkraItem first = keyedItem("job-1", LocalDateTime.now());
+        final DefaultOkraItem duplicate = keyedItem("job-1", LocalDateTime.now());
+        final DefaultOkraItem existing = keyedItem("job-2", LocalDateTime.now());
+
+        final ScheduleResult<DefaultOkraItem> result = okra.scheduleAll(
+                Arrays.asList(first, duplicate, existing), DedupMode.KEEP_EARLIEST);
+
+        assertThat(result.getAccepted()).isEqualTo(1);
+        assertThat(result.getDeduplicated()).containsOnly(duplicate, existing);
+        assertThat(result.getRejected()).isZero();
+        assertThat(first.getId()).isNotNull();
+        assertThat(okra.countByStatus(OkraStatus.PENDING)).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldReportReplacedItemsOfBulkSchedulesWithTheirIds() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = dedupOkra("bulkReplaceSchedulerCollection");
+        final DefaultOkraItem pending = keyedItem("job-1", LocalDateTime.now());
+        okra.scheduleOrUpdate(pending);
+
+        final DefaultOkraItem update = keyedItem("job-1", LocalDateTime.now());
+        final DefaultOkraItem fresh = keyedItem("job-2", LocalDateTime.now());
+
+        final ScheduleResult<DefaultOkraItem> result = okra.scheduleAll(
+                Arrays.asList(update, fresh), DedupMode.REPLACE);
+
+        assertThat(result.getAccepted()).isEqualTo(1);
+        assertThat(result.getUpdated()).containsOnly(update);
+        assertThat(result.getDeduplicated()).isEmpty();
+        assertThat(update.getId()).isEqualTo(pending.getId());
+        assertThat(fresh.getId()).isNotNull();
+        assertThat(okra.countByStatus(OkraStatus.PENDING)).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldReportBulkItemsWhoseKeyIsBeingProcessed() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = dedupOkra("bulkProcessingSchedulerCollection");
+        okra.scheduleIfAbsent(keyedItem("job-1", LocalDateTime.now().minusSeconds(1)));
+        okra.peek().orElseThrow(IllegalStateException::new);
+
+        final DefaultOkraItem retry = keyedItem("job-1", LocalDateTime.now());
+
+        final ScheduleResult<DefaultOkraItem> result = okra.scheduleAll(
+                Arrays.asList(retry), DedupMode.REPLACE);
+
+        assertThat(result.getAccepted()).isZero();
+        assertThat(result.getInProgress()).containsOnly(retry);
+        assertThat(result.getUpdated()).isEmpty();
+        assertThat(result.getRejected()).isZero();
+        assertThat(retry.getId()).isNull();
+    }
+
+    private OkraSpring<DefaultOkraItem> dedupOkra(final String collection) throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withDeduplication();
+        builder.withCollection(collection);
+        return builder.build();
+    }
+
+    private static DefaultOkraItem keyedItem(final String dedupKey, final LocalDateTime runDate) {
+        final DefaultOkraItem item = new DefaultOkraItem();
+        item.setDedupKey(dedupKey);
+        item.setRunDate(runDate);
+        return item;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import okra.base.spring.AbstractOkraSpring;
+import okra.builder.EmbeddedOkraBuilder;
+import okra.model.DefaultOkraItem;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.concurrent.TimeUnit;
+
+public class EmbeddedOkraContractTest extends OkraContractTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Override
+    protected AbstractOkraSpring<DefaultOkraItem> createOkra(final long expiration,
+                                                             final TimeUnit expirationUnit) throws Exception {
+        final EmbeddedOkraBuilder<DefaultOkraItem> builder = new EmbeddedOkraBuilder<DefaultOkraItem>()
+                .withDirectory(folder.newFolder().toPath());
+
+        builder.withDatabase("okraEmbeddedTests")
+                .withCollection("schedulerCollection")
+                .withExpiration(expiration, expirationUnit)
+                .withItemClass(DefaultOkraItem.class);
+
+        return builder.build();
+    }
+
+    @Override
+    protected void complete(final AbstractOkraSpring<DefaultOkraItem> okra, final DefaultOkraItem item) {
+        ((EmbeddedOkra<DefaultOkraItem>) okra).complete(item);
+    }
+
+    @Override
+    protected boolean release(final AbstractOkraSpring<DefaultOkraItem> okra, final DefaultOkraItem item) {
+        return ((EmbeddedOkra<DefaultOkraItem>) okra).release(item);
+    }
+
+    @Override
+    protected void closeOkra(final AbstractOkraSpring<DefaultOkraItem> okra) {
+        ((EmbeddedOkra<DefaultOkraItem>) okra).close();
+    }
+}
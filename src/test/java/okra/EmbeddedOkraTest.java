@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import okra.base.model.OkraStatus;
+import okra.builder.EmbeddedOkraBuilder;
+import okra.exception.OkraRuntimeException;
+import okra.model.DefaultOkraItem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EmbeddedOkraTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private EmbeddedOkra<DefaultOkraItem> okra;
+
+    @Before
+    public void setUp() {
+        okra = prepareEmbeddedOkraBuilder().build();
+    }
+
+    @After
+    public void tearDown() {
+        okra.close();
+    }
+
+    @Test(expected = OkraRuntimeException.class)
+    public void shouldNotScheduleIfRunDateIsNull() {
+        okra.schedule(new DefaultOkraItem());
+    }
+
+    @Test(expected = OkraRuntimeException.class)
+    public void shouldNotScheduleIfIdIsNotNull() {
+        final DefaultOkraItem item = new DefaultOkraItem();
+        item.setId("123456");
+        item.setRunDate(LocalDateTime.now());
+        okra.schedule(item);
+    }
+
+    @Test
+    public void shouldScheduleAllValidItemsAndReportRejectedOnes() {
+        final List<DefaultOkraItem> items = new ArrayList<>();
+
+        for (int i = 0; i < 2500; i++) {
+            items.add(item(LocalDateTime.now().plusHours(1)));
+        }
+
+        final DefaultOkraItem invalidItem = new DefaultOkraItem();
+        items.add(invalidItem);
+
+        final ScheduleResult<DefaultOkraItem> result = okra.scheduleAll(items);
+
+        assertThat(result.getAccepted()).isEqualTo(2500);
+        assertThat(result.getRejected()).isEqualTo(1);
+        assertThat(result.getFailures().get(0).getItem()).isSameAs(invalidItem);
+        assertThat(okra.countByStatus(OkraStatus.PENDING)).isEqualTo(2500);
+        assertThat(okra.peek().isPresent()).isFalse();
+    }
+
+    @Test
+    public void ensurePollDoesntRetrieveTheSameItemTwice() {
+        okra.schedule(item(LocalDateTime.now().minusNanos(100)));
+        okra.schedule(item(LocalDateTime.now().minusNanos(100)));
+
+        final DefaultOkraItem first = okra.poll().orElseThrow(IllegalStateException::new);
+        final DefaultOkraItem second = okra.poll().orElseThrow(IllegalStateException::new);
+
+        assertThat(first.getId()).isNotEqualTo(second.getId());
+        assertThat(okra.poll().isPresent()).isFalse();
+        assertThat(okra.countByStatus(OkraStatus.PENDING)).isZero();
+    }
+
+    @Test
+    public void ensureHeartbeatRefreshesTheClaim() {
+        okra.schedule(item(LocalDateTime.now().minusSeconds(1)));
+
+        final DefaultOkraItem item = okra.peek().orElseThrow(IllegalStateException::new);
+        assertThat(item.getStatus()).isEqualTo(OkraStatus.PROCESSING);
+        assertThat(item.getHeartbeat()).isNotNull();
+
+        final DefaultOkraItem heartbeated = okra.heartbeat(item).orElseThrow(IllegalStateException::new);
+        assertThat(heartbeated.getHeartbeat()).isAfter(item.getHeartbeat());
+
+        // The first heartbeat is outdated, so the claim is no longer ours
+
+        assertThat(okra.heartbeat(item).isPresent()).isFalse();
+        assertThat(okra.heartbeatAll(Arrays.asList(heartbeated, item))).containsExactly(item);
+    }
+
+    @Test
+    public void ensureConcurrentBatchPollsDontRetrieveTheSameItemTwice() throws Exception {
+        final Set<String> scheduledIds = new HashSet<>();
+
+        for (int i = 0; i < 1000; i++) {
+            final DefaultOkraItem item = item(LocalDateTime.now().minusNanos(100));
+            okra.schedule(item);
+            scheduledIds.add(item.getId());
+        }
+
+        final Callable<List<String>> claimer = () -> {
+            final List<String> claimed = new ArrayList<>();
+            List<DefaultOkraItem> batch;
+            while (!(batch = okra.peekBatch(7)).isEmpty()) {
+                claimed.addAll(batch.stream().map(DefaultOkraItem::getId).collect(Collectors.toList()));
+            }
+            return claimed;
+        };
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        final List<Future<List<String>>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(claimer));
+        }
+
+        final List<String> allClaimed = new ArrayList<>();
+        for (final Future<List<String>> future : futures) {
+            allClaimed.addAll(future.get());
+        }
+
+        executor.shutdown();
+
+        assertThat(allClaimed).doesNotHaveDuplicates();
+        assertThat(new HashSet<>(allClaimed)).isEqualTo(scheduledIds);
+    }
+
+    @Test
+    public void shouldSurviveARestart() {
+        okra.schedule(item(LocalDateTime.now().minusSeconds(1)));
+        okra.schedule(item(LocalDateTime.now().plusHours(1)));
+        okra.schedule(item(LocalDateTime.now().minusSeconds(1)));
+
+        final DefaultOkraItem claimed = okra.peek().orElseThrow(IllegalStateException::new);
+        okra.delete(okra.peek().orElseThrow(IllegalStateException::new));
+        okra.close();
+
+        okra = prepareEmbeddedOkraBuilder().build();
+
+        assertThat(okra.countByStatus(OkraStatus.PENDING)).isEqualTo(1);
+        assertThat(okra.countByStatus(OkraStatus.PROCESSING)).isEqualTo(1);
+        assertThat(okra.heartbeat(claimed).isPresent()).isTrue();
+        assertThat(okra.peek().isPresent()).isFalse();
+    }
+
+    @Test
+    public void shouldKeepItemsWhenCompactingTheJournal() {
+        okra.close();
+        final EmbeddedOkraBuilder<DefaultOkraItem> builder = prepareEmbeddedOkraBuilder().withCompactionThreshold(10);
+        okra = builder.build();
+
+        final DefaultOkraItem item = item(LocalDateTime.now().minusSeconds(1));
+        okra.schedule(item);
+        okra.schedule(item(LocalDateTime.now().plusHours(1)));
+
+        for (int i = 0; i < 50; i++) {
+            final DefaultOkraItem claimed = okra.peek().orElseThrow(IllegalStateException::new);
+            claimed.setRunDate(LocalDateTime.now().minusSeconds(1));
+            okra.reschedule(claimed);
+        }
+
+        okra.close();
+        okra = builder.build();
+
+        assertThat(okra.countByStatus(OkraStatus.PENDING)).isEqualTo(2);
+        assertThat(okra.peek().map(DefaultOkraItem::getId)).contains(item.getId());
+    }
+
+    private EmbeddedOkraBuilder<DefaultOkraItem> prepareEmbeddedOkraBuilder() {
+        final EmbeddedOkraBuilder<DefaultOkraItem> builder = new EmbeddedOkraBuilder<DefaultOkraItem>()
+                .withDirectory(folder.getRoot().toPath());
+
+        builder.withDatabase("okraEmbeddedTests")
+                .withCollection("schedulerCollection")
+                .withExpiration(5, TimeUnit.MINUTES)
+                .withItemClass(DefaultOkraItem.class);
+
+        return builder;
+    }
+
+    private static DefaultOkraItem item(final LocalDateTime runDate) {
+        final DefaultOkraItem item = new DefaultOkraItem();
+        item.setRunDate(runDate);
+        return item;
+    }
+}
@@ -22,12 +22,19 @@
  */
 package okra;
 
+import okra.base.model.OkraStatus;
+import okra.builder.OkraSpringBuilder;
 import okra.model.DefaultOkraItem;
 import org.junit.Test;
 
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -58,4 +65,119 @@ public class EnsureHeartbeatTest extends OkraBaseContainerTest {
         assertThat(itemHeartbeat).isNotEqualTo(item);
         assertThat(itemHeartbeat.getHeartbeat()).isNotEqualTo(item.getHeartbeat());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void ensureBulkHeartbeatReportsLostItemsTest() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            final DefaultOkraItem persistedItem = new DefaultOkraItem();
+            persistedItem.setRunDate(LocalDateTime.now().minusSeconds(1));
+            getDefaultOkra().schedule(persistedItem);
+        }
+
+        final DefaultOkraItem item = getDefaultOkra().peek().get();
+        final DefaultOkraItem lostItem = getDefaultOkra().peek().get();
+        final LocalDateTime previousHeartbeat = item.getHeartbeat();
+
+        // Another node took over this claim, so our heartbeat is outdated
+
+        lostItem.setHeartbeat(lostItem.getHeartbeat().minusSeconds(1));
+        Thread.sleep(5);
+
+        final List<DefaultOkraItem> lost = getDefaultOkra().heartbeatAll(Arrays.asList(item, lostItem));
+
+        assertThat(lost).containsExactly(lostItem);
+        assertThat(item.getHeartbeat()).isAfter(previousHeartbeat);
+        assertThat(storedHeartbeat(getDefaultOkra(), item)).isEqualTo(item.getHeartbeat());
+
+        getDefaultOkra().delete(item);
+        getDefaultOkra().delete(lostItem);
+    }
+
+    @Test
+    public void ensureHeartbeatManagerKeepsClaimsAlive() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = heartbeatingOkra("heartbeatManagerSchedulerCollection");
+        scheduleDueItem(okra);
+
+        final DefaultOkraItem item = okra.peek().orElseThrow(IllegalStateException::new);
+        final LocalDateTime claimedHeartbeat = item.getHeartbeat();
+
+        try (OkraHeartbeatManager<DefaultOkraItem> manager = okra.heartbeatManager(lost -> { })) {
+            manager.register(item);
+            Thread.sleep(600);
+
+            assertThat(okra.peek()).isNotPresent();
+            assertThat(manager.getInFlight()).isEqualTo(1);
+            assertThat(storedHeartbeat(okra, item)).isAfter(claimedHeartbeat);
+
+            manager.unregister(item);
+            assertThat(manager.getInFlight()).isZero();
+        }
+    }
+
+    @Test
+    public void ensureHeartbeatManagerHandsOverLostClaims() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = heartbeatingOkra("lostHeartbeatManagerSchedulerCollection");
+        scheduleDueItem(okra);
+
+        final DefaultOkraItem item = okra.peek().orElseThrow(IllegalStateException::new);
+        final BlockingQueue<DefaultOkraItem> lost = new LinkedBlockingQueue<>();
+
+        // Another node took over this claim, so our heartbeat is outdated
+
+        item.setHeartbeat(item.getHeartbeat().minusSeconds(1));
+
+        try (OkraHeartbeatManager<DefaultOkraItem> manager = okra.heartbeatManager(lost::add)) {
+            manager.register(item);
+
+            assertThat(lost.poll(2, TimeUnit.SECONDS)).isSameAs(item);
+            assertThat(manager.getInFlight()).isZero();
+        }
+    }
+
+    @Test
+    public void ensureAcknowledgementsWaitForTheHeartbeatInFlight() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = heartbeatingOkra("ackingHeartbeatManagerSchedulerCollection", 1);
+
+        try (OkraHeartbeatManager<DefaultOkraItem> manager = okra.heartbeatManager(lost -> { })) {
+            for (int i = 0; i < 50; i++) {
+                scheduleDueItem(okra);
+
+                final DefaultOkraItem item = okra.peek().orElseThrow(IllegalStateException::new);
+                manager.register(item);
+                Thread.sleep(ThreadLocalRandom.current().nextInt(4));
+
+                manager.unregister(item);
+                okra.complete(item);
+            }
+        }
+
+        assertThat(okra.countByStatus(OkraStatus.PROCESSING)).isZero();
+        assertThat(okra.countByStatus(OkraStatus.PENDING)).isZero();
+    }
+
+    private OkraSpring<DefaultOkraItem> heartbeatingOkra(final String collection) throws Exception {
+        return heartbeatingOkra(collection, 50);
+    }
+
+    private OkraSpring<DefaultOkraItem> heartbeatingOkra(final String collection,
+                                                         final long intervalMillis) throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withHeartbeatInterval(intervalMillis, TimeUnit.MILLISECONDS);
+        builder.withCollection(collection)
+                .withExpiration(300, TimeUnit.MILLISECONDS);
+        return builder.build();
+    }
+
+    private static void scheduleDueItem(final OkraSpring<DefaultOkraItem> okra) {
+        final DefaultOkraItem item = new DefaultOkraItem();
+        item.setRunDate(LocalDateTime.now().minusSeconds(1));
+        okra.schedule(item);
+    }
+
+    private static LocalDateTime storedHeartbeat(final OkraSpring<DefaultOkraItem> okra,
+                                                 final DefaultOkraItem item) {
+        return okra.findClaimed(item.getId())
+                .map(DefaultOkraItem::getHeartbeat)
+                .orElseThrow(IllegalStateException::new);
+    }
+}
@@ -22,11 +22,23 @@
  */
 package okra;
 
+import okra.builder.OkraSpringBuilder;
 import okra.model.DefaultOkraItem;
 import org.junit.Test;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -69,4 +81,63 @@ public class EnsurePollDoesNotRetrieveTheSameItemTwiceTest extends OkraBaseConta
         getDefaultOkra().delete(retrievedOpt1.get());
         getDefaultOkra().delete(retrievedOpt2.get());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void ensureConcurrentBatchPollsDontRetrieveTheSameItemTwiceTest() throws Exception {
+        ensureConcurrentClaimersDontRetrieveTheSameItemTwice(getDefaultOkra(), okra -> okra.pollBatch(7));
+    }
+
+    @Test
+    public void ensureConcurrentPartitionedPollsDontRetrieveTheSameItemTwiceTest() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder().withPartitions(4);
+        builder.withCollection("partitionedSchedulerCollection");
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+
+        ensureConcurrentClaimersDontRetrieveTheSameItemTwice(okra, o -> o.poll()
+                .map(Collections::singletonList)
+                .orElse(Collections.emptyList()));
+    }
+
+    private void ensureConcurrentClaimersDontRetrieveTheSameItemTwice(
+            final OkraSpring<DefaultOkraItem> okra,
+            final Function<OkraSpring<DefaultOkraItem>, List<DefaultOkraItem>> claim) throws Exception {
+        final Set<String> scheduledIds = new HashSet<>();
+
+        for (int i = 0; i < 200; i++) {
+            final DefaultOkraItem item = new DefaultOkraItem();
+            item.setRunDate(LocalDateTime.now().minusNanos(100));
+            okra.schedule(item);
+            scheduledIds.add(item.getId());
+        }
+
+        final Callable<List<String>> claimer = () -> {
+            final List<String> claimed = new ArrayList<>();
+            List<DefaultOkraItem> batch;
+            while (!(batch = claim.apply(okra)).isEmpty()) {
+                claimed.addAll(batch.stream().map(DefaultOkraItem::getId).collect(Collectors.toList()));
+            }
+            return claimed;
+        };
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        final List<Future<List<String>>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(claimer));
+        }
+
+        final List<String> allClaimed = new ArrayList<>();
+        for (final Future<List<String>> future : futures) {
+            allClaimed.addAll(future.get());
+        }
+
+        executor.shutdown();
+
+        final List<String> ourClaims = allClaimed.stream()
+                .filter(scheduledIds::contains)
+                .collect(Collectors.toList());
+
+        assertThat(ourClaims).doesNotHaveDuplicates();
+        assertThat(ourClaims).hasSameSizeAs(scheduledIds);
+    }
+}
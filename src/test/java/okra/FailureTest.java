@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import com.mongodb.DBObject;
+import okra.base.model.OkraStatus;
+import okra.builder.OkraSpringBuilder;
+import okra.model.DefaultOkraItem;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FailureTest extends OkraBaseContainerTest {
+
+    @Test
+    public void shouldRescheduleAFailedItemAfterItsBackoff() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withFailureBackoff(10, 60, TimeUnit.SECONDS);
+        builder.withCollection("failedSchedulerCollection");
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+
+        scheduleItem(okra);
+        final DefaultOkraItem item = okra.peek().orElseThrow(IllegalStateException::new);
+
+        assertThat(okra.fail(item, "boom")).isTrue();
+        assertThat(item.getAttempts()).isEqualTo(1);
+        assertThat(item.getStatus()).isEqualTo(OkraStatus.PENDING);
+        assertThat(item.getRunDate()).isAfter(LocalDateTime.now().plusSeconds(4));
+        assertThat(okra.peek()).isNotPresent();
+
+        final DefaultOkraItem stored = okra.getMongoTemplate()
+                .findById(item.getId(), DefaultOkraItem.class, "failedSchedulerCollection");
+
+        assertThat(stored.getAttempts()).isEqualTo(1);
+        assertThat(stored.getLastError()).isEqualTo("boom");
+        assertThat(stored.getStatus()).isEqualTo(OkraStatus.PENDING);
+        assertThat(stored.getHeartbeat()).isNull();
+    }
+
+    @Test
+    public void shouldMoveItemsOutOfAttemptsToTheDeadLetterCollection() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withFailureBackoff(1, 1, TimeUnit.MILLISECONDS)
+                .withMaxAttempts(2)
+                .withDeadLetterCollection("deadLetterSchedulerCollection");
+        builder.withCollection("failingSchedulerCollection");
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+
+        scheduleItem(okra);
+
+        assertThat(okra.fail(okra.peek().orElseThrow(IllegalStateException::new), "first")).isTrue();
+        Thread.sleep(10);
+        assertThat(okra.fail(okra.peek().orElseThrow(IllegalStateException::new), "second")).isTrue();
+
+        final List<DBObject> dead = okra.getMongoTemplate()
+                .find(new Query(), DBObject.class, "deadLetterSchedulerCollection");
+
+        assertThat(dead).hasSize(1);
+        assertThat(dead.get(0).get(OkraSpring.FINAL_STATUS_FIELD)).isEqualTo(OkraFinalStatus.DEAD.name());
+        assertThat(dead.get(0).get("status")).isNull();
+        assertThat(dead.get(0).get(OkraSpring.ATTEMPTS_FIELD)).isEqualTo(2);
+        assertThat(dead.get(0).get(OkraSpring.LAST_ERROR_FIELD)).isEqualTo("second");
+        assertThat(okra.getMongoTemplate().count(new Query(), "failingSchedulerCollection")).isZero();
+        assertThat(okra.peek()).isNotPresent();
+    }
+
+    @Test
+    public void shouldNotRecordTheFailureOfALostClaim() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder();
+        builder.withCollection("lostFailureSchedulerCollection");
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+
+        scheduleItem(okra);
+        final Optional<DefaultOkraItem> item = okra.peek();
+        assertThat(item).isPresent();
+
+        item.get().setHeartbeat(item.get().getHeartbeat().minusMinutes(1));
+
+        assertThat(okra.fail(item.get(), "boom")).isFalse();
+        assertThat(okra.getMongoTemplate().count(Query.query(Criteria
+                .where("status").is(OkraStatus.PROCESSING)), "lostFailureSchedulerCollection")).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotRecordTheFailureOfAnItemWithStaleAttempts() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withMaxAttempts(2);
+        builder.withCollection("staleAttemptsSchedulerCollection");
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+
+        scheduleItem(okra);
+        final DefaultOkraItem item = okra.peek().orElseThrow(IllegalStateException::new);
+        item.setAttempts(1);
+
+        assertThat(okra.fail(item, "boom")).isFalse();
+
+        final DefaultOkraItem stored = okra.getMongoTemplate()
+                .findById(item.getId(), DefaultOkraItem.class, "staleAttemptsSchedulerCollection");
+
+        assertThat(stored.getAttempts()).isNull();
+        assertThat(stored.getStatus()).isEqualTo(OkraStatus.PROCESSING);
+    }
+
+    private static void scheduleItem(final OkraSpring<DefaultOkraItem> okra) {
+        final DefaultOkraItem item = new DefaultOkraItem();
+        item.setRunDate(LocalDateTime.now().minusSeconds(1));
+        okra.schedule(item);
+    }
+}
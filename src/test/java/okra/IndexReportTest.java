@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import okra.builder.OkraSpringBuilder;
+import okra.exception.InvalidOkraConfigurationException;
+import okra.model.DefaultOkraItem;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IndexReportTest extends OkraBaseContainerTest {
+
+    @Test
+    public void shouldProvisionTheClaimIndexesOnTheConfiguredCollection() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withIndexProvisioning()
+                .withIndexCheck(IndexCheck.FAIL);
+        builder.withCollection("provisionedSchedulerCollection");
+
+        final IndexReport report = builder.build().indexReport();
+
+        assertThat(report.isIndexed()).isTrue();
+        assertThat(report.getIndexes()).contains("i_status_runDate", "i_status_heartbeat");
+        assertThat(report.getPlans())
+                .extracting(IndexReport.QueryPlan::getName)
+                .containsExactly("claim", "expired", "count");
+    }
+
+    @Test
+    public void shouldReportClaimsScanningTheCollection() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = unindexedOkra().build();
+        scheduleItem(okra);
+
+        final IndexReport report = okra.indexReport();
+
+        assertThat(report.isIndexed()).isFalse();
+        assertThat(report.getUnindexedPlans())
+                .extracting(IndexReport.QueryPlan::getName)
+                .contains("claim", "count");
+        assertThat(report.getUnindexedPlans().get(0).getStages()).contains("COLLSCAN");
+    }
+
+    @Test(expected = InvalidOkraConfigurationException.class)
+    public void shouldFailTheBuildWhenAClaimScansTheCollection() throws Exception {
+        scheduleItem(unindexedOkra().build());
+
+        unindexedOkra()
+                .withIndexCheck(IndexCheck.FAIL)
+                .build();
+    }
+
+    private OkraSpringBuilder<DefaultOkraItem> unindexedOkra() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder();
+        builder.withCollection("unindexedSchedulerCollection");
+        return builder;
+    }
+
+    private static void scheduleItem(final OkraSpring<DefaultOkraItem> okra) {
+        final DefaultOkraItem item = new DefaultOkraItem();
+        item.setRunDate(LocalDateTime.now().minusSeconds(1));
+        okra.schedule(item);
+    }
+}
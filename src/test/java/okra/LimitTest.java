@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import com.mongodb.DBObject;
+import okra.base.model.OkraStatus;
+import okra.builder.OkraSpringBuilder;
+import okra.model.DefaultOkraItem;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LimitTest extends OkraBaseContainerTest {
+
+    @Test
+    public void shouldNotClaimBeyondTheConcurrencyLimit() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = limitedOkra("concurrencyLimitSchedulerCollection",
+                OkraLimit.global(2, 0));
+        scheduleItems(okra, null, 5);
+
+        final Optional<DefaultOkraItem> first = okra.peek();
+        final Optional<DefaultOkraItem> second = okra.peek();
+
+        assertThat(first).isPresent();
+        assertThat(second).isPresent();
+        assertThat(okra.peek()).isNotPresent();
+        assertThat(okra.countByStatus(OkraStatus.PROCESSING)).isEqualTo(2);
+
+        okra.complete(first.get());
+
+        assertThat(okra.peek()).isPresent();
+        assertThat(okra.peek()).isNotPresent();
+    }
+
+    @Test
+    public void shouldNotClaimMoreThanTheStartsPerSecond() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = limitedOkra("rateLimitSchedulerCollection",
+                OkraLimit.global(0, 3));
+        scheduleItems(okra, null, 10);
+
+        assertThat(okra.peekBatch(10)).hasSize(3);
+    }
+
+    @Test
+    public void shouldShareTypedLimitsBetweenNodes() throws Exception {
+        final OkraSpring<DefaultOkraItem> first = limitedOkra("typedLimitSchedulerCollection",
+                OkraLimit.forType("api", 3, 0));
+        final OkraSpring<DefaultOkraItem> second = limitedOkra("typedLimitSchedulerCollection",
+                OkraLimit.forType("api", 3, 0));
+        scheduleItems(first, "api", 5);
+        scheduleItems(first, "mail", 1);
+
+        assertThat(first.peekBatch(10, "api")).hasSize(3);
+        assertThat(second.peekBatch(10, "api")).isEmpty();
+
+        final Optional<DefaultOkraItem> untyped = second.peek();
+
+        assertThat(untyped).isPresent();
+        assertThat(untyped.get().getType()).isEqualTo("mail");
+        assertThat(second.peek()).isNotPresent();
+    }
+
+    @Test
+    public void shouldNotClaimItemsOfLimitedTypesWithUntypedClaims() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = limitedOkra("untypedLimitSchedulerCollection",
+                OkraLimit.forType("api", 3, 0));
+        scheduleItems(okra, "api", 2);
+
+        final DBObject scheduled = okra.getMongoTemplate()
+                .findOne(new Query(), DBObject.class, "untypedLimitSchedulerCollection");
+
+        assertThat(scheduled.get(OkraSpring.LIMITED_FIELD)).isEqualTo(true);
+        assertThat(okra.peek()).isNotPresent();
+        assertThat(okra.peekBatch(10)).isEmpty();
+        assertThat(okra.peekBatch(10, "api")).hasSize(2);
+    }
+
+    @Test
+    public void shouldReclaimLeasesOfItemsAcknowledgedByAnotherNode() throws Exception {
+        final OkraSpring<DefaultOkraItem> first = limitedOkra("reclaimLimitSchedulerCollection",
+                OkraLimit.global(1, 0), 200, TimeUnit.MILLISECONDS);
+        final OkraSpring<DefaultOkraItem> second = limitedOkra("reclaimLimitSchedulerCollection",
+                OkraLimit.global(1, 0), 200, TimeUnit.MILLISECONDS);
+        scheduleItems(first, null, 2);
+
+        final Optional<DefaultOkraItem> claimed = first.peek();
+        assertThat(claimed).isPresent();
+
+        second.delete(claimed.get());
+        assertThat(first.peek()).isNotPresent();
+
+        Thread.sleep(300);
+
+        assertThat(first.peek()).isPresent();
+    }
+
+    private OkraSpring<DefaultOkraItem> limitedOkra(final String collection, final OkraLimit limit) throws Exception {
+        return limitedOkra(collection, limit, 5, TimeUnit.MINUTES);
+    }
+
+    private OkraSpring<DefaultOkraItem> limitedOkra(final String collection,
+                                                    final OkraLimit limit,
+                                                    final long expiration,
+                                                    final TimeUnit unit) throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withLimit(limit)
+                .withLimitCache(0, TimeUnit.MILLISECONDS);
+        builder.withCollection(collection)
+                .withExpiration(expiration, unit);
+        return builder.build();
+    }
+
+    private static void scheduleItems(final OkraSpring<DefaultOkraItem> okra, final String type, final int count) {
+        for (int i = 0; i < count; i++) {
+            final DefaultOkraItem item = new DefaultOkraItem();
+            item.setType(type);
+            item.setRunDate(LocalDateTime.now().minusSeconds(1));
+            okra.schedule(item);
+        }
+    }
+}
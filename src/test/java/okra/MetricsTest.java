@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import okra.builder.OkraSpringBuilder;
+import okra.metrics.OkraMetrics;
+import okra.metrics.OkraOperation;
+import okra.model.DefaultOkraItem;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MetricsTest extends OkraBaseContainerTest {
+
+    @Test
+    public void shouldRecordOperationsClaimsAndLostHeartbeats() throws Exception {
+        final RecordingMetrics metrics = new RecordingMetrics();
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withMetrics(metrics);
+        builder.withCollection("metricsSchedulerCollection");
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+
+        final DefaultOkraItem item = new DefaultOkraItem();
+        item.setRunDate(LocalDateTime.now().minusSeconds(1));
+        okra.schedule(item);
+
+        final DefaultOkraItem claimed = okra.peek().orElseThrow(IllegalStateException::new);
+        assertThat(okra.peek().isPresent()).isFalse();
+
+        claimed.setHeartbeat(claimed.getHeartbeat().minusSeconds(1));
+        assertThat(okra.heartbeat(claimed).isPresent()).isFalse();
+
+        okra.delete(claimed);
+
+        assertThat(metrics.latencies.get(OkraOperation.SCHEDULE).get()).isEqualTo(1);
+        assertThat(metrics.latencies.get(OkraOperation.PEEK).get()).isEqualTo(2);
+        assertThat(metrics.latencies.get(OkraOperation.HEARTBEAT).get()).isEqualTo(1);
+        assertThat(metrics.latencies.get(OkraOperation.DELETE).get()).isEqualTo(1);
+        assertThat(metrics.hits.get()).isEqualTo(1);
+        assertThat(metrics.misses.get()).isEqualTo(1);
+        assertThat(metrics.lostHeartbeats.get()).isEqualTo(1);
+        assertThat(metrics.lags.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldMeasureTheLagOfExpiredClaimsFromTheirExpiration() throws Exception {
+        final RecordingMetrics metrics = new RecordingMetrics();
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withMetrics(metrics);
+        builder.withCollection("lagMetricsSchedulerCollection")
+                .withExpiration(100, TimeUnit.MILLISECONDS);
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+
+        final DefaultOkraItem item = new DefaultOkraItem();
+        item.setRunDate(LocalDateTime.now().minusMinutes(1));
+        okra.schedule(item);
+
+        okra.peek().orElseThrow(IllegalStateException::new);
+        assertThat(metrics.lastLag.get()).isGreaterThanOrEqualTo(TimeUnit.MINUTES.toMillis(1));
+
+        Thread.sleep(300);
+
+        final DefaultOkraItem reclaimed = okra.peek().orElseThrow(IllegalStateException::new);
+
+        assertThat(reclaimed.getId()).isEqualTo(item.getId());
+        assertThat(metrics.lastLag.get()).isBetween(0L, TimeUnit.SECONDS.toMillis(5));
+        assertThat(metrics.lags.get()).isEqualTo(2);
+    }
+
+    private static class RecordingMetrics implements OkraMetrics {
+
+        private final Map<OkraOperation, AtomicInteger> latencies = new EnumMap<>(OkraOperation.class);
+        private final AtomicInteger hits = new AtomicInteger();
+        private final AtomicInteger misses = new AtomicInteger();
+        private final AtomicInteger lostHeartbeats = new AtomicInteger();
+        private final AtomicInteger lags = new AtomicInteger();
+        private final AtomicLong lastLag = new AtomicLong();
+
+        private RecordingMetrics() {
+            for (final OkraOperation operation : OkraOperation.values()) {
+                latencies.put(operation, new AtomicInteger());
+            }
+        }
+
+        @Override
+        public void recordLatency(final OkraOperation operation, final long nanos) {
+            latencies.get(operation).incrementAndGet();
+        }
+
+        @Override
+        public void recordPeek(final boolean hit) {
+            (hit ? hits : misses).incrementAndGet();
+        }
+
+        @Override
+        public void recordLostHeartbeats(final int count) {
+            lostHeartbeats.addAndGet(count);
+        }
+
+        @Override
+        public void recordQueueLag(final long millis) {
+            lags.incrementAndGet();
+            lastLag.set(millis);
+        }
+    }
+}
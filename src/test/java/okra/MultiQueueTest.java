@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import okra.builder.OkraSpringBuilder;
+import okra.model.DefaultOkraItem;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MultiQueueTest extends OkraBaseContainerTest {
+
+    @Test
+    public void shouldClaimOnlyItemsOfTheGivenType() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = multiQueueOkra("typedClaimSchedulerCollection");
+        scheduleItems(okra, "mail", 3);
+        scheduleItems(okra, "report", 2);
+
+        final List<DefaultOkraItem> reports = okra.peekBatch(10, "report");
+
+        assertThat(reports).hasSize(2);
+        assertThat(reports).extracting(DefaultOkraItem::getType).containsOnly("report");
+        assertThat(okra.peekBatch(10, "report")).isEmpty();
+        assertThat(okra.peekBatch(10, "mail")).hasSize(3);
+    }
+
+    @Test
+    public void shouldDispatchEachTypeToItsHandler() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = multiQueueOkra("typedConsumerSchedulerCollection");
+        scheduleItems(okra, "mail", 10);
+        scheduleItems(okra, "report", 10);
+
+        final CountDownLatch handled = new CountDownLatch(20);
+        final Set<String> mailTypes = ConcurrentHashMap.newKeySet();
+        final Set<String> reportTypes = ConcurrentHashMap.newKeySet();
+
+        final List<OkraQueueType<DefaultOkraItem>> types = Arrays.asList(
+                OkraQueueType.of("mail", 3, 4, item -> {
+                    mailTypes.add(item.getType());
+                    handled.countDown();
+                    return OkraResult.done();
+                }),
+                OkraQueueType.of("report", 1, 4, item -> {
+                    reportTypes.add(item.getType());
+                    handled.countDown();
+                    return OkraResult.done();
+                }));
+
+        try (OkraConsumer<DefaultOkraItem> ignored = okra.consumer(types)) {
+            assertThat(handled.await(10, TimeUnit.SECONDS)).isTrue();
+        }
+
+        assertThat(mailTypes).containsOnly("mail");
+        assertThat(reportTypes).containsOnly("report");
+    }
+
+    @Test
+    public void shouldRespectTheInFlightLimitOfEachType() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = multiQueueOkra("inFlightSchedulerCollection");
+        scheduleItems(okra, "slow", 5);
+        scheduleItems(okra, "fast", 5);
+
+        final CountDownLatch handled = new CountDownLatch(10);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        final List<OkraQueueType<DefaultOkraItem>> types = Arrays.asList(
+                OkraQueueType.of("slow", 1, 1, item -> {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    sleep(20);
+                    inFlight.decrementAndGet();
+                    handled.countDown();
+                    return OkraResult.done();
+                }),
+                OkraQueueType.of("fast", 1, 4, item -> {
+                    handled.countDown();
+                    return OkraResult.done();
+                }));
+
+        try (OkraConsumer<DefaultOkraItem> ignored = okra.consumer(types)) {
+            assertThat(handled.await(10, TimeUnit.SECONDS)).isTrue();
+        }
+
+        assertThat(maxInFlight.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldDispatchTypesByWeightUnderSaturation() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = multiQueueOkra("weightedSchedulerCollection", 1);
+        scheduleItems(okra, "mail", 60);
+        scheduleItems(okra, "report", 60);
+
+        final CountDownLatch handled = new CountDownLatch(40);
+        final List<String> handledTypes = Collections.synchronizedList(new ArrayList<>());
+
+        final List<OkraQueueType<DefaultOkraItem>> types = Arrays.asList(
+                OkraQueueType.of("mail", 3, 1, item -> {
+                    handledTypes.add(item.getType());
+                    sleep(5);
+                    handled.countDown();
+                    return OkraResult.done();
+                }),
+                OkraQueueType.of("report", 1, 1, item -> {
+                    handledTypes.add(item.getType());
+                    sleep(5);
+                    handled.countDown();
+                    return OkraResult.done();
+                }));
+
+        try (OkraConsumer<DefaultOkraItem> ignored = okra.consumer(types)) {
+            assertThat(handled.await(20, TimeUnit.SECONDS)).isTrue();
+        }
+
+        final List<String> first = new ArrayList<>(handledTypes.subList(0, 40));
+
+        assertThat(first.stream().filter("mail"::equals).count()).isBetween(28L, 32L);
+        assertThat(first.stream().filter("report"::equals).count()).isBetween(8L, 12L);
+    }
+
+    private OkraSpring<DefaultOkraItem> multiQueueOkra(final String collection) throws Exception {
+        return multiQueueOkra(collection, 4);
+    }
+
+    private OkraSpring<DefaultOkraItem> multiQueueOkra(final String collection,
+                                                       final int parallelism) throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withMultiQueue()
+                .withConsumerParallelism(parallelism)
+                .withIdleBackoff(10, 100, TimeUnit.MILLISECONDS);
+        builder.withCollection(collection);
+        return builder.build();
+    }
+
+    private static void scheduleItems(final OkraSpring<DefaultOkraItem> okra, final String type, final int count) {
+        for (int i = 0; i < count; i++) {
+            final DefaultOkraItem item = new DefaultOkraItem();
+            item.setType(type);
+            item.setRunDate(LocalDateTime.now().minusSeconds(1));
+            okra.schedule(item);
+        }
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -41,18 +41,25 @@ public abstract class OkraBaseContainerTest {
     private OkraSpring<DefaultOkraItem> okraSpring;
 
     public static OkraSpring<DefaultOkraItem> prepareDefaultMongo34OkraSpring() throws UnknownHostException {
+        return prepareDefaultMongo34OkraSpringBuilder().build();
+    }
+
+    public static OkraSpringBuilder<DefaultOkraItem> prepareDefaultMongo34OkraSpringBuilder()
+            throws UnknownHostException {
         final MongoClient client = new MongoClient(
                 mongoContainer.getContainerIpAddress(),
                 mongoContainer.getMappedPort(27017)
         );
 
-        return (OkraSpring<DefaultOkraItem>) new OkraSpringBuilder<DefaultOkraItem>()
-                .withMongoTemplate(new MongoTemplate(client, "okraBenchmark"))
-                .withDatabase("okraSpringTests")
+        final OkraSpringBuilder<DefaultOkraItem> builder = new OkraSpringBuilder<DefaultOkraItem>()
+                .withMongoTemplate(new MongoTemplate(client, "okraBenchmark"));
+
+        builder.withDatabase("okraSpringTests")
                 .withCollection("schedulerCollection")
                 .withExpiration(5, TimeUnit.MINUTES)
-                .withItemClass(DefaultOkraItem.class)
-                .build();
+                .withItemClass(DefaultOkraItem.class);
+
+        return builder;
     }
 
     @Before
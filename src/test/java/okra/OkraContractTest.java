@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import okra.base.model.OkraStatus;
+import okra.base.spring.AbstractOkraSpring;
+import okra.exception.OkraRuntimeException;
+import okra.model.DefaultOkraItem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Behaviour every Okra engine must share, run against each of them by its subclasses
+ */
+public abstract class OkraContractTest {
+
+    private AbstractOkraSpring<DefaultOkraItem> okra;
+
+    /**
+     * @param expiration     the heartbeat expiration of the queue
+     * @param expirationUnit the unit of the expiration
+     * @return a new, empty queue
+     */
+    protected abstract AbstractOkraSpring<DefaultOkraItem> createOkra(long expiration, TimeUnit expirationUnit)
+            throws Exception;
+
+    /**
+     * Acknowledges a processed item with the claim-guarded completion of the engine
+     */
+    protected abstract void complete(AbstractOkraSpring<DefaultOkraItem> okra, DefaultOkraItem item);
+
+    /**
+     * Returns a claimed item to PENDING with the claim-guarded release of the engine
+     *
+     * @return false if the claim of the item was lost
+     */
+    protected abstract boolean release(AbstractOkraSpring<DefaultOkraItem> okra, DefaultOkraItem item);
+
+    /**
+     * Releases the resources of a queue created by {@link #createOkra(long, TimeUnit)}
+     */
+    protected void closeOkra(final AbstractOkraSpring<DefaultOkraItem> okra) throws Exception {
+    }
+
+    @Before
+    public void setUpOkra() throws Exception {
+        okra = createOkra(5, TimeUnit.MINUTES);
+    }
+
+    @After
+    public void tearDownOkra() throws Exception {
+        closeOkra(okra);
+    }
+
+    @Test(expected = OkraRuntimeException.class)
+    public void shouldNotScheduleWithoutARunDate() {
+        okra.schedule(new DefaultOkraItem());
+    }
+
+    @Test(expected = OkraRuntimeException.class)
+    public void shouldNotScheduleAnItemWithAnId() {
+        final DefaultOkraItem item = item(LocalDateTime.now());
+        item.setId("5a0d5c6e1e6c8b2d9c3f1a20");
+        okra.schedule(item);
+    }
+
+    @Test
+    public void shouldClaimDueItemsOnly() {
+        final DefaultOkraItem due = item(LocalDateTime.now().minusSeconds(1));
+        okra.schedule(due);
+        okra.schedule(item(LocalDateTime.now().plusHours(1)));
+
+        final DefaultOkraItem claimed = okra.peek().orElseThrow(IllegalStateException::new);
+
+        assertThat(claimed.getId()).isEqualTo(due.getId());
+        assertThat(claimed.getStatus()).isEqualTo(OkraStatus.PROCESSING);
+        assertThat(claimed.getHeartbeat()).isNotNull();
+        assertThat(okra.peek()).isNotPresent();
+        assertThat(okra.countByStatus(OkraStatus.PENDING)).isEqualTo(1);
+        assertThat(okra.countByStatus(OkraStatus.PROCESSING)).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldRemoveTheItemsItPolls() {
+        final DefaultOkraItem item = item(LocalDateTime.now().minusSeconds(1));
+        okra.schedule(item);
+
+        assertThat(okra.poll().map(DefaultOkraItem::getId)).contains(item.getId());
+        assertThat(okra.poll()).isNotPresent();
+        assertThat(okra.countByStatus(OkraStatus.PENDING)).isZero();
+        assertThat(okra.countByStatus(OkraStatus.PROCESSING)).isZero();
+    }
+
+    @Test
+    public void shouldCountTheDelayedItems() {
+        okra.schedule(item(LocalDateTime.now().minusSeconds(1)));
+        okra.schedule(item(LocalDateTime.now().plusHours(1)));
+
+        assertThat(okra.countDelayed()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldClaimRescheduledItemsAgain() {
+        okra.schedule(item(LocalDateTime.now().minusSeconds(1)));
+
+        final DefaultOkraItem claimed = okra.peek().orElseThrow(IllegalStateException::new);
+        claimed.setRunDate(LocalDateTime.now().minusSeconds(1));
+        okra.reschedule(claimed);
+
+        assertThat(okra.countByStatus(OkraStatus.PROCESSING)).isZero();
+        assertThat(okra.peek().map(DefaultOkraItem::getId)).contains(claimed.getId());
+    }
+
+    @Test
+    public void shouldLoseTheClaimOfAnOutdatedHeartbeat() throws Exception {
+        okra.schedule(item(LocalDateTime.now().minusSeconds(1)));
+
+        final DefaultOkraItem claimed = okra.peek().orElseThrow(IllegalStateException::new);
+        Thread.sleep(5);
+
+        final Optional<DefaultOkraItem> heartbeated = okra.heartbeat(claimed);
+
+        assertThat(heartbeated).isPresent();
+        assertThat(heartbeated.get().getHeartbeat()).isAfter(claimed.getHeartbeat());
+        assertThat(okra.heartbeat(claimed)).isNotPresent();
+    }
+
+    @Test
+    public void shouldReclaimItemsWhoseHeartbeatExpired() throws Exception {
+        closeOkra(okra);
+        okra = createOkra(100, TimeUnit.MILLISECONDS);
+        okra.schedule(item(LocalDateTime.now().minusSeconds(1)));
+
+        final DefaultOkraItem claimed = okra.peek().orElseThrow(IllegalStateException::new);
+        assertThat(okra.peek()).isNotPresent();
+
+        Thread.sleep(200);
+
+        assertThat(okra.peek().map(DefaultOkraItem::getId)).contains(claimed.getId());
+        assertThat(okra.heartbeat(claimed)).isNotPresent();
+    }
+
+    @Test
+    public void shouldNotClaimDeletedItems() {
+        okra.schedule(item(LocalDateTime.now().minusSeconds(1)));
+
+        okra.delete(okra.peek().orElseThrow(IllegalStateException::new));
+
+        assertThat(okra.countByStatus(OkraStatus.PROCESSING)).isZero();
+        assertThat(okra.peek()).isNotPresent();
+    }
+
+    @Test
+    public void shouldCompleteClaimedItems() {
+        okra.schedule(item(LocalDateTime.now().minusSeconds(1)));
+
+        complete(okra, okra.peek().orElseThrow(IllegalStateException::new));
+
+        assertThat(okra.countByStatus(OkraStatus.PROCESSING)).isZero();
+        assertThat(okra.countByStatus(OkraStatus.PENDING)).isZero();
+        assertThat(okra.peek()).isNotPresent();
+    }
+
+    @Test
+    public void shouldNotCompleteItemsWhoseClaimWasLost() throws Exception {
+        okra.schedule(item(LocalDateTime.now().minusSeconds(1)));
+
+        final DefaultOkraItem stale = okra.peek().orElseThrow(IllegalStateException::new);
+        Thread.sleep(5);
+        final DefaultOkraItem owned = okra.heartbeat(stale).orElseThrow(IllegalStateException::new);
+
+        complete(okra, stale);
+        assertThat(okra.countByStatus(OkraStatus.PROCESSING)).isEqualTo(1);
+
+        complete(okra, owned);
+        assertThat(okra.countByStatus(OkraStatus.PROCESSING)).isZero();
+    }
+
+    @Test
+    public void shouldReleaseClaimedItems() {
+        okra.schedule(item(LocalDateTime.now().minusSeconds(1)));
+
+        final DefaultOkraItem claimed = okra.peek().orElseThrow(IllegalStateException::new);
+
+        assertThat(release(okra, claimed)).isTrue();
+        assertThat(claimed.getStatus()).isEqualTo(OkraStatus.PENDING);
+        assertThat(okra.countByStatus(OkraStatus.PROCESSING)).isZero();
+        assertThat(okra.peek().map(DefaultOkraItem::getId)).contains(claimed.getId());
+    }
+
+    @Test
+    public void shouldNotReleaseItemsWhoseClaimWasLost() throws Exception {
+        okra.schedule(item(LocalDateTime.now().minusSeconds(1)));
+
+        final DefaultOkraItem stale = okra.peek().orElseThrow(IllegalStateException::new);
+        Thread.sleep(5);
+        okra.heartbeat(stale).orElseThrow(IllegalStateException::new);
+
+        assertThat(release(okra, stale)).isFalse();
+        assertThat(okra.countByStatus(OkraStatus.PROCESSING)).isEqualTo(1);
+        assertThat(okra.countByStatus(OkraStatus.PENDING)).isZero();
+    }
+
+    private static DefaultOkraItem item(final LocalDateTime runDate) {
+        final DefaultOkraItem item = new DefaultOkraItem();
+        item.setRunDate(runDate);
+        return item;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import okra.base.model.OkraStatus;
+import okra.builder.OkraSpringBuilder;
+import okra.metrics.OkraMetrics;
+import okra.model.DefaultOkraItem;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PrefetcherTest extends OkraBaseContainerTest {
+
+    @Test
+    public void shouldRefillTheBufferBelowTheLowWaterMark() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = okra("refillPrefetchSchedulerCollection");
+        scheduleItems(okra, 10);
+
+        try (OkraPrefetcher<DefaultOkraItem> prefetcher = okra.prefetcher()) {
+            awaitOccupancy(prefetcher, 4);
+
+            assertThat(prefetcher.poll()).isPresent();
+            assertThat(prefetcher.poll()).isPresent();
+            assertThat(prefetcher.getBufferOccupancy()).isEqualTo(2);
+            Thread.sleep(200);
+            assertThat(prefetcher.getBufferOccupancy()).isEqualTo(2);
+
+            assertThat(prefetcher.poll()).isPresent();
+            awaitOccupancy(prefetcher, 4);
+
+            assertThat(okra.countByStatus(OkraStatus.PROCESSING)).isEqualTo(7);
+            assertThat(prefetcher.getPolls()).isEqualTo(3);
+            assertThat(prefetcher.getEmptyPolls()).isZero();
+        }
+    }
+
+    @Test
+    public void shouldHeartbeatBufferedItems() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = okra("heartbeatPrefetchSchedulerCollection");
+        scheduleItems(okra, 1);
+
+        try (OkraPrefetcher<DefaultOkraItem> prefetcher = okra.prefetcher()) {
+            awaitOccupancy(prefetcher, 1);
+
+            final DefaultOkraItem claimed = okra.getMongoTemplate()
+                    .findOne(new Query(), DefaultOkraItem.class, "heartbeatPrefetchSchedulerCollection");
+            Thread.sleep(500);
+
+            final DefaultOkraItem handed = prefetcher.poll().orElseThrow(IllegalStateException::new);
+            final DefaultOkraItem stored = okra.getMongoTemplate()
+                    .findById(handed.getId(), DefaultOkraItem.class, "heartbeatPrefetchSchedulerCollection");
+
+            assertThat(stored.getHeartbeat()).isAfter(claimed.getHeartbeat());
+            assertThat(handed.getHeartbeat()).isEqualTo(stored.getHeartbeat());
+            assertThat(okra.heartbeat(handed)).isPresent();
+        }
+    }
+
+    @Test
+    public void shouldReleaseUnstartedItemsOnClose() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = okra("releasePrefetchSchedulerCollection");
+        scheduleItems(okra, 4);
+
+        final Optional<DefaultOkraItem> handed;
+
+        try (OkraPrefetcher<DefaultOkraItem> prefetcher = okra.prefetcher()) {
+            awaitOccupancy(prefetcher, 4);
+            handed = prefetcher.poll();
+        }
+
+        assertThat(handed).isPresent();
+        assertThat(okra.countByStatus(OkraStatus.PENDING)).isEqualTo(3);
+        assertThat(okra.countByStatus(OkraStatus.PROCESSING)).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldRecordPrefetchPollsAndOccupancy() throws Exception {
+        final AtomicInteger hits = new AtomicInteger();
+        final AtomicInteger misses = new AtomicInteger();
+        final AtomicInteger occupancy = new AtomicInteger(-1);
+
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withPrefetchBuffer(4, 2)
+                .withMetrics(new OkraMetrics() {
+                    @Override
+                    public void recordPrefetchPoll(final boolean hit) {
+                        (hit ? hits : misses).incrementAndGet();
+                    }
+
+                    @Override
+                    public void recordPrefetchBufferOccupancy(final int buffered) {
+                        occupancy.set(buffered);
+                    }
+                });
+        builder.withCollection("metricsPrefetchSchedulerCollection");
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+        scheduleItems(okra, 1);
+
+        try (OkraPrefetcher<DefaultOkraItem> prefetcher = okra.prefetcher()) {
+            awaitOccupancy(prefetcher, 1);
+            Thread.sleep(100);
+            assertThat(occupancy.get()).isEqualTo(1);
+
+            assertThat(prefetcher.poll()).isPresent();
+            assertThat(occupancy.get()).isZero();
+            assertThat(prefetcher.poll()).isNotPresent();
+        }
+
+        assertThat(hits.get()).isEqualTo(1);
+        assertThat(misses.get()).isEqualTo(1);
+    }
+
+    private static OkraSpring<DefaultOkraItem> okra(final String collection) throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withPrefetchBuffer(4, 2)
+                .withHeartbeatInterval(100, TimeUnit.MILLISECONDS);
+        builder.withCollection(collection);
+        return builder.build();
+    }
+
+    private static void scheduleItems(final OkraSpring<DefaultOkraItem> okra, final int count) {
+        for (int i = 0; i < count; i++) {
+            final DefaultOkraItem item = new DefaultOkraItem();
+            item.setRunDate(LocalDateTime.now().minusSeconds(1));
+            okra.schedule(item);
+        }
+    }
+
+    private static void awaitOccupancy(final OkraPrefetcher<DefaultOkraItem> prefetcher,
+                                       final int occupancy) throws InterruptedException {
+        for (int i = 0; i < 100 && prefetcher.getBufferOccupancy() < occupancy; i++) {
+            Thread.sleep(50);
+        }
+
+        assertThat(prefetcher.getBufferOccupancy()).isEqualTo(occupancy);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import okra.builder.OkraSpringBuilder;
+import okra.model.DefaultOkraItem;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PriorityTest extends OkraBaseContainerTest {
+
+    @Test
+    public void shouldClaimHigherPrioritiesFirst() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withPriorityOrdering();
+        builder.withCollection("prioritySchedulerCollection");
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+
+        final DefaultOkraItem bulk = itemAt(LocalDateTime.now().minusMinutes(10), 0);
+        final DefaultOkraItem olderBulk = itemAt(LocalDateTime.now().minusMinutes(20), 0);
+        final DefaultOkraItem urgent = itemAt(LocalDateTime.now().minusSeconds(1), 10);
+        okra.schedule(bulk);
+        okra.schedule(olderBulk);
+        okra.schedule(urgent);
+
+        assertThat(okra.poll().map(DefaultOkraItem::getId)).contains(urgent.getId());
+        assertThat(okra.poll().map(DefaultOkraItem::getId)).contains(olderBulk.getId());
+        assertThat(okra.poll().map(DefaultOkraItem::getId)).contains(bulk.getId());
+    }
+
+    @Test
+    public void shouldClaimItemsWithoutAPriorityAtTheDefaultPriority() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withPriorityOrdering();
+        builder.withCollection("defaultPrioritySchedulerCollection");
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+
+        final DefaultOkraItem deferred = itemAt(LocalDateTime.now().minusMinutes(30), -1);
+        final DefaultOkraItem unset = new DefaultOkraItem();
+        unset.setRunDate(LocalDateTime.now().minusMinutes(20));
+        final DefaultOkraItem bulk = itemAt(LocalDateTime.now().minusMinutes(10), 0);
+        okra.schedule(deferred);
+        okra.schedule(unset);
+        okra.schedule(bulk);
+
+        assertThat(okra.poll().map(DefaultOkraItem::getId)).contains(unset.getId());
+        assertThat(okra.poll().map(DefaultOkraItem::getId)).contains(bulk.getId());
+        assertThat(okra.poll().map(DefaultOkraItem::getId)).contains(deferred.getId());
+    }
+
+    @Test
+    public void shouldStopTheAgingThreadOnClose() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withPriorityAging(1, TimeUnit.MILLISECONDS);
+        builder.withCollection("closedAgingSchedulerCollection");
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+
+        okra.schedule(itemAt(LocalDateTime.now().minusMinutes(5), 0));
+        Thread.sleep(5);
+        assertThat(okra.peek().isPresent()).isTrue();
+
+        okra.close();
+
+        for (int i = 0; i < 100 && agingThreadAlive(); i++) {
+            Thread.sleep(50);
+        }
+
+        assertThat(agingThreadAlive()).isFalse();
+        assertThat(okra.peek().isPresent()).isFalse();
+    }
+
+    @Test
+    public void shouldPromoteItemsThatWaitedTooLong() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withPriorityAging(1, TimeUnit.MINUTES);
+        builder.withCollection("agingSchedulerCollection");
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+
+        final DefaultOkraItem starved = itemAt(LocalDateTime.now().minusMinutes(5), 0);
+        final DefaultOkraItem fresh = itemAt(LocalDateTime.now().minusSeconds(1), 1);
+        okra.schedule(starved);
+        okra.schedule(fresh);
+
+        assertThat(okra.agePriorities()).isEqualTo(1);
+        assertThat(okra.agePriorities()).isZero();
+        assertThat(okra.poll().map(DefaultOkraItem::getId)).contains(starved.getId());
+        assertThat(okra.poll().map(DefaultOkraItem::getId)).contains(fresh.getId());
+    }
+
+    @Test
+    public void shouldNotPromoteItemsPastTheMaxAgedPriority() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withPriorityAging(1, TimeUnit.MINUTES, 2)
+                .withScheduleChunkSize(2);
+        builder.withCollection("cappedAgingSchedulerCollection");
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+
+        okra.schedule(itemAt(LocalDateTime.now().minusMinutes(5), 2));
+
+        for (int i = 0; i < 5; i++) {
+            okra.schedule(itemAt(LocalDateTime.now().minusMinutes(5), 0));
+        }
+
+        assertThat(okra.agePriorities()).isEqualTo(5);
+        assertThat(okra.agePriorities()).isZero();
+        assertThat(okra.poll().map(DefaultOkraItem::getPriority)).contains(2);
+        assertThat(okra.poll().map(DefaultOkraItem::getPriority)).contains(1);
+    }
+
+    private static DefaultOkraItem itemAt(final LocalDateTime runDate, final int priority) {
+        final DefaultOkraItem item = new DefaultOkraItem();
+        item.setRunDate(runDate);
+        item.setPriority(priority);
+        return item;
+    }
+
+    private static boolean agingThreadAlive() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .anyMatch(thread -> thread.getName().equals("okra-aging-closedAgingSchedulerCollection"));
+    }
+}
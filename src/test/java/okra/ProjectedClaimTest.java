@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import okra.base.model.OkraStatus;
+import okra.builder.OkraSpringBuilder;
+import okra.model.DefaultOkraItem;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ProjectedClaimTest extends OkraBaseContainerTest {
+
+    @Test
+    public void shouldClaimWithoutLoadingTheItem() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withClaimProjection("priority");
+        builder.withCollection("projectedSchedulerCollection");
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+
+        final DefaultOkraItem item = new DefaultOkraItem();
+        item.setRunDate(LocalDateTime.now().minusSeconds(1));
+        item.setPriority(7);
+        okra.schedule(item);
+
+        final Optional<OkraClaim<DefaultOkraItem>> claim = okra.peekProjected();
+        assertThat(claim.isPresent()).isTrue();
+        assertThat(claim.get().getId()).isEqualTo(item.getId());
+        assertThat(claim.get().get("priority")).isEqualTo(7);
+        assertThat(claim.get().isLoaded()).isFalse();
+        assertThat(okra.peekProjected().isPresent()).isFalse();
+
+        assertThat(claim.get().heartbeat()).isTrue();
+
+        final Optional<DefaultOkraItem> loaded = claim.get().load();
+        assertThat(loaded.isPresent()).isTrue();
+        assertThat(loaded.get().getStatus()).isEqualTo(OkraStatus.PROCESSING);
+        assertThat(loaded.get().getHeartbeat()).isEqualTo(claim.get().getHeartbeat());
+        assertThat(okra.heartbeat(loaded.get()).isPresent()).isTrue();
+
+        claim.get().delete();
+        assertThat(okra.countByStatus(OkraStatus.PROCESSING)).isZero();
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import com.mongodb.BasicDBObject;
+import okra.base.model.OkraStatus;
+import okra.builder.OkraSpringBuilder;
+import okra.model.DefaultOkraItem;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class QueueStatsTest extends OkraBaseContainerTest {
+
+    @Test
+    public void shouldComputeStatsInASingleSnapshot() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder();
+        builder.withCollection("statsSchedulerCollection")
+                .withExpiration(1, TimeUnit.SECONDS);
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+
+        final LocalDateTime oldestDue = LocalDateTime.now().minusMinutes(10).truncatedTo(ChronoUnit.MILLIS);
+        okra.schedule(itemAt(oldestDue));
+        okra.schedule(itemAt(LocalDateTime.now().minusMinutes(5)));
+        okra.schedule(itemAt(LocalDateTime.now().minusMinutes(1)));
+        okra.schedule(itemAt(LocalDateTime.now().plusHours(1)));
+
+        assertThat(okra.peek().isPresent()).isTrue();
+        Thread.sleep(1500);
+
+        final QueueStats stats = okra.snapshot();
+
+        assertThat(stats.getCount(OkraStatus.PENDING)).isEqualTo(3);
+        assertThat(stats.getCount(OkraStatus.PROCESSING)).isEqualTo(1);
+        assertThat(stats.getTotal()).isEqualTo(4);
+        assertThat(stats.getDelayed()).isEqualTo(2);
+        assertThat(stats.getExpiredHeartbeats()).isEqualTo(1);
+        assertThat(stats.getOldestDueRunDate().isPresent()).isTrue();
+        assertThat(stats.getOldestDueRunDate().get())
+                .isAfterOrEqualTo(oldestDue)
+                .isBefore(LocalDateTime.now().minusSeconds(30));
+        assertThat(okra.countDelayed()).isEqualTo(2);
+        assertThat(okra.countByStatus(OkraStatus.PENDING)).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldOnlyCountTheReportedStatuses() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withCompletedRetention(1, TimeUnit.DAYS);
+        builder.withCollection("matchedStatsSchedulerCollection");
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+
+        okra.schedule(itemAt(LocalDateTime.now().minusMinutes(1)));
+        okra.schedule(itemAt(LocalDateTime.now().minusMinutes(1)));
+        okra.complete(okra.peek().orElseThrow(IllegalStateException::new));
+        okra.getMongoTemplate().insert(new BasicDBObject("note", "not an item"), "matchedStatsSchedulerCollection");
+
+        final QueueStats stats = okra.snapshot();
+
+        assertThat(stats.getCount(OkraStatus.PENDING)).isEqualTo(1);
+        assertThat(stats.getCount(OkraFinalStatus.DONE)).isEqualTo(1);
+        assertThat(stats.getTotal()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldShareCachedSnapshots() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withStatsCache(1, TimeUnit.HOURS);
+        builder.withCollection("cachedStatsSchedulerCollection");
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+
+        final QueueStats first = okra.snapshot();
+        okra.schedule(itemAt(LocalDateTime.now().minusMinutes(1)));
+
+        assertThat(okra.snapshot()).isSameAs(first);
+        assertThat(okra.countDelayed()).isZero();
+    }
+
+    private static DefaultOkraItem itemAt(final LocalDateTime runDate) {
+        final DefaultOkraItem item = new DefaultOkraItem();
+        item.setRunDate(runDate);
+        return item;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import okra.builder.OkraSpringBuilder;
+import okra.model.DefaultOkraItem;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReaperTest extends OkraBaseContainerTest {
+
+    @Test
+    public void shouldOnlyClaimExpiredItemsAfterTheyAreRecovered() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withReaper(1, TimeUnit.HOURS);
+        builder.withCollection("reaperSchedulerCollection")
+                .withExpiration(1, TimeUnit.SECONDS);
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+
+        final DefaultOkraItem item = new DefaultOkraItem();
+        item.setRunDate(LocalDateTime.now().minusSeconds(1));
+        okra.schedule(item);
+
+        assertThat(okra.peek().isPresent()).isTrue();
+
+        Thread.sleep(1500);
+
+        assertThat(okra.peek().isPresent()).isFalse();
+        assertThat(okra.recoverExpired()).isEqualTo(1);
+
+        final Optional<DefaultOkraItem> recovered = okra.peek();
+        assertThat(recovered.isPresent()).isTrue();
+        assertThat(recovered.get().getId()).isEqualTo(item.getId());
+
+        okra.delete(recovered.get());
+        okra.startReaper().ifPresent(OkraReaper::close);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import okra.base.model.OkraStatus;
+import okra.builder.OkraSpringBuilder;
+import okra.model.DefaultOkraItem;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RecurringTest extends OkraBaseContainerTest {
+
+    @Test
+    public void shouldReturnRecurringItemsToPendingInPlace() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = recurringOkra("recurringSchedulerCollection", CatchUpPolicy.COALESCE);
+
+        final LocalDateTime runDate = LocalDateTime.now().minusSeconds(1).truncatedTo(ChronoUnit.MILLIS);
+        final DefaultOkraItem item = recurringItem(runDate, OkraRecurrence.fixedRate(1, TimeUnit.HOURS));
+        okra.schedule(item);
+
+        final DefaultOkraItem claimed = okra.peek().orElseThrow(IllegalStateException::new);
+        okra.complete(claimed);
+
+        assertThat(claimed.getRunDate()).isEqualTo(runDate.plusHours(1));
+        assertThat(claimed.getMissedRuns()).isZero();
+        assertThat(okra.peek().isPresent()).isFalse();
+        assertThat(okra.snapshot().getCount(OkraStatus.PENDING)).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldCoalesceMissedRuns() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = recurringOkra("coalesceSchedulerCollection", CatchUpPolicy.COALESCE);
+
+        final DefaultOkraItem item = recurringItem(LocalDateTime.now().minusSeconds(630),
+                OkraRecurrence.fixedRate(1, TimeUnit.MINUTES));
+        okra.schedule(item);
+
+        okra.complete(okra.peek().orElseThrow(IllegalStateException::new));
+        Thread.sleep(10);
+
+        final Optional<DefaultOkraItem> catchUp = okra.peek();
+        assertThat(catchUp.isPresent()).isTrue();
+        assertThat(catchUp.get().getId()).isEqualTo(item.getId());
+        assertThat(catchUp.get().getMissedRuns()).isEqualTo(10);
+
+        okra.complete(catchUp.get());
+        assertThat(catchUp.get().getMissedRuns()).isZero();
+        assertThat(okra.peek().isPresent()).isFalse();
+    }
+
+    @Test
+    public void shouldSkipMissedRuns() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = recurringOkra("skipSchedulerCollection", CatchUpPolicy.SKIP);
+
+        final LocalDateTime runDate = LocalDateTime.now().minusSeconds(630);
+        okra.schedule(recurringItem(runDate, OkraRecurrence.fixedRate(1, TimeUnit.MINUTES)));
+
+        final DefaultOkraItem claimed = okra.peek().orElseThrow(IllegalStateException::new);
+        okra.completeAll(Collections.singletonList(claimed));
+
+        assertThat(claimed.getMissedRuns()).isEqualTo(10);
+        assertThat(claimed.getRunDate()).isAfter(LocalDateTime.now());
+        assertThat(okra.peek().isPresent()).isFalse();
+    }
+
+    @Test
+    public void shouldOnlyRescheduleRecurringItemsWhoseClaimHeld() throws Exception {
+        final OkraSpring<DefaultOkraItem> okra = recurringOkra("lostRecurringSchedulerCollection", CatchUpPolicy.ALL);
+
+        final LocalDateTime runDate = LocalDateTime.now().minusSeconds(1).truncatedTo(ChronoUnit.MILLIS);
+        okra.schedule(recurringItem(runDate, OkraRecurrence.fixedRate(1, TimeUnit.HOURS)));
+        okra.schedule(recurringItem(runDate, OkraRecurrence.fixedRate(1, TimeUnit.HOURS)));
+
+        final List<DefaultOkraItem> claimed = okra.peekBatch(2);
+        final DefaultOkraItem stale = claimed.get(0);
+        final DefaultOkraItem owned = claimed.get(1);
+        okra.heartbeat(stale).orElseThrow(IllegalStateException::new);
+
+        assertThat(okra.completeAll(Arrays.asList(stale, owned))).isEqualTo(1);
+
+        assertThat(stale.getRunDate()).isEqualTo(runDate);
+        assertThat(stale.getStatus()).isEqualTo(OkraStatus.PROCESSING);
+        assertThat(owned.getRunDate()).isEqualTo(runDate.plusHours(1));
+        assertThat(owned.getStatus()).isEqualTo(OkraStatus.PENDING);
+        assertThat(okra.snapshot().getCount(OkraStatus.PROCESSING)).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldParseRecurrenceSpecs() {
+        assertThat(OkraRecurrence.parse("rate:60000")).isEqualTo(OkraRecurrence.fixedRate(1, TimeUnit.MINUTES));
+        assertThat(OkraRecurrence.parse(OkraRecurrence.cron("0 0 * * * *").toString()).next(
+                LocalDateTime.of(2017, 1, 1, 10, 30))).isEqualTo(LocalDateTime.of(2017, 1, 1, 11, 0));
+    }
+
+    private OkraSpring<DefaultOkraItem> recurringOkra(final String collection,
+                                                     final CatchUpPolicy catchUpPolicy) throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder()
+                .withCatchUpPolicy(catchUpPolicy);
+        builder.withCollection(collection);
+        return builder.build();
+    }
+
+    private static DefaultOkraItem recurringItem(final LocalDateTime runDate, final OkraRecurrence recurrence) {
+        final DefaultOkraItem item = new DefaultOkraItem();
+        item.setRunDate(runDate);
+        item.setRecurrence(recurrence.toString());
+        return item;
+    }
+}
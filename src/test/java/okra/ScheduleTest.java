@@ -26,6 +26,12 @@ import okra.exception.OkraRuntimeException;
 import okra.model.DefaultOkraItem;
 import org.junit.Test;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
 public class ScheduleTest extends OkraBaseContainerTest {
 
     @Test(expected = OkraRuntimeException.class)
@@ -47,4 +53,27 @@ public class ScheduleTest extends OkraBaseContainerTest {
         item.setId("123456");
         getDefaultOkra().schedule(item);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldScheduleAllValidItemsAndReportRejectedOnes() {
+        final List<DefaultOkraItem> items = new ArrayList<>();
+
+        for (int i = 0; i < 2500; i++) {
+            final DefaultOkraItem item = new DefaultOkraItem();
+            item.setRunDate(LocalDateTime.now().plusHours(1));
+            items.add(item);
+        }
+
+        final DefaultOkraItem invalidItem = new DefaultOkraItem();
+        items.add(invalidItem);
+
+        final ScheduleResult<DefaultOkraItem> result = getDefaultOkra().scheduleAll(items);
+
+        assertThat(result.getAccepted()).isEqualTo(2500);
+        assertThat(result.getRejected()).isEqualTo(1);
+        assertThat(result.getFailures().get(0).getItem()).isSameAs(invalidItem);
+        assertThat(items.subList(0, 2500)).extracting("id").doesNotContainNull();
+
+        items.subList(0, 2500).forEach(getDefaultOkra()::delete);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra;
+
+import okra.builder.OkraSpringBuilder;
+import okra.model.DefaultOkraItem;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SubscriptionTest extends OkraBaseContainerTest {
+
+    @Test
+    public void shouldDeliverItemWhenItBecomesDue() throws InterruptedException {
+        final BlockingQueue<DefaultOkraItem> delivered = new LinkedBlockingQueue<>();
+
+        try (OkraSubscription<DefaultOkraItem> ignored = getDefaultOkra().subscribe(delivered::add)) {
+            final DefaultOkraItem item = new DefaultOkraItem();
+            item.setRunDate(LocalDateTime.now().plusNanos(TimeUnit.MILLISECONDS.toNanos(300)));
+            getDefaultOkra().schedule(item);
+
+            final DefaultOkraItem deliveredItem = delivered.poll(2, TimeUnit.SECONDS);
+
+            assertThat(deliveredItem).isNotNull();
+            assertThat(deliveredItem.getId()).isEqualTo(item.getId());
+
+            getDefaultOkra().delete(deliveredItem);
+        }
+    }
+
+    @Test
+    public void shouldRunTheHandlerOffTheTimerThread() throws Exception {
+        final OkraSpringBuilder<DefaultOkraItem> builder = prepareDefaultMongo34OkraSpringBuilder();
+        builder.withCollection("handlerThreadSubscriptionCollection");
+        final OkraSpring<DefaultOkraItem> okra = builder.build();
+        final BlockingQueue<String> threads = new LinkedBlockingQueue<>();
+
+        try (OkraSubscription<DefaultOkraItem> ignored = okra.subscribe(
+                item -> threads.add(Thread.currentThread().getName()))) {
+            final DefaultOkraItem item = new DefaultOkraItem();
+            item.setRunDate(LocalDateTime.now().plusNanos(TimeUnit.MILLISECONDS.toNanos(100)));
+            okra.schedule(item);
+
+            assertThat(threads.poll(2, TimeUnit.SECONDS))
+                    .isEqualTo("okra-subscription-handler-handlerThreadSubscriptionCollection");
+        }
+    }
+}
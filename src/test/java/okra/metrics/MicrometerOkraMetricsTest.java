@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2017 Okra Scheduler
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package okra.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MicrometerOkraMetricsTest {
+
+    @Test
+    public void shouldRecordEveryMeasurementTaggedWithTheQueue() {
+        final MeterRegistry registry = new SimpleMeterRegistry();
+        final MicrometerOkraMetrics metrics = new MicrometerOkraMetrics(registry, "jobs");
+
+        metrics.recordLatency(OkraOperation.PEEK, TimeUnit.MILLISECONDS.toNanos(3));
+        metrics.recordPeek(true);
+        metrics.recordPeek(true);
+        metrics.recordPeek(false);
+        metrics.recordLostHeartbeats(2);
+        metrics.recordQueueLag(250);
+        metrics.recordPrefetchPoll(true);
+        metrics.recordPrefetchPoll(false);
+        metrics.recordPrefetchBufferOccupancy(7);
+
+        assertThat(registry.find("okra.operation").tags("queue", "jobs", "operation", "peek").timer().count())
+                .isEqualTo(1);
+        assertThat(registry.find("okra.peek").tags("queue", "jobs", "result", "hit").counter().count())
+                .isEqualTo(2);
+        assertThat(registry.find("okra.peek").tags("queue", "jobs", "result", "miss").counter().count())
+                .isEqualTo(1);
+        assertThat(registry.find("okra.heartbeat.lost").tag("queue", "jobs").counter().count())
+                .isEqualTo(2);
+        assertThat(registry.find("okra.queue.lag").tag("queue", "jobs").timer().totalTime(TimeUnit.MILLISECONDS))
+                .isEqualTo(250);
+        assertThat(registry.find("okra.prefetch.poll").tags("queue", "jobs", "result", "hit").counter().count())
+                .isEqualTo(1);
+        assertThat(registry.find("okra.prefetch.poll").tags("queue", "jobs", "result", "miss").counter().count())
+                .isEqualTo(1);
+        assertThat(registry.find("okra.prefetch.buffer").tag("queue", "jobs").gauge().value())
+                .isEqualTo(7);
+    }
+
+    @Test
+    public void shouldNotRecordNegativeLags() {
+        final MeterRegistry registry = new SimpleMeterRegistry();
+        final MicrometerOkraMetrics metrics = new MicrometerOkraMetrics(registry, "jobs");
+
+        metrics.recordQueueLag(-40);
+
+        assertThat(registry.find("okra.queue.lag").timer().count()).isEqualTo(1);
+        assertThat(registry.find("okra.queue.lag").timer().totalTime(TimeUnit.MILLISECONDS)).isZero();
+    }
+}